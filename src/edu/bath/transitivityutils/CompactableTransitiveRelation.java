@@ -0,0 +1,15 @@
+package edu.bath.transitivityutils;
+
+/**
+ * A transitive relation whose labeling can be recomputed from scratch, to undo the fragmentation caused by
+ * relating elements in an unfavorable order.
+ *
+ * @see Relations#compact(TransitiveRelation)
+ * @author Andreou Dimitris, email: jim.andreou (at) gmail.com
+ */
+interface CompactableTransitiveRelation<E> extends TransitiveRelation<E> {
+    /**
+     * Relabels this relation from its direct relationships, and reports the number of intervals before and after.
+     */
+    CompactionReport compact();
+}
@@ -0,0 +1,56 @@
+package edu.bath.transitivityutils;
+
+/**
+ * The outcome of {@linkplain Relations#compact(TransitiveRelation) compacting} a transitive relation: the number
+ * of intervals held by its elements before and after the compaction. The number of intervals of an element is
+ * what the cost of querying whether something is related to it depends on.
+ *
+ * @author Andreou Dimitris, email: jim.andreou (at) gmail.com
+ */
+public final class CompactionReport {
+    private final long intervalsBefore;
+    private final int maxIntervalsBefore;
+    private final long intervalsAfter;
+    private final int maxIntervalsAfter;
+
+    CompactionReport(long intervalsBefore, int maxIntervalsBefore, long intervalsAfter, int maxIntervalsAfter) {
+        this.intervalsBefore = intervalsBefore;
+        this.maxIntervalsBefore = maxIntervalsBefore;
+        this.intervalsAfter = intervalsAfter;
+        this.maxIntervalsAfter = maxIntervalsAfter;
+    }
+
+    /**
+     * Returns the total number of intervals of all elements before the compaction.
+     */
+    public long intervalsBefore() {
+        return intervalsBefore;
+    }
+
+    /**
+     * Returns the largest number of intervals of a single element before the compaction.
+     */
+    public int maxIntervalsBefore() {
+        return maxIntervalsBefore;
+    }
+
+    /**
+     * Returns the total number of intervals of all elements after the compaction.
+     */
+    public long intervalsAfter() {
+        return intervalsAfter;
+    }
+
+    /**
+     * Returns the largest number of intervals of a single element after the compaction.
+     */
+    public int maxIntervalsAfter() {
+        return maxIntervalsAfter;
+    }
+
+    @Override
+    public String toString() {
+        return "[intervals: " + intervalsBefore + " -> " + intervalsAfter
+                + ", maxIntervals: " + maxIntervalsBefore + " -> " + maxIntervalsAfter + "]";
+    }
+}
@@ -0,0 +1,249 @@
+package edu.bath.transitivityutils;
+
+import com.google.common.base.Objects;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.HashMultimap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.SetMultimap;
+import java.io.Serializable;
+import java.util.Collection;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A (transitive, reflexive) binary relation that can be queried by any number of threads without locking,
+ * while writes are serialized.
+ *
+ * <p>Writers take a lock, and bump a version stamp before and after mutating the underlying
+ * {@link DefaultTransitiveRelation} (so the stamp is odd while a write is in progress). Readers
+ * run the query optimistically against the underlying relation, and accept the result only if the stamp
+ * was even and did not change meanwhile; otherwise the query saw a partially applied write (e.g. an
+ * {@code OrderList} relabeling, or an interval set being rewritten), and is retried. Any exception thrown
+ * by such an inconsistent read is likewise discarded. Only a reader that keeps losing races with writers
+ * eventually falls back to the lock.
+ *
+ * <p>The reads of a query are ordinary reads, which the memory model allows to be reordered after a later volatile
+ * read, so a reader could read the stamp unchanged while the query saw a concurrent write. Thus, before re-reading
+ * the stamp, a reader fences its reads with a volatile write to a field of its own: the reads cannot be reordered
+ * after that write, nor the write after the following volatile read of the stamp. The field is private to the
+ * reading thread, so readers never write to a shared cache line, and do not contend with each other.
+ *
+ * <p>Queries cannot use the cached primitive copies of the interval boundaries that
+ * {@link Relations#newTransitiveRelation()} keeps, since those are refreshed lazily by the queries themselves, and
+ * readers must not write. Instead, each query compares the tags of the boundaries, reading them through the nodes;
+ * this is somewhat slower for elements with many intervals.
+ *
+ * @author Andreou Dimitris, email: jim.andreou (at) gmail.com
+ */
+final class ConcurrentTransitiveRelation<E> implements EnumerableTransitiveRelation<E>, RemovableTransitiveRelation<E>,
+        CompactableTransitiveRelation<E>, MeasurableTransitiveRelation<E>, Serializable {
+    private final DefaultTransitiveRelation<E> relation = new DefaultTransitiveRelation<E>(true);
+    private final Object lock = new Object();
+    private final Navigator<E> navigator = new DirectNavigator();
+
+    /**
+     * Incremented once before and once after each write, under the lock.
+     */
+    private final AtomicLong version = new AtomicLong();
+
+    /**
+     * How many times a reader retries optimistically before falling back to the lock.
+     */
+    private static final int MAX_OPTIMISTIC_ATTEMPTS = 64;
+
+    /**
+     * The fence of each reading thread (see {@link #validate(long)}).
+     */
+    private static final ThreadLocal<Fence> fences = new ThreadLocal<Fence>() {
+        @Override protected Fence initialValue() {
+            return new Fence();
+        }
+    };
+
+    private static final long serialVersionUID = 1286457409837318127L;
+
+    ConcurrentTransitiveRelation() { }
+
+    public void relate(E subject, E object) {
+        Preconditions.checkNotNull(subject);
+        Preconditions.checkNotNull(object);
+        synchronized (lock) {
+            version.incrementAndGet();
+            try {
+                relation.relate(subject, object);
+            } finally {
+                version.incrementAndGet();
+            }
+        }
+    }
+
+    public boolean unrelate(E subject, E object) {
+        synchronized (lock) {
+            version.incrementAndGet();
+            try {
+                return relation.unrelate(subject, object);
+            } finally {
+                version.incrementAndGet();
+            }
+        }
+    }
+
+    public boolean remove(E element) {
+        synchronized (lock) {
+            version.incrementAndGet();
+            try {
+                return relation.remove(element);
+            } finally {
+                version.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * The fresh labeling is built while holding the lock but without bumping the version, since the current one is
+     * only read meanwhile; thus readers are not disturbed, and only the final swap of state counts as a write.
+     */
+    public CompactionReport compact() {
+        synchronized (lock) {
+            long intervalsBefore = relation.totalIntervals();
+            int maxIntervalsBefore = relation.maxIntervals();
+            DefaultTransitiveRelation<E> rebuilt = relation.rebuild();
+            version.incrementAndGet();
+            try {
+                relation.adopt(rebuilt);
+            } finally {
+                version.incrementAndGet();
+            }
+            return new CompactionReport(intervalsBefore, maxIntervalsBefore,
+                    relation.totalIntervals(), relation.maxIntervals());
+        }
+    }
+
+    public RelationStatistics statistics() {
+        synchronized (lock) {
+            return relation.statistics();
+        }
+    }
+
+    /**
+     * The listener is notified while the lock is held.
+     */
+    public void setListener(RelationListener listener) {
+        synchronized (lock) {
+            relation.setListener(listener);
+        }
+    }
+
+    public boolean areRelated(E subject, E object) {
+        if (subject == null || object == null) {
+            return Objects.equal(subject, object);
+        }
+        for (int attempt = 0; attempt < MAX_OPTIMISTIC_ATTEMPTS; attempt++) {
+            long stamp = version.get();
+            if ((stamp & 1L) != 0L) {
+                Thread.yield(); //a write is in progress
+                continue;
+            }
+            boolean result;
+            try {
+                result = relation.areRelated(subject, object);
+            } catch (RuntimeException e) {
+                if (validate(stamp)) throw e; //a genuine failure, not caused by a concurrent write
+                continue;
+            }
+            if (validate(stamp)) {
+                return result;
+            }
+        }
+        synchronized (lock) {
+            return relation.areRelated(subject, object);
+        }
+    }
+
+    /**
+     * Tests whether no write started since the specified (even) stamp was read. The stamp is re-read only after
+     * a volatile write of the thread's fence, so that the preceding reads cannot be reordered after it (see the
+     * class comment).
+     */
+    private boolean validate(long stamp) {
+        fences.get().value = 0;
+        return version.get() == stamp;
+    }
+
+    private static final class Fence {
+        volatile int value;
+    }
+
+    /**
+     * Enumerates under the write lock, since (unlike single queries) scans of {@code OrderList} ranges
+     * cannot be validated optimistically.
+     */
+    public void collectDescendants(E object, Collection<? super E> collection) {
+        synchronized (lock) {
+            relation.collectDescendants(object, collection);
+        }
+    }
+
+    public int countDescendants(E object) {
+        synchronized (lock) {
+            return relation.countDescendants(object);
+        }
+    }
+
+    /**
+     * Returns a navigator over the direct relationships. Since these are not meant to be
+     * read concurrently with writes, every method of the navigator takes the write lock and returns
+     * an immutable copy.
+     */
+    public Navigator<E> direct() {
+        return navigator;
+    }
+
+    @Override
+    public String toString() {
+        synchronized (lock) {
+            return relation.toString();
+        }
+    }
+
+    private class DirectNavigator implements Navigator<E> {
+        public Set<E> related(E subject) {
+            synchronized (lock) {
+                return ImmutableSet.copyOf(relation.direct().related(subject));
+            }
+        }
+
+        public Set<E> domain() {
+            synchronized (lock) {
+                return ImmutableSet.copyOf(relation.direct().domain());
+            }
+        }
+    }
+
+    private Object writeReplace() {
+        SetMultimap<E, E> edges = HashMultimap.create();
+        synchronized (lock) {
+            Navigator<E> direct = relation.direct();
+            for (E subject : direct.domain()) {
+                edges.putAll(subject, direct.related(subject));
+            }
+        }
+        return new SerializationProxy<E>(edges);
+    }
+
+    private static class SerializationProxy<E> implements Serializable {
+        private final SetMultimap<E, E> edges;
+
+        private static final long serialVersionUID = -5376026618009745624L;
+
+        SerializationProxy(SetMultimap<E, E> edges) {
+            this.edges = edges;
+        }
+
+        private Object readResolve() {
+            ConcurrentTransitiveRelation<E> rel = new ConcurrentTransitiveRelation<E>();
+            Relations.merge(rel, Navigators.forMultimap(edges));
+            return rel;
+        }
+    }
+}
@@ -0,0 +1,371 @@
+package edu.bath.transitivityutils;
+
+import com.google.common.base.Preconditions;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * A (transitive, reflexive) binary relation over dense, non-negative int elements.
+ *
+ * <p>This follows exactly the labeling scheme of {@link DefaultTransitiveRelation}, but all per-element
+ * state lives in arrays indexed by the element itself: the pre and post nodes in the {@code OrderList},
+ * the interval set, and the direct successors (as a primitive list). Thus neither relating nor querying
+ * allocates, apart from growing those arrays.
+ *
+ * @author Andreou Dimitris, email: jim.andreou (at) gmail.com
+ */
+class DefaultIntTransitiveRelation implements IntTransitiveRelation, Serializable {
+    private final OrderList<Object> magicList = OrderList.create();
+
+    /*
+     * For each element, the nodes of its interval in magicList (null for unknown elements),
+     * with the post node holding ENCLOSABLE_MARKER as long as the element is enclosable.
+     */
+    private OrderList.Node<Object>[] pres;
+    private OrderList.Node<Object>[] posts;
+    private MergingIntervalSet[] intervalSets;
+
+    private int[][] successors;
+    private int[] successorCounts;
+    private int domainSize;
+
+    private int[] toVisit = new int[16];
+    private int[] visitEpochs;
+    private int visitEpoch;
+
+    private final Navigator<Integer> navigator = new DirectNavigator();
+
+    private static final Object ENCLOSABLE_MARKER = "<enclosable>";
+    private static final int[] NO_SUCCESSORS = new int[0];
+
+    private static final long serialVersionUID = -2294506468401575431L;
+
+    DefaultIntTransitiveRelation(int expectedSize) {
+        Preconditions.checkArgument(expectedSize >= 0, "Negative expected size: %s", expectedSize);
+        allocate(Math.max(expectedSize, 1));
+    }
+
+    @SuppressWarnings("unchecked")
+    private void allocate(int capacity) {
+        pres = new OrderList.Node[capacity];
+        posts = new OrderList.Node[capacity];
+        intervalSets = new MergingIntervalSet[capacity];
+        successors = new int[capacity][];
+        successorCounts = new int[capacity];
+        visitEpochs = new int[capacity];
+        Arrays.fill(successors, NO_SUCCESSORS);
+    }
+
+    public void relate(int subject, int object) {
+        Preconditions.checkArgument(subject >= 0, "Negative element: %s", subject);
+        Preconditions.checkArgument(object >= 0, "Negative element: %s", object);
+        Preconditions.checkArgument(subject < Integer.MAX_VALUE, "Element too large: %s", subject);
+        Preconditions.checkArgument(object < Integer.MAX_VALUE, "Element too large: %s", object);
+        if (subject == object) {
+            return;
+        }
+        ensureCapacity(Math.max(subject, object) + 1);
+
+        if (isNew(subject)) {
+            if (isNew(object)) {
+                create(subject);
+                createEnclosing(subject, object);
+            } else {
+                createEnclosed(object, subject);
+            }
+        } else {
+            if (isEnclosable(subject) && isNew(object)) {
+                createEnclosing(subject, object);
+            } else {
+                if (isNew(object)) {
+                    create(object);
+                }
+                propagate(subject, object);
+            }
+        }
+        addSuccessor(subject, object);
+    }
+
+    private boolean isNew(int element) {
+        return pres[element] == null;
+    }
+
+    private boolean isEnclosable(int element) {
+        boolean isEnclosable = posts[element].getValue() == ENCLOSABLE_MARKER;
+        if (isEnclosable) {
+            isEnclosable = intervalSets[element].size() == 2; //see DefaultTransitiveRelation.Node#isEnclosable()
+            if (!isEnclosable) posts[element].setValue(null);
+        }
+        return isEnclosable;
+    }
+
+    private void create(int element) {
+        OrderList.Node<Object> newPre = magicList.addAfter(magicList.base().previous(), null);
+        OrderList.Node<Object> newPost = magicList.addAfter(newPre, ENCLOSABLE_MARKER);
+        register(element, newPre, newPost);
+    }
+
+    private void createEnclosing(int enclosed, int element) {
+        OrderList.Node<Object> newPre = magicList.addAfter(pres[enclosed].previous(), null);
+        OrderList.Node<Object> newPost = magicList.addAfter(posts[enclosed], ENCLOSABLE_MARKER);
+        posts[enclosed].setValue(null);
+        register(element, newPre, newPost);
+    }
+
+    //the created element cannot be enclosed; it is created already enclosed
+    private void createEnclosed(int enclosing, int element) {
+        OrderList.Node<Object> newPre = magicList.addAfter(posts[enclosing].previous(), null);
+        OrderList.Node<Object> newPost = magicList.addAfter(newPre, null);
+        register(element, newPre, newPost);
+    }
+
+    private void register(int element, OrderList.Node<Object> pre, OrderList.Node<Object> post) {
+        pres[element] = pre;
+        posts[element] = post;
+        MergingIntervalSet intervalSet = new MergingIntervalSet();
+        intervalSet.addInterval(pre, post);
+        intervalSets[element] = intervalSet;
+    }
+
+    //see DefaultTransitiveRelation#propagate(Node, Node)
+    private void propagate(int subject, int object) {
+        int epoch = nextVisitEpoch();
+        MergingIntervalSet subjectIntervals = intervalSets[subject];
+        int top = 0;
+        toVisit[top++] = object;
+        visitEpochs[object] = epoch;
+        while (top > 0) {
+            int current = toVisit[--top];
+            if (intervalSets[current].addIntervals(subjectIntervals)) { //this gracefully handles cycles
+                int[] next = successors[current];
+                int count = successorCounts[current];
+                if (top + count > toVisit.length) {
+                    toVisit = MoreArrays.copyOf(toVisit, Math.max(toVisit.length * 2, top + count));
+                }
+                for (int i = 0; i < count; i++) {
+                    if (visitEpochs[next[i]] != epoch) {
+                        visitEpochs[next[i]] = epoch;
+                        toVisit[top++] = next[i];
+                    }
+                }
+            }
+        }
+    }
+
+    private int nextVisitEpoch() {
+        if (++visitEpoch == 0) { //wrapped around
+            Arrays.fill(visitEpochs, 0);
+            visitEpoch = 1;
+        }
+        return visitEpoch;
+    }
+
+    private void addSuccessor(int subject, int object) {
+        int[] list = successors[subject];
+        int count = successorCounts[subject];
+        for (int i = 0; i < count; i++) {
+            if (list[i] == object) return;
+        }
+        if (count == 0) {
+            domainSize++;
+        }
+        if (count == list.length) {
+            list = successors[subject] = MoreArrays.copyOf(list, Math.max(2, count * 2));
+        }
+        list[count] = object;
+        successorCounts[subject] = count + 1;
+    }
+
+    private void ensureCapacity(int minCapacity) {
+        int oldCapacity = pres.length;
+        if (minCapacity <= oldCapacity) return;
+        int newCapacity = Math.max(minCapacity, oldCapacity + (oldCapacity >> 1));
+        pres = MoreArrays.copyOf(pres, newCapacity);
+        posts = MoreArrays.copyOf(posts, newCapacity);
+        intervalSets = MoreArrays.copyOf(intervalSets, newCapacity);
+        successors = MoreArrays.copyOf(successors, newCapacity);
+        Arrays.fill(successors, oldCapacity, newCapacity, NO_SUCCESSORS);
+        successorCounts = MoreArrays.copyOf(successorCounts, newCapacity);
+        visitEpochs = MoreArrays.copyOf(visitEpochs, newCapacity);
+    }
+
+    public boolean areRelated(int subject, int object) {
+        if (subject == object) return true;
+        if (subject < 0 || subject >= pres.length || object < 0 || object >= pres.length) return false;
+
+        OrderList.Node<Object> subjectPre = pres[subject];
+        if (subjectPre == null) return false;
+
+        MergingIntervalSet objectIntervals = intervalSets[object];
+        if (objectIntervals == null) return false;
+
+        return objectIntervals.contains(subjectPre, magicList.relabelCount());
+    }
+
+    public Navigator<Integer> direct() {
+        return navigator;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("{");
+        boolean first = true;
+        for (int i = 0; i < intervalSets.length; i++) {
+            if (intervalSets[i] == null) continue;
+            if (!first) sb.append(", ");
+            first = false;
+            sb.append(i).append("=").append(intervalSets[i]);
+        }
+        return sb.append("}").toString();
+    }
+
+    private class DirectNavigator implements Navigator<Integer> {
+        public Set<Integer> related(Integer subjectValue) {
+            final int subject = subjectValue;
+            if (subject < 0 || subject >= successorCounts.length || successorCounts[subject] == 0) {
+                return Collections.emptySet();
+            }
+            return new AbstractSet<Integer>() {
+                @Override
+                public Iterator<Integer> iterator() {
+                    return new IntIterator(successors[subject], successorCounts[subject]);
+                }
+
+                @Override
+                public int size() {
+                    return successorCounts[subject];
+                }
+            };
+        }
+
+        public Set<Integer> domain() {
+            return new AbstractSet<Integer>() {
+                @Override
+                public Iterator<Integer> iterator() {
+                    return new DomainIterator();
+                }
+
+                @Override
+                public boolean contains(Object o) {
+                    if (!(o instanceof Integer)) return false;
+                    int element = (Integer)o;
+                    return element >= 0 && element < successorCounts.length && successorCounts[element] != 0;
+                }
+
+                @Override
+                public int size() {
+                    return domainSize;
+                }
+            };
+        }
+    }
+
+    private static class IntIterator implements Iterator<Integer> {
+        private final int[] array;
+        private final int size;
+        private int index;
+
+        IntIterator(int[] array, int size) {
+            this.array = array;
+            this.size = size;
+        }
+
+        public boolean hasNext() {
+            return index < size;
+        }
+
+        public Integer next() {
+            if (!hasNext()) throw new NoSuchElementException();
+            return array[index++];
+        }
+
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    private class DomainIterator implements Iterator<Integer> {
+        private int next = advance(0);
+
+        private int advance(int from) {
+            while (from < successorCounts.length && successorCounts[from] == 0) from++;
+            return from;
+        }
+
+        public boolean hasNext() {
+            return next < successorCounts.length;
+        }
+
+        public Integer next() {
+            if (!hasNext()) throw new NoSuchElementException();
+            int current = next;
+            next = advance(current + 1);
+            return current;
+        }
+
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    private Object writeReplace() {
+        return new SerializationProxy(successors, successorCounts);
+    }
+
+    private static class SerializationProxy implements Serializable {
+        transient int[][] successors;
+        transient int[] successorCounts;
+
+        private static final long serialVersionUID = 4946612396549208236L;
+
+        SerializationProxy(int[][] successors, int[] successorCounts) {
+            this.successors = successors;
+            this.successorCounts = successorCounts;
+        }
+
+        //Writing the capacity, then for each element: the number of its direct successors, and then the successors
+        private void writeObject(ObjectOutputStream s) throws IOException {
+            s.writeInt(successorCounts.length);
+            for (int i = 0; i < successorCounts.length; i++) {
+                int count = successorCounts[i];
+                s.writeInt(count);
+                for (int j = 0; j < count; j++) {
+                    s.writeInt(successors[i][j]);
+                }
+            }
+        }
+
+        private void readObject(ObjectInputStream s) throws IOException, ClassNotFoundException {
+            int capacity = s.readInt();
+            successors = new int[capacity][];
+            successorCounts = new int[capacity];
+            for (int i = 0; i < capacity; i++) {
+                int count = s.readInt();
+                successors[i] = new int[count];
+                successorCounts[i] = count;
+                for (int j = 0; j < count; j++) {
+                    successors[i][j] = s.readInt();
+                }
+            }
+        }
+
+        private Object readResolve() {
+            DefaultIntTransitiveRelation rel = new DefaultIntTransitiveRelation(successorCounts.length);
+            for (int subject = 0; subject < successorCounts.length; subject++) {
+                for (int j = 0; j < successorCounts[subject]; j++) {
+                    rel.relate(subject, successors[subject][j]);
+                }
+            }
+            return rel;
+        }
+    }
+}
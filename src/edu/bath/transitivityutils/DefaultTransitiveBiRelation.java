@@ -4,46 +4,97 @@ import com.google.common.base.Objects;
 import com.google.common.collect.HashMultimap;
 import com.google.common.collect.SetMultimap;
 import java.io.Serializable;
+import java.util.Collection;
 
 /**
+ * A bidirectional transitive relation, labeling the direct relationships in a {@link DefaultTransitiveRelation}
+ * and keeping the inverse relationships in a multimap, for navigation. Optionally, the inverse relationships are
+ * labeled too, in a second {@code DefaultTransitiveRelation} (dual labeling), so that queries on the inverse,
+ * such as enumerating the ancestors of an element, are answered from that labeling instead of by traversing the
+ * relationships; this doubles the cost of relating elements, and roughly the memory used.
  *
  * @author Andreou Dimitris, email: jim.andreou (at) gmail.com
  */
-class DefaultTransitiveBiRelation<E> implements TransitiveBiRelation<E>, Serializable {
+class DefaultTransitiveBiRelation<E> implements TransitiveBiRelation<E>, EnumerableTransitiveRelation<E>,
+        RemovableTransitiveRelation<E>, CompactableTransitiveRelation<E>,
+        MeasurableTransitiveRelation<E>, Serializable {
+    //empty if the inverse relationships are labeled, since then inverseLabeling navigates them
     private final SetMultimap<E, E> inverseEdges = HashMultimap.create(16, 2);
-    private final TransitiveRelation<E> relation = Relations.newTransitiveRelation();
-    private final Navigator<E> inverseRelation = Navigators.forMultimap(inverseEdges);
+    private final DefaultTransitiveRelation<E> relation = new DefaultTransitiveRelation<E>();
+    //null, unless the inverse relationships are labeled
+    private final DefaultTransitiveRelation<E> inverseLabeling;
+    private final Navigator<E> inverseRelation;
 
     private static final long serialVersionUID = 3392427271698826042L;
 
-    private final TransitiveBiRelation<E> inverse = new TransitiveBiRelation<E>() {
-        public Navigator<E> direct() {
-            return inverseRelation;
-        }
+    private final TransitiveBiRelation<E> inverse;
 
-        public void relate(E object, E subject) {
-            relation.relate(subject, object);
-            if (!Objects.equal(subject, object)) {
-                inverseEdges.put(object, subject);
-            }
-        }
+    DefaultTransitiveBiRelation() {
+        this(false);
+    }
 
-        public boolean areRelated(E subject, E object) {
-            return relation.areRelated(object, subject);
+    /**
+     * @param labelInverse whether to label the inverse relationships too (see above)
+     */
+    DefaultTransitiveBiRelation(boolean labelInverse) {
+        if (labelInverse) {
+            inverseLabeling = new DefaultTransitiveRelation<E>();
+            inverseRelation = inverseLabeling.direct();
+        } else {
+            inverseLabeling = null;
+            inverseRelation = Navigators.forMultimap(inverseEdges);
         }
+        inverse = new Inverse();
+    }
 
-        public TransitiveBiRelation<E> inverse() {
-            return DefaultTransitiveBiRelation.this;
+    /**
+     * Returns the {@code DefaultTransitiveRelation} whose labeling answers the queries of the specified relation, if
+     * that is a relation of this class, or the inverse of one whose inverse relationships are labeled; otherwise,
+     * the relation itself.
+     */
+    static <E> TransitiveRelation<E> labelingOf(TransitiveRelation<E> relation) {
+        if (relation instanceof DefaultTransitiveBiRelation) {
+            return ((DefaultTransitiveBiRelation<E>)relation).relation;
         }
-    };
-
-    DefaultTransitiveBiRelation() { }
+        if (relation instanceof DefaultTransitiveBiRelation.Inverse) {
+            DefaultTransitiveRelation<E> inverseLabeling =
+                    ((DefaultTransitiveBiRelation<E>.Inverse)relation).owner().inverseLabeling;
+            if (inverseLabeling != null) {
+                return inverseLabeling;
+            }
+        }
+        return relation;
+    }
 
     public void relate(E subject, E object) {
         relation.relate(subject, object);
-        if (!Objects.equal(subject, object)) {
+        if (Objects.equal(subject, object)) return;
+        if (inverseLabeling == null) {
             inverseEdges.put(object, subject);
+        } else {
+            inverseLabeling.relate(object, subject);
+        }
+    }
+
+    public boolean unrelate(E subject, E object) {
+        if (inverseLabeling == null) {
+            inverseEdges.remove(object, subject);
+        } else {
+            inverseLabeling.unrelate(object, subject);
+        }
+        return relation.unrelate(subject, object);
+    }
+
+    public boolean remove(E element) {
+        if (inverseLabeling == null) {
+            for (E object : relation.direct().related(element)) {
+                inverseEdges.remove(object, element);
+            }
+            inverseEdges.removeAll(element);
+        } else {
+            inverseLabeling.remove(element);
         }
+        return relation.remove(element);
     }
 
     public boolean areRelated(E subjectValue, E objectValue) {
@@ -54,23 +105,92 @@ class DefaultTransitiveBiRelation<E> implements TransitiveBiRelation<E>, Seriali
         return relation.direct();
     }
 
+    public void collectDescendants(E object, Collection<? super E> collection) {
+        relation.collectDescendants(object, collection);
+    }
+
+    public int countDescendants(E object) {
+        return relation.countDescendants(object);
+    }
+
+    public CompactionReport compact() {
+        CompactionReport report = relation.compact();
+        if (inverseLabeling == null) {
+            return report;
+        }
+        CompactionReport inverseReport = inverseLabeling.compact();
+        return new CompactionReport(report.intervalsBefore() + inverseReport.intervalsBefore(),
+                Math.max(report.maxIntervalsBefore(), inverseReport.maxIntervalsBefore()),
+                report.intervalsAfter() + inverseReport.intervalsAfter(),
+                Math.max(report.maxIntervalsAfter(), inverseReport.maxIntervalsAfter()));
+    }
+
+    public RelationStatistics statistics() {
+        long inverseBytes = inverseLabeling == null
+                ? RelationStatistics.hashMultimapBytes(inverseEdges)
+                : inverseLabeling.statistics().estimatedBytes();
+        return relation.statistics().plusBytes(inverseBytes);
+    }
+
+    public void setListener(RelationListener listener) {
+        relation.setListener(listener);
+        if (inverseLabeling != null) {
+            inverseLabeling.setListener(listener);
+        }
+    }
+
     public TransitiveBiRelation<E> inverse() {
         return inverse;
     }
 
+    private class Inverse implements TransitiveBiRelation<E> {
+        public Navigator<E> direct() {
+            return inverseRelation;
+        }
+
+        public void relate(E object, E subject) {
+            DefaultTransitiveBiRelation.this.relate(subject, object);
+        }
+
+        public boolean areRelated(E subject, E object) {
+            return inverseLabeling == null
+                    ? relation.areRelated(object, subject)
+                    : inverseLabeling.areRelated(subject, object);
+        }
+
+        public TransitiveBiRelation<E> inverse() {
+            return DefaultTransitiveBiRelation.this;
+        }
+
+        DefaultTransitiveBiRelation<E> owner() {
+            return DefaultTransitiveBiRelation.this;
+        }
+    }
+
     private Object writeReplace() {
-        return new SerializationProxy<E>(inverseEdges);
+        SetMultimap<E, E> edges = inverseEdges;
+        if (inverseLabeling != null) {
+            edges = HashMultimap.create();
+            for (E object : inverseRelation.domain()) {
+                edges.putAll(object, inverseRelation.related(object));
+            }
+        }
+        return new SerializationProxy<E>(edges, inverseLabeling != null);
     }
 
     private static class SerializationProxy<E> implements Serializable {
         private final SetMultimap<E, E> inverseEdges;
+        private final boolean labelInverse; //absent (false) in streams of earlier versions
+
+        private static final long serialVersionUID = -2120256853698821336L;
 
-        SerializationProxy(SetMultimap<E, E> inverseEdges) {
+        SerializationProxy(SetMultimap<E, E> inverseEdges, boolean labelInverse) {
             this.inverseEdges = inverseEdges;
+            this.labelInverse = labelInverse;
         }
 
         private Object readResolve() {
-            DefaultTransitiveBiRelation<E> rel = new DefaultTransitiveBiRelation<E>();
+            DefaultTransitiveBiRelation<E> rel = new DefaultTransitiveBiRelation<E>(labelInverse);
             TransitiveBiRelation<E> inverse = rel.inverse();
             for (E object : inverseEdges.keySet()) {
                 for (E subject : inverseEdges.get(object)) {
@@ -2,42 +2,96 @@ package edu.bath.transitivityutils;
 
 import com.google.common.base.Function;
 import com.google.common.base.Objects;
+import com.google.common.base.Preconditions;
 import com.google.common.collect.HashMultimap;
 import com.google.common.collect.Iterators;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.collect.SetMultimap;
+import com.google.common.collect.Sets;
 import java.io.IOException;
+import java.io.ObjectInput;
 import java.io.ObjectInputStream;
+import java.io.ObjectOutput;
 import java.io.ObjectOutputStream;
 import java.io.Serializable;
+import java.io.StreamCorruptedException;
 import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.Iterator;
-import java.util.LinkedList;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * A (transitive, reflexive) binary relation.
  *
  * @author Andreou Dimitris, email: jim.andreou (at) gmail.com
  */
-class DefaultTransitiveRelation<E> implements TransitiveRelation<E>, Serializable {
-    private final OrderList<E> magicList = OrderList.create();
-    private final Map<E, Node<E>> nodeMap = Maps.newHashMap();
-    private final SetMultimap<Node<E>, Node<E>> directRelationships = HashMultimap.create();
+class DefaultTransitiveRelation<E> implements EnumerableTransitiveRelation<E>, RemovableTransitiveRelation<E>,
+        CompactableTransitiveRelation<E>, MeasurableTransitiveRelation<E>, Serializable {
+    //not final, only so that compact() can replace them with those of a rebuilt relation
+    private OrderList<E> magicList;
+    private Map<E, Node<E>> nodeMap;
+    private SetMultimap<Node<E>, Node<E>> directRelationships = HashMultimap.create();
     private final Navigator<E> navigator = new DirectNavigator();
 
+    //propagation state, reused across propagations
+    private Object[] toVisit = new Object[16];
+    private int visitEpoch;
+    private final PropagationCounters counters = new PropagationCounters();
+
+    //notified of propagations and interval set growths (and, through magicList, of relabelings), if not null
+    private RelationListener listener;
+
+    //counts the outcomes of queries, if not null (never in sharedReads mode, where queries must not write)
+    private QueryCounters queryCounters;
+
+    //incremented whenever nodes are discarded, so that element handles know to resolve their nodes again
+    private int generation;
+
+    /**
+     * Whether queries may run concurrently with each other (though not with writes). If so,
+     * queries must not use the tag caches of interval sets, since refreshing them is a write.
+     */
+    private final boolean sharedReads;
+
     private static final long serialVersionUID = -4031451040065579682L;
 
-    DefaultTransitiveRelation() { }
+    DefaultTransitiveRelation() {
+        this(false);
+    }
+
+    /**
+     * @param sharedReads if {@code true}, then {@link #areRelated(Object, Object)} performs no writes
+     * at all, so that it may be invoked concurrently by many threads. In this mode, null elements are not
+     * supported.
+     */
+    DefaultTransitiveRelation(boolean sharedReads) {
+        this(sharedReads, false);
+    }
+
+    /**
+     * @param sharedReads see {@link #DefaultTransitiveRelation(boolean)}
+     * @param twoLevel if {@code true}, the labeling is kept in a {@linkplain OrderList#createTwoLevel() two-level}
+     * order list, where insertions take constant amortized time
+     */
+    DefaultTransitiveRelation(boolean sharedReads, boolean twoLevel) {
+        this.sharedReads = sharedReads;
+        this.magicList = twoLevel ? OrderList.<E>createTwoLevel() : OrderList.<E>create();
+        this.nodeMap = sharedReads ? new ConcurrentHashMap<E, Node<E>>() : Maps.<E, Node<E>>newHashMap();
+    }
 
     public void relate(E subjectValue, E objectValue) {
         if (Objects.equal(subjectValue, objectValue)) {
             return;
         }
+        counters.startRelate();
 
         Node<E> subject;
         Node<E> object;
@@ -55,7 +109,13 @@ class DefaultTransitiveRelation<E> implements TransitiveRelation<E>, Serializabl
                 object = subject.createEnclosing(this, objectValue);
             } else {
                 object = getOrCreateNode(objectValue);
-                propagate(subject, object);
+                if (subject.representative == object.representative) {
+                    //already equivalent, nothing to propagate
+                } else if (areNodesRelated(object, subject)) {
+                    collapse(subject, object);
+                } else {
+                    propagate(subject, object);
+                }
             }
         }
         directRelationships.put(subject, object);
@@ -70,18 +130,335 @@ class DefaultTransitiveRelation<E> implements TransitiveRelation<E>, Serializabl
         return node == null ? Node.create(this, value) : node;
     }
 
+    /**
+     * If the subject is nested in the object (i.e., this is the relationship that the subject's interval was
+     * nested for), the subject's interval is first moved out of the object's, along with everything nested in it.
+     * Then, only the interval sets of the elements reachable from the object (or from any moved element) are
+     * recomputed; see {@link #repair(Set, Node, Node)}.
+     */
+    public boolean unrelate(E subjectValue, E objectValue) {
+        Node<E> subject = nodeMap.get(subjectValue);
+        Node<E> object = nodeMap.get(objectValue);
+        if (subject == null || object == null) return false;
+
+        boolean nested = parentOf(subject) == object;
+        if (!directRelationships.remove(subject, object)) return false;
+
+        List<Node<E>> starts = Lists.newArrayList();
+        starts.add(object);
+        if (nested) {
+            starts.add(subject);
+            collectNodesWithin(subject, starts);
+        }
+        repair(reachableFrom(starts), nested ? subject : null, null);
+        return true;
+    }
+
+    /**
+     * The element is moved out of its parent's interval (if it is nested), so that deleting its pre and
+     * post nodes leaves whatever was nested in it at the top level. Then, only the interval sets of the elements
+     * that were reachable from it are recomputed; see {@link #repair(Set, Node, Node)}.
+     */
+    public boolean remove(E value) {
+        Node<E> node = nodeMap.get(value);
+        if (node == null) return false;
+
+        List<Node<E>> starts = Lists.newArrayList(directRelationships.get(node));
+        boolean nested = parentOf(node) != null;
+        if (nested) {
+            collectNodesWithin(node, starts);
+        }
+        List<Node<E>> subjects = Lists.newArrayList();
+        collectNodes(node.intervalSet, subjects);
+        for (Node<E> subject : subjects) {
+            directRelationships.remove(subject, node);
+        }
+        directRelationships.removeAll(node);
+
+        Set<Node<E>> affected = reachableFrom(starts);
+        affected.remove(node);
+        repair(affected, nested ? node : null, node);
+        nodeMap.remove(value);
+        generation++;
+        return true;
+    }
+
+    /**
+     * Returns the element whose interval immediately encloses the interval of the specified one, or {@code null}
+     * if there is none. Every element is directly related to the element it is nested in.
+     */
+    private Node<E> parentOf(Node<E> node) {
+        long pre = node.pre.tag();
+        long post = node.post.tag();
+        Node<E> parent = null;
+        for (Node<E> object : directRelationships.get(node)) {
+            if (object.pre.tag() < pre && post < object.post.tag()
+                    && (parent == null || parent.pre.tag() < object.pre.tag())) {
+                parent = object;
+            }
+        }
+        return parent;
+    }
+
+    /**
+     * Recomputes the interval sets of the affected elements, which must include every element whose interval set
+     * may have changed, and be closed under the direct relationships. First, the elements that were related to the
+     * affected ones (and are not affected themselves) are found from the old interval sets. Then the moved element
+     * (if any) is moved to the end of {@code magicList}, and the pre/post nodes of the removed element (if any) are
+     * deleted. Finally, every affected element starts over from its own interval (as a component of its own), and the
+     * intervals of the unaffected subjects, and of the affected elements themselves, are propagated along the direct
+     * relationships again.
+     */
+    private void repair(Set<Node<E>> affected, Node<E> moved, Node<E> removed) {
+        MergingIntervalSet union = new MergingIntervalSet();
+        for (Node<E> node : affected) {
+            union.addIntervals(node.intervalSet);
+        }
+        List<Node<E>> sources = Lists.newArrayList();
+        collectNodes(union, sources);
+
+        if (moved != null) {
+            magicList.moveToEnd(moved.pre, moved.post);
+        }
+        if (removed != null) {
+            magicList.delete(removed.pre);
+            magicList.delete(removed.post);
+        }
+        for (Node<E> node : affected) { //affected components are affected as a whole, and are dissolved
+            node.representative = node;
+            node.members = null;
+            node.intervalSet = new MergingIntervalSet();
+            node.intervalSet.addInterval(node.pre, node.post);
+        }
+        for (Node<E> source : sources) {
+            if (source == removed || affected.contains(source)) continue;
+            for (Node<E> object : directRelationships.get(source)) {
+                if (affected.contains(object)) {
+                    propagate(source, object);
+                }
+            }
+        }
+        for (Node<E> node : affected) {
+            for (Node<E> object : directRelationships.get(node)) {
+                propagate(node, object);
+            }
+        }
+    }
+
+    private Set<Node<E>> reachableFrom(List<Node<E>> starts) {
+        Set<Node<E>> reached = Sets.newHashSet();
+        List<Node<E>> stack = Lists.newArrayList();
+        for (Node<E> start : starts) {
+            if (reached.add(start)) {
+                stack.add(start);
+            }
+        }
+        while (!stack.isEmpty()) {
+            Node<E> node = stack.remove(stack.size() - 1);
+            for (Node<E> object : directRelationships.get(node)) {
+                if (reached.add(object)) {
+                    stack.add(object);
+                }
+            }
+        }
+        return reached;
+    }
+
+    /**
+     * Adds the elements whose intervals are nested in the interval of the specified one (excluding itself).
+     */
+    private void collectNodesWithin(Node<E> node, Collection<Node<E>> nodes) {
+        for (OrderList.Node<?> listNode = node.pre.next(); listNode != node.post; listNode = listNode.next()) {
+            Node<E> nested = nodeAt(listNode);
+            if (nested != null) {
+                nodes.add(nested);
+            }
+        }
+    }
+
+    /**
+     * Adds the elements whose pre nodes are contained in the specified interval set.
+     */
+    private void collectNodes(MergingIntervalSet intervalSet, Collection<Node<E>> nodes) {
+        for (int i = 0; i < intervalSet.size(); i += 2) {
+            OrderList.Node<?> end = intervalSet.get(i + 1);
+            for (OrderList.Node<?> listNode = intervalSet.get(i); ; listNode = listNode.next()) {
+                Node<E> node = nodeAt(listNode);
+                if (node != null) {
+                    nodes.add(node);
+                }
+                if (listNode == end) break;
+            }
+        }
+    }
+
+    /**
+     * Returns the element whose pre node is the specified one, or {@code null} if it is a post node.
+     */
+    private Node<E> nodeAt(OrderList.Node<?> listNode) {
+        Object value = listNode.getValue();
+        //with shared reads, null is not an element (nor a valid key), so it only marks post nodes
+        Node<E> node = value == null && sharedReads ? null : nodeMap.get(value);
+        return node != null && node.pre == listNode ? node : null;
+    }
+
+    /**
+     * Adds the intervals of the subject to the object, and to everything reachable from it. Each component is
+     * visited at most once per propagation (representatives are stamped with the epoch of the propagation when
+     * they are scheduled), and the traversal stops at components that already contain all intervals of the
+     * subject, since everything reachable from them contains them too.
+     */
     private void propagate(Node<E> subject, Node<E> object) {
-        LinkedList<Node<E>> toVisit = Lists.newLinkedList();
-        toVisit.add(object);
-        while (!toVisit.isEmpty()) {
-            Node<E> current = toVisit.removeFirst();
-            if (!current.intervalSet.containsAll(subject.intervalSet)) { //this gracefully handles cycles
-                current.intervalSet.addIntervals(subject.intervalSet);
-                for (Node<E> next : directRelationships.get(current)) {
-                    toVisit.add(next);
+        int epoch = nextVisitEpoch();
+        int top = schedule(object.representative, epoch, 0);
+        drain(subject.intervalSet, epoch, top);
+    }
+
+    /**
+     * Adds the intervals of a component to every component reachable from it.
+     */
+    private void propagateFromComponent(Node<E> representative) {
+        int epoch = nextVisitEpoch();
+        representative.visitEpoch = epoch;
+        int top = scheduleSuccessors(representative, epoch, 0);
+        drain(representative.intervalSet, epoch, top);
+    }
+
+    private void drain(MergingIntervalSet intervals, int epoch, int top) {
+        long start = listener == null ? 0L : System.nanoTime();
+        int visited = 0;
+        int merged = 0;
+        while (top > 0) {
+            @SuppressWarnings("unchecked")
+            Node<E> current = (Node<E>)toVisit[--top];
+            toVisit[top] = null;
+            visited++;
+            int capacity = listener == null ? 0 : current.intervalSet.capacity();
+            if (current.intervalSet.addIntervals(intervals)) { //this gracefully handles cycles
+                merged += intervals.size() / 2;
+                top = scheduleSuccessors(current, epoch, top);
+                if (listener != null && current.intervalSet.capacity() > capacity) {
+                    listener.intervalSetGrew(current.intervalSet.capacity());
                 }
             }
         }
+        counters.recordPropagation(visited, merged);
+        if (listener != null) {
+            listener.propagated(visited, merged, System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Schedules the components that the members of a component are directly related to.
+     */
+    private int scheduleSuccessors(Node<E> representative, int epoch, int top) {
+        if (representative.members == null) {
+            for (Node<E> next : directRelationships.get(representative)) {
+                top = schedule(next.representative, epoch, top);
+            }
+        } else {
+            for (Node<E> member : representative.members) {
+                for (Node<E> next : directRelationships.get(member)) {
+                    top = schedule(next.representative, epoch, top);
+                }
+            }
+        }
+        return top;
+    }
+
+    private int schedule(Node<E> representative, int epoch, int top) {
+        if (representative.visitEpoch != epoch) {
+            representative.visitEpoch = epoch;
+            if (top == toVisit.length) {
+                toVisit = MoreArrays.copyOf(toVisit, top * 2);
+            }
+            toVisit[top++] = representative;
+        }
+        return top;
+    }
+
+    /**
+     * Called when relating the subject to the object closes a cycle, i.e. when the object is already related to
+     * the subject. Every component that is reachable from the object and related to the subject lies on such a
+     * cycle, so all of them are merged into one, whose members share a single interval set, equal to that of the
+     * subject (which already contains the intervals of all of them). The members of the largest component keep their
+     * representative and their interval set. Finally, the intervals are propagated to the components reachable from
+     * the merged one.
+     */
+    private void collapse(Node<E> subject, Node<E> object) {
+        MergingIntervalSet intervals = subject.intervalSet;
+
+        //find the components to merge, depth-first from the object, and the largest of them
+        int epoch = nextVisitEpoch();
+        List<Node<E>> components = Lists.newArrayList();
+        int top = schedule(object.representative, epoch, 0);
+        Node<E> largest = object.representative;
+        while (top > 0) {
+            @SuppressWarnings("unchecked")
+            Node<E> current = (Node<E>)toVisit[--top];
+            toVisit[top] = null;
+            components.add(current);
+            if (current.size() > largest.size()) {
+                largest = current;
+            }
+            for (Node<E> member : current.members()) {
+                for (Node<E> next : directRelationships.get(member)) {
+                    Node<E> representative = next.representative;
+                    if (representative.visitEpoch != epoch && areNodesRelated(representative, subject)) {
+                        top = schedule(representative, epoch, top);
+                    }
+                }
+            }
+        }
+
+        List<Node<E>> members = largest.members;
+        if (members == null) {
+            members = Lists.newArrayList();
+            members.add(largest);
+            largest.members = members;
+        }
+        //the members of the largest component already share a set; it only needs to catch up with the subject's
+        largest.intervalSet.addIntervals(intervals);
+        for (Node<E> component : components) {
+            if (component == largest) continue;
+            for (Node<E> member : component.members()) {
+                member.representative = largest;
+                member.intervalSet = largest.intervalSet;
+                members.add(member);
+            }
+            component.members = null;
+        }
+        propagateFromComponent(largest);
+    }
+
+    private int nextVisitEpoch() {
+        if (++visitEpoch == 0) { //wrapped around; clear all stamps, so that none of them equals a future epoch
+            for (Node<E> node : nodeMap.values()) {
+                node.visitEpoch = 0;
+            }
+            visitEpoch = 1;
+        }
+        return visitEpoch;
+    }
+
+    PropagationCounters propagationCounters() {
+        return counters;
+    }
+
+    /**
+     * Returns the query counters of this relation, which are only updated after they are first requested.
+     */
+    QueryCounters queryCounters() {
+        Preconditions.checkState(!sharedReads, "Queries of this relation cannot be counted");
+        if (queryCounters == null) {
+            queryCounters = new QueryCounters();
+        }
+        return queryCounters;
+    }
+
+    public void setListener(RelationListener listener) {
+        this.listener = listener;
+        magicList.setListener(listener);
     }
 
     public boolean areRelated(E subjectValue, E objectValue) {
@@ -92,18 +469,551 @@ class DefaultTransitiveRelation<E> implements TransitiveRelation<E>, Serializabl
 
         Node<E> object = nodeMap.get(objectValue);
         if (object == null) return false;
-        
-        return areNodesRelated(subject, object);
+
+        return queryNodes(subject, object);
+    }
+
+    /**
+     * Tests whether the (distinct) elements of two handles of this relation are related, without looking them up,
+     * unless the handles are stale.
+     */
+    boolean areRelated(ElementHandle<E> subjectHandle, ElementHandle<E> objectHandle) {
+        Node<E> subject = nodeOf(subjectHandle);
+        Node<E> object = nodeOf(objectHandle);
+        if (subject == null || object == null) {
+            return Objects.equal(subjectHandle.element(), objectHandle.element());
+        }
+        if (subject == object) return true;
+        return queryNodes(subject, object);
+    }
+
+    /**
+     * Returns the node of the element of a handle of this relation (or {@code null}, if it is not an element),
+     * looking it up only if the handle has not resolved it since the last time any nodes were discarded.
+     */
+    @SuppressWarnings("unchecked")
+    private Node<E> nodeOf(ElementHandle<E> handle) {
+        if (handle.relation() != this) { //not through Preconditions, to avoid the varargs array on this path
+            throw new IllegalArgumentException("Not a handle of this relation: " + handle);
+        }
+        if (handle.node == null || handle.generation != generation) {
+            handle.node = nodeMap.get(handle.element());
+            handle.generation = generation;
+        }
+        return (Node<E>)handle.node;
+    }
+
+    private boolean queryNodes(Node<E> subject, Node<E> object) {
+        //most misses are decided here, without refreshing cached tags or searching
+        if (!object.intervalSet.spans(subject.pre)) {
+            if (queryCounters != null) queryCounters.recordFiltered();
+            return false;
+        }
+        boolean related = searchIntervals(subject, object);
+        if (queryCounters != null) queryCounters.recordSearch(related);
+        return related;
     }
 
     private boolean areNodesRelated(Node<E> subject, Node<E> object) {
-        return object.intervalSet.contains(subject.pre);
+        return object.intervalSet.spans(subject.pre) && searchIntervals(subject, object);
+    }
+
+    private boolean searchIntervals(Node<E> subject, Node<E> object) {
+        if (sharedReads) {
+            return object.intervalSet.contains(subject.pre);
+        }
+        return object.intervalSet.contains(subject.pre, magicList.relabelCount());
     }
 
     public Navigator<E> direct() {
         return navigator;
     }
 
+    /**
+     * Tests whether the subject is related to any of the objects, resolving the subject only once.
+     */
+    boolean areRelatedToAny(E subjectValue, Iterable<? extends E> objectValues) {
+        Node<E> subject = nodeMap.get(subjectValue);
+        for (E objectValue : objectValues) {
+            if (Objects.equal(subjectValue, objectValue)) return true;
+            if (subject == null) continue;
+            Node<E> object = nodeMap.get(objectValue);
+            if (object != null && areNodesRelated(subject, object)) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Tests whether the subject is related to all of the objects, resolving the subject only once.
+     */
+    boolean areRelatedToAll(E subjectValue, Iterable<? extends E> objectValues) {
+        Node<E> subject = nodeMap.get(subjectValue);
+        for (E objectValue : objectValues) {
+            if (Objects.equal(subjectValue, objectValue)) continue;
+            if (subject == null) return false;
+            Node<E> object = nodeMap.get(objectValue);
+            if (object == null || !areNodesRelated(subject, object)) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Returns the bits {@code i * objects.size() + j} for which {@code areRelated(subjects.get(i), objects.get(j))}.
+     * Every element is resolved only once; the distinct pre tags of the subjects are sorted, and the interval set
+     * of each object is swept against all of them at once.
+     */
+    BitSet relatedPairs(List<? extends E> subjectValues, List<? extends E> objectValues) {
+        @SuppressWarnings("unchecked")
+        Node<E>[] subjects = new Node[subjectValues.size()];
+        for (int i = 0; i < subjects.length; i++) {
+            subjects[i] = nodeMap.get(subjectValues.get(i));
+        }
+        @SuppressWarnings("unchecked")
+        Node<E>[] objects = new Node[objectValues.size()];
+        for (int j = 0; j < objects.length; j++) {
+            objects[j] = nodeMap.get(objectValues.get(j));
+        }
+        return relatedPairs(subjectValues, subjects, objectValues, objects);
+    }
+
+    /**
+     * Like {@link #relatedPairs(List, List)}, for handles of this relation, which are resolved without lookups
+     * (unless they are stale).
+     */
+    BitSet relatedHandlePairs(List<? extends ElementHandle<E>> subjectHandles,
+            List<? extends ElementHandle<E>> objectHandles) {
+        List<E> subjectValues = Lists.newArrayListWithCapacity(subjectHandles.size());
+        @SuppressWarnings("unchecked")
+        Node<E>[] subjects = new Node[subjectHandles.size()];
+        for (int i = 0; i < subjects.length; i++) {
+            ElementHandle<E> handle = subjectHandles.get(i);
+            subjectValues.add(handle.element());
+            subjects[i] = nodeOf(handle);
+        }
+        List<E> objectValues = Lists.newArrayListWithCapacity(objectHandles.size());
+        @SuppressWarnings("unchecked")
+        Node<E>[] objects = new Node[objectHandles.size()];
+        for (int j = 0; j < objects.length; j++) {
+            ElementHandle<E> handle = objectHandles.get(j);
+            objectValues.add(handle.element());
+            objects[j] = nodeOf(handle);
+        }
+        return relatedPairs(subjectValues, subjects, objectValues, objects);
+    }
+
+    /**
+     * Computes the related pairs of already resolved subjects and objects; a {@code null} node stands for a value
+     * that is not an element of this relation.
+     */
+    private BitSet relatedPairs(List<? extends E> subjectValues, Node<E>[] subjects,
+            List<? extends E> objectValues, Node<E>[] objects) {
+        final int subjectCount = subjects.length;
+        final int objectCount = objects.length;
+        BitSet result = new BitSet(subjectCount * objectCount);
+
+        long[] sortedTags = new long[subjectCount];
+        int tagCount = 0;
+        boolean missingSubjects = false;
+        for (int i = 0; i < subjectCount; i++) {
+            if (subjects[i] != null) {
+                sortedTags[tagCount++] = subjects[i].pre.tag();
+            } else {
+                missingSubjects = true;
+            }
+        }
+        Arrays.sort(sortedTags, 0, tagCount);
+        tagCount = distinct(sortedTags, tagCount);
+        int[] ranks = new int[subjectCount];
+        for (int i = 0; i < subjectCount; i++) {
+            if (subjects[i] != null) {
+                ranks[i] = MoreArrays.binarySearch(sortedTags, 0, tagCount, subjects[i].pre.tag());
+            }
+        }
+
+        long labelVersion = magicList.relabelCount();
+        BitSet hits = new BitSet(tagCount);
+        for (int j = 0; j < objectCount; j++) {
+            E objectValue = objectValues.get(j);
+            Node<E> object = objects[j];
+            if (object != null) {
+                hits.clear();
+                object.intervalSet.markContainedTags(sortedTags, tagCount, labelVersion, hits);
+                for (int i = 0; i < subjectCount; i++) {
+                    if (subjects[i] != null && hits.get(ranks[i])) {
+                        result.set(i * objectCount + j);
+                    }
+                }
+            }
+            if (missingSubjects) { //elements that are not in the relation are only related to themselves
+                for (int i = 0; i < subjectCount; i++) {
+                    if (subjects[i] == null && Objects.equal(subjectValues.get(i), objectValue)) {
+                        result.set(i * objectCount + j);
+                    }
+                }
+            }
+        }
+        return result;
+    }
+
+    private static int distinct(long[] sorted, int length) {
+        int count = 0;
+        for (int i = 0; i < length; i++) {
+            if (i == 0 || sorted[i] != sorted[i - 1]) {
+                sorted[count++] = sorted[i];
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Scans the {@code OrderList} ranges of the intervals of the object. These ranges are made of whole,
+     * properly nested pre/post pairs.
+     */
+    public void collectDescendants(E objectValue, Collection<? super E> collection) {
+        Node<E> object = nodeMap.get(objectValue);
+        if (object == null) return;
+
+        MergingIntervalSet intervalSet = object.intervalSet;
+        for (int i = 0; i < intervalSet.size(); i += 2) {
+            OrderList.Node<?> end = intervalSet.get(i + 1);
+            for (OrderList.Node<?> listNode = intervalSet.get(i); ; listNode = listNode.next()) {
+                Node<E> node = nodeAt(listNode);
+                if (node != null) {
+                    collection.add(node.getValue());
+                }
+                if (listNode == end) break;
+            }
+        }
+    }
+
+    /**
+     * Since the ranges of the intervals are made of whole pre/post pairs, it suffices to count their nodes.
+     */
+    public int countDescendants(E objectValue) {
+        Node<E> object = nodeMap.get(objectValue);
+        if (object == null) return 0;
+
+        MergingIntervalSet intervalSet = object.intervalSet;
+        int nodes = 0;
+        for (int i = 0; i < intervalSet.size(); i += 2) {
+            OrderList.Node<?> end = intervalSet.get(i + 1);
+            for (OrderList.Node<?> listNode = intervalSet.get(i); listNode != end; listNode = listNode.next()) {
+                nodes++;
+            }
+            nodes++;
+        }
+        return nodes / 2;
+    }
+
+    /**
+     * Rebuilds the labeling of this relation from its direct relationships, laid out along the spanning forest
+     * chosen by {@link SpanningForest}, which maximizes nesting. Elements that no longer take part in any
+     * relationship are dropped (they are related only to themselves anyway).
+     */
+    public CompactionReport compact() {
+        long intervalsBefore = totalIntervals();
+        int maxIntervalsBefore = maxIntervals();
+        adopt(rebuild());
+        return new CompactionReport(intervalsBefore, maxIntervalsBefore, totalIntervals(), maxIntervals());
+    }
+
+    /**
+     * Creates a relation with the same direct relationships as this one, but a fresh labeling. This relation
+     * is only read.
+     */
+    DefaultTransitiveRelation<E> rebuild() {
+        DefaultTransitiveRelation<E> rebuilt = newEmptyLike();
+        SpanningForest.create(navigator).relateInto(rebuilt);
+        return rebuilt;
+    }
+
+    /**
+     * Creates an empty relation of the same kind as this one (regarding shared reads and two-level labeling).
+     */
+    DefaultTransitiveRelation<E> newEmptyLike() {
+        return new DefaultTransitiveRelation<E>(sharedReads, magicList.isTwoLevel());
+    }
+
+    /**
+     * Returns whether the specified element has been related to any other.
+     */
+    boolean contains(E value) {
+        return (value != null || !sharedReads) && nodeMap.containsKey(value);
+    }
+
+    /**
+     * Moves all elements of a relation created by {@link #newEmptyLike()}, none of which may be contained in this
+     * relation, into this relation. Their labeling is kept, appended after that of the elements of this relation.
+     * The other relation must not be used afterwards.
+     */
+    void absorb(DefaultTransitiveRelation<E> part) {
+        magicList.appendAll(part.magicList);
+        nodeMap.putAll(part.nodeMap);
+        directRelationships.putAll(part.directRelationships);
+        //so that no visit stamp of the absorbed nodes equals a future epoch
+        visitEpoch = Math.max(visitEpoch, part.visitEpoch);
+    }
+
+    /**
+     * Replaces the state of this relation with that of a relation created by {@link #rebuild()}, which must
+     * not be used afterwards. The propagation counters and the listener of this relation are kept.
+     */
+    void adopt(DefaultTransitiveRelation<E> rebuilt) {
+        rebuilt.magicList.setListener(listener);
+        this.magicList = rebuilt.magicList;
+        this.nodeMap = rebuilt.nodeMap;
+        generation++;
+        this.directRelationships = rebuilt.directRelationships;
+        //so that no visit stamp of the adopted nodes equals a future epoch
+        visitEpoch = Math.max(visitEpoch, rebuilt.visitEpoch);
+    }
+
+    /**
+     * Returns the sum of the number of intervals of all elements.
+     */
+    long totalIntervals() {
+        long total = 0L;
+        for (Node<E> node : nodeMap.values()) {
+            total += node.intervalSet.size() / 2;
+        }
+        return total;
+    }
+
+    /**
+     * Returns the largest number of intervals of a single element.
+     */
+    int maxIntervals() {
+        int max = 0;
+        for (Node<E> node : nodeMap.values()) {
+            max = Math.max(max, node.intervalSet.size() / 2);
+        }
+        return max;
+    }
+
+    /**
+     * Computes the statistics of this relation. The interval set shared by the members of a component is
+     * accounted for once, by its representative.
+     */
+    public RelationStatistics statistics() {
+        int[] histogram = new int[nodeMap.isEmpty() ? 0 : maxIntervals() + 1];
+        long bytes = (magicList.size() + 1L) * RelationStatistics.ORDER_LIST_NODE_BYTES
+                + RelationStatistics.hashMapBytes(nodeMap.size())
+                + RelationStatistics.hashMultimapBytes(directRelationships);
+        for (Node<E> node : nodeMap.values()) {
+            histogram[node.intervalSet.size() / 2]++;
+            bytes += RelationStatistics.RELATION_NODE_BYTES;
+            if (node.representative == node) {
+                bytes += node.intervalSet.estimatedBytes();
+            }
+            if (node.members != null) {
+                bytes += RelationStatistics.arrayListBytes(node.members.size());
+            }
+        }
+        return new RelationStatistics(nodeMap.size(), directRelationships.size(), histogram,
+                magicList.size(), magicList.relabelCount(), bytes);
+    }
+
+    /**
+     * Creates an immutable copy of this relation, where each element is identified by the rank of its pre
+     * node among all pre nodes of {@code magicList}, and all intervals are translated to ranges of such ranks.
+     */
+    FrozenTransitiveRelation<E> freeze() {
+        @SuppressWarnings("unchecked")
+        Node<E>[] nodes = nodeMap.values().toArray(new Node[nodeMap.size()]);
+        Arrays.sort(nodes, PRE_ORDER);
+
+        final int n = nodes.length;
+        Object[] elements = new Object[n];
+        long[] preTags = new long[n];
+        for (int id = 0; id < n; id++) {
+            elements[id] = nodes[id].getValue();
+            preTags[id] = nodes[id].pre.tag();
+        }
+        ElementIndex<E> index = new ElementIndex<E>(elements);
+
+        int[] intervalOffsets = new int[n + 1];
+        int[] intervals = new int[2 * n];
+        int intervalCount = 0;
+        int[] directOffsets = new int[n + 1];
+        int[] directTargets = new int[directRelationships.size()];
+        int directCount = 0;
+        for (int id = 0; id < n; id++) {
+            MergingIntervalSet intervalSet = nodes[id].intervalSet;
+            int start = intervalCount;
+            for (int i = 0; i < intervalSet.size(); i += 2) {
+                //the ids of the pre nodes that fall in [pre, post]
+                int low = lowerBound(preTags, intervalSet.get(i).tag());
+                int high = upperBound(preTags, intervalSet.get(i + 1).tag()) - 1;
+                if (low > high) continue;
+                if (intervalCount > start && intervals[intervalCount - 1] + 1 == low) {
+                    intervals[intervalCount - 1] = high; //adjacent to the previous interval
+                    continue;
+                }
+                if (intervalCount + 2 > intervals.length) {
+                    intervals = MoreArrays.copyOf(intervals, intervals.length * 2);
+                }
+                intervals[intervalCount++] = low;
+                intervals[intervalCount++] = high;
+            }
+            intervalOffsets[id + 1] = intervalCount;
+
+            for (Node<E> object : directRelationships.get(nodes[id])) {
+                directTargets[directCount++] = index.indexOf(object.getValue());
+            }
+            directOffsets[id + 1] = directCount;
+        }
+        return new FrozenTransitiveRelation<E>(index, intervalOffsets, MoreArrays.copyOf(intervals, intervalCount),
+                directOffsets, directTargets);
+    }
+
+    private static final int SNAPSHOT_MAGIC = 0x54525331; //"TRS1"
+    private static final int SNAPSHOT_VERSION = 2;
+
+    /**
+     * Writes a snapshot of this relation, which preserves its labeling, so that it can be read back by
+     * {@link #readSnapshot(ObjectInput)} in linear time, with no propagation and no relabeling.
+     *
+     * @serialData the magic number and the format version (ints), the number of {@code OrderList} nodes and the number
+     * of elements (ints), and then for every element (in the order of their pre nodes): the element (an object),
+     * the positions of its pre and post nodes in the {@code OrderList} (ints), whether it is enclosable (a boolean),
+     * the index (in this order) of the representative of its component (an int), only if it is the representative
+     * itself, the number of its interval boundaries followed by their positions (ints), and the number of its direct
+     * relationships followed by the indexes of the related elements (ints). Version 1 lacked the representatives,
+     * and every element had its intervals.
+     */
+    void writeSnapshot(ObjectOutput out) throws IOException {
+        long[] tags = new long[magicList.size()];
+        int position = 0;
+        for (OrderList.Node<E> listNode : magicList) {
+            tags[position++] = listNode.tag();
+        }
+        @SuppressWarnings("unchecked")
+        Node<E>[] nodes = nodeMap.values().toArray(new Node[nodeMap.size()]);
+        Arrays.sort(nodes, PRE_ORDER);
+        long[] preTags = new long[nodes.length];
+        for (int i = 0; i < nodes.length; i++) {
+            preTags[i] = nodes[i].pre.tag();
+        }
+
+        out.writeInt(SNAPSHOT_MAGIC);
+        out.writeInt(SNAPSHOT_VERSION);
+        out.writeInt(tags.length);
+        out.writeInt(nodes.length);
+        for (Node<E> node : nodes) {
+            out.writeObject(node.getValue());
+            out.writeInt(Arrays.binarySearch(tags, node.pre.tag()));
+            out.writeInt(Arrays.binarySearch(tags, node.post.tag()));
+            out.writeBoolean(node.post.getValue() == Node.ENCLOSABLE_MARKER);
+            out.writeInt(Arrays.binarySearch(preTags, node.representative.pre.tag()));
+            if (node.representative == node) { //the other members share its intervals
+                MergingIntervalSet intervalSet = node.intervalSet;
+                out.writeInt(intervalSet.size());
+                for (int i = 0; i < intervalSet.size(); i++) {
+                    out.writeInt(Arrays.binarySearch(tags, intervalSet.get(i).tag()));
+                }
+            }
+            Set<Node<E>> related = directRelationships.get(node);
+            out.writeInt(related.size());
+            for (Node<E> object : related) {
+                out.writeInt(Arrays.binarySearch(preTags, object.pre.tag()));
+            }
+        }
+    }
+
+    /**
+     * Reads a snapshot written by {@link #writeSnapshot(ObjectOutput)} (of the current or the previous version).
+     * The members of each component share the interval set of its representative, as in the written relation.
+     */
+    @SuppressWarnings("unchecked")
+    static <E> DefaultTransitiveRelation<E> readSnapshot(ObjectInput in) throws IOException, ClassNotFoundException {
+        if (in.readInt() != SNAPSHOT_MAGIC) {
+            throw new StreamCorruptedException("Not a transitive relation snapshot");
+        }
+        int version = in.readInt();
+        if (version != SNAPSHOT_VERSION && version != 1) {
+            throw new StreamCorruptedException("Unsupported snapshot version: " + version);
+        }
+        int listSize = in.readInt();
+        int elementCount = in.readInt();
+
+        DefaultTransitiveRelation<E> relation = new DefaultTransitiveRelation<E>();
+        List<OrderList.Node<E>> listNodes = relation.magicList.appendEvenlySpaced(listSize);
+        Node<E>[] nodes = new Node[elementCount];
+        int[][] related = new int[elementCount][];
+        int[] representatives = new int[elementCount];
+        OrderList.Node<?>[] boundaries = new OrderList.Node<?>[2];
+        for (int i = 0; i < elementCount; i++) {
+            E value = (E)in.readObject();
+            OrderList.Node<E> pre = listNodes.get(in.readInt());
+            OrderList.Node<E> post = listNodes.get(in.readInt());
+            pre.setValue(value);
+            if (in.readBoolean()) {
+                post.setValue((E)Node.ENCLOSABLE_MARKER);
+            }
+            representatives[i] = version == 1 ? i : in.readInt();
+            MergingIntervalSet intervalSet = null; //the intervals of members are set below
+            if (representatives[i] == i) {
+                int boundaryCount = in.readInt();
+                if (boundaryCount > boundaries.length) {
+                    boundaries = new OrderList.Node<?>[boundaryCount];
+                }
+                for (int j = 0; j < boundaryCount; j++) {
+                    boundaries[j] = listNodes.get(in.readInt());
+                }
+                intervalSet = new MergingIntervalSet(boundaries, boundaryCount);
+            }
+            Node<E> node = new Node<E>(pre, post, intervalSet);
+            relation.nodeMap.put(value, node);
+            nodes[i] = node;
+
+            related[i] = new int[in.readInt()];
+            for (int j = 0; j < related[i].length; j++) {
+                related[i][j] = in.readInt();
+            }
+        }
+        for (int i = 0; i < elementCount; i++) {
+            int index = representatives[i];
+            if (index == i) continue;
+            if (index < 0 || index >= elementCount || representatives[index] != index) {
+                throw new StreamCorruptedException("Invalid representative of element " + i + ": " + index);
+            }
+            Node<E> representative = nodes[index];
+            if (representative.members == null) {
+                representative.members = Lists.newArrayList();
+                representative.members.add(representative);
+            }
+            representative.members.add(nodes[i]);
+            nodes[i].representative = representative;
+            nodes[i].intervalSet = representative.intervalSet;
+        }
+        for (int i = 0; i < elementCount; i++) {
+            for (int object : related[i]) {
+                relation.directRelationships.put(nodes[i], nodes[object]);
+            }
+        }
+        return relation;
+    }
+
+    //the index of the first element of the (sorted, distinct) array that is not less than the key
+    private static int lowerBound(long[] array, long key) {
+        int index = Arrays.binarySearch(array, key);
+        return index >= 0 ? index : -index - 1;
+    }
+
+    //the index of the first element of the (sorted, distinct) array that is greater than the key
+    private static int upperBound(long[] array, long key) {
+        int index = Arrays.binarySearch(array, key);
+        return index >= 0 ? index + 1 : -index - 1;
+    }
+
+    private static final Comparator<Node<?>> PRE_ORDER = new Comparator<Node<?>>() {
+        public int compare(Node<?> n1, Node<?> n2) {
+            long t1 = n1.pre.tag();
+            long t2 = n2.pre.tag();
+            return t1 < t2 ? -1 : (t1 == t2 ? 0 : 1);
+        }
+    };
+
     @Override
     public String toString() {
         return nodeMap.toString();
@@ -123,19 +1033,54 @@ class DefaultTransitiveRelation<E> implements TransitiveRelation<E>, Serializabl
          */
         static final Object ENCLOSABLE_MARKER = "<enclosable>";
 
-        final MergingIntervalSet intervalSet = new MergingIntervalSet();
+        /**
+         * Shared by all members of a component (a set of equivalent elements, i.e. a strongly connected
+         * component of the direct relationships, as far as it has been detected).
+         */
+        MergingIntervalSet intervalSet;
+
+        /**
+         * The member of the component of this node that represents it; itself, for components of one element.
+         */
+        Node<E> representative = this;
+
+        /**
+         * If this node represents a component of more than one element, all the members of the component
+         * (including itself), otherwise {@code null}.
+         */
+        List<Node<E>> members;
+
+        /**
+         * The epoch of the last traversal that scheduled a visit to this node (if it is a representative).
+         */
+        int visitEpoch;
 
         Node(OrderList.Node<E> pre, OrderList.Node<E> post) {
             this.pre = pre;
             this.post = post;
+            this.intervalSet = new MergingIntervalSet();
             intervalSet.addInterval(pre, post);
         }
 
+        Node(OrderList.Node<E> pre, OrderList.Node<E> post, MergingIntervalSet intervalSet) {
+            this.pre = pre;
+            this.post = post;
+            this.intervalSet = intervalSet;
+        }
+
         @Override
         public String toString() {
             return intervalSet.toString();
         }
 
+        int size() {
+            return members == null ? 1 : members.size();
+        }
+
+        List<Node<E>> members() {
+            return members == null ? Collections.singletonList(this) : members;
+        }
+
         E getValue() {
             return pre.getValue();
         }
@@ -1,95 +1,238 @@
 package edu.bath.transitivityutils;
 
 import com.google.common.base.Joiner;
-import com.google.common.collect.Iterators;
-import com.google.common.collect.Lists;
-import java.util.IdentityHashMap;
+import com.google.common.base.Preconditions;
+import java.util.Arrays;
 import java.util.Iterator;
-import java.util.LinkedList;
-import java.util.Map;
-import java.util.Set;
 
 /**
- * An ad-hoc implementation of depth-first search.
+ * A reusable depth-first search over the elements of a {@link Navigator}, reporting the traversal to callbacks
+ * that subclasses override: {@link #preVisit(Object)} and {@link #postVisit(Object)} for every element,
+ * {@link #treeEdge(Object, Object)} for every relationship that leads to an unvisited element, and
+ * {@link #backEdge(Object, Object)} for every relationship that closes a cycle. Elements are traversed from every
+ * element of the {@linkplain Navigator#domain() domain} of the navigator, in its iteration order, and are compared
+ * by {@code equals} (so a navigator may return equal but distinct instances of an element).
  *
+ * <p>The traversal is iterative, so arbitrarily deep navigators are supported. Its state is kept in arrays indexed
+ * by dense int ids, assigned to elements (through an open-addressing hash table) as they are discovered,
+ * and is reused by subsequent executions of the same instance; apart from growing these arrays, the only
+ * allocations per visited element are those of the navigator itself (the iterators over its related elements).
+ * An instance is not thread-safe, and must not be executed again from its own callbacks.
+ *
+ * <p>For example, this collects the elements of a navigator in reverse topological order:
+ *<pre>{@code
+    final List<E> order = new ArrayList<E>();
+    new Dfs<E>(navigator) {
+        protected void postVisit(E value) {
+            order.add(value);
+        }
+    }.execute(false); //throws IllegalArgumentException if there is a cycle
+ *}</pre>
+ *
+ * @param <E> the type of the elements of the navigator
  * @author Andreou Dimitris, email: jim.andreou (at) gmail.com
  */
-class Dfs<E> {
+public class Dfs<E> {
+    private static final byte UNVISITED = 0;
+    private static final byte ON_STACK = 1;
+    private static final byte FINISHED = 2;
+
+    private static final Object NULL_KEY = new Object();
+
     private final Navigator<E> navigator;
 
-    Dfs(Navigator<E> navigator) {
-        this.navigator = navigator;
+    /*
+     * Element ids: keys holds the elements (NULL_KEY standing for null), and slotIds their ids + 1, so that zero
+     * means an empty slot. Linear probing, load factor at most 0.5.
+     */
+    private Object[] keys = new Object[64];
+    private int[] slotIds = new int[64];
+    private int idCount;
+
+    private byte[] state = new byte[32];
+
+    //the stack of the traversal: the elements, their ids, and the iterators over their related elements
+    private Object[] stackValues = new Object[32];
+    private int[] stackIds = new int[32];
+    private Iterator<?>[] stackCursors = new Iterator<?>[32];
+    private int depth;
+
+    /**
+     * Creates a depth-first search over the specified navigator.
+     */
+    public Dfs(Navigator<E> navigator) {
+        this.navigator = Preconditions.checkNotNull(navigator);
     }
 
-    final void execute(boolean allowCycles) {
-        Set<E> domain = navigator.domain();
-        Map<E, Color> visited = new IdentityHashMap<E, Color>(domain.size());
-        for (E root : domain) {
-            if (visited.containsKey(root)) continue;
-            visited.put(root, Color.GRAY);
-
-            LinkedList<NodeCursor<E>> stack = Lists.newLinkedList();
-            stack.addLast(NodeCursor.create(root, navigator));
-
-            out:
-            while (!stack.isEmpty()) {
-                NodeCursor<E> current = stack.getLast();
-                in:
-                while (current.cursor.hasNext()) {
-                    E next = current.cursor.next();
-                    Color color = visited.get(next);
-                    if (color != null) { //null ~~ "white"
-                        switch (color) {
-                            case GRAY: //cycle!
-                                if (!allowCycles) {
-                                    stack.addLast(NodeCursor.create(next));
-                                    while (stack.getFirst().value != next) stack.removeFirst(); //trim to cycle
-                                    throw new IllegalArgumentException("Cycle detected in navigator: " + Joiner.on(" -> ").join(stack));
-                                }
-                                break in;
-                            case BLACK: continue;
-                        }
-                    } else {
-                        visited.put(next, Color.GRAY);
-                        treeEdge(current.value, next);
-                    }
+    /**
+     * Traverses all elements reachable from the domain of the navigator, allowing cycles (which are reported to
+     * {@link #backEdge(Object, Object)}). Equivalent to {@code execute(true)}.
+     */
+    public final void execute() {
+        execute(true);
+    }
 
-                    stack.addLast(NodeCursor.create(next, navigator));
-                    continue out;
+    /**
+     * Traverses all elements reachable from the domain of the navigator.
+     *
+     * @param allowCycles whether cycles are allowed; if so, they are reported to {@link #backEdge(Object, Object)}
+     * @throws IllegalArgumentException if {@code allowCycles} is {@code false} and a cycle is found; the message
+     * lists the elements of the cycle
+     */
+    public final void execute(boolean allowCycles) {
+        reset();
+        try {
+            for (E root : navigator.domain()) {
+                int id = idOf(root);
+                if (state[id] == UNVISITED) {
+                    traverse(root, id, allowCycles);
                 }
-                stack.removeLast();
-                postVisit(current.value);
-                visited.put(current.value, Color.BLACK);
             }
+        } finally {
+            //don't keep the iterators (or the elements) alive, if a callback threw
+            Arrays.fill(stackCursors, 0, depth, null);
+            Arrays.fill(stackValues, 0, depth, null);
+            depth = 0;
         }
     }
 
-    protected void treeEdge(E subject, E object) { }
-    protected void postVisit(E value) { }
+    @SuppressWarnings("unchecked")
+    private void traverse(E root, int rootId, boolean allowCycles) {
+        push(root, rootId);
+        while (depth > 0) {
+            int top = depth - 1;
+            E current = (E)stackValues[top];
+            Iterator<?> cursor = stackCursors[top];
+            if (cursor.hasNext()) {
+                E next = (E)cursor.next();
+                int id = idOf(next);
+                switch (state[id]) {
+                    case UNVISITED:
+                        treeEdge(current, next);
+                        push(next, id);
+                        break;
+                    case ON_STACK:
+                        if (!allowCycles) {
+                            throw new IllegalArgumentException("Cycle detected in navigator: " + cycle(id, next));
+                        }
+                        backEdge(current, next);
+                        break;
+                    default: //a forward or cross edge
+                        break;
+                }
+            } else {
+                stackCursors[top] = null;
+                stackValues[top] = null;
+                depth = top;
+                state[stackIds[top]] = FINISHED;
+                postVisit(current);
+            }
+        }
+    }
 
-    private enum Color {
-        BLACK, GRAY;
+    private void push(E value, int id) {
+        if (depth == stackValues.length) {
+            int capacity = depth * 2;
+            stackValues = MoreArrays.copyOf(stackValues, capacity);
+            stackIds = MoreArrays.copyOf(stackIds, capacity);
+            stackCursors = MoreArrays.copyOf(stackCursors, capacity);
+        }
+        state[id] = ON_STACK;
+        preVisit(value);
+        stackValues[depth] = value;
+        stackIds[depth] = id;
+        stackCursors[depth] = navigator.related(value).iterator();
+        depth++;
     }
 
-    private static class NodeCursor<E> {
-        final E value;
-        final Iterator<E> cursor;
+    /**
+     * Returns the elements of the stack from the one with the specified id upwards, followed by that one again.
+     */
+    private String cycle(int id, E closing) {
+        int from = depth - 1;
+        while (stackIds[from] != id) from--;
+        Object[] cycle = MoreArrays.copyOfRange(stackValues, from, depth + 1);
+        cycle[cycle.length - 1] = closing;
+        return Joiner.on(" -> ").useForNull("null").join(cycle);
+    }
 
-        private NodeCursor(E value, Iterator<E> cursor) {
-            this.value = value;
-            this.cursor = cursor;
-        }
+    /**
+     * Forgets all elements, keeping the (cleared) arrays.
+     */
+    private void reset() {
+        Arrays.fill(keys, null);
+        Arrays.fill(slotIds, 0);
+        Arrays.fill(state, 0, idCount, UNVISITED);
+        idCount = 0;
+    }
 
-        static <E> NodeCursor<E> create(E value, Navigator<E> navigator) {
-            return new NodeCursor<E>(value, navigator.related(value).iterator());
+    /**
+     * Returns the id of the specified element, assigning the next one if it has none yet.
+     */
+    private int idOf(Object element) {
+        Object key = element == null ? NULL_KEY : element;
+        int mask = keys.length - 1;
+        int slot = hash(key) & mask;
+        while (true) {
+            Object existing = keys[slot];
+            if (existing == null) break;
+            if (existing == key || existing.equals(key)) return slotIds[slot] - 1;
+            slot = (slot + 1) & mask;
         }
-
-        static <E> NodeCursor<E> create(E value) {
-            return new NodeCursor<E>(value, Iterators.<E>emptyIterator());
+        int id = idCount++;
+        keys[slot] = key;
+        slotIds[slot] = id + 1;
+        if (id == state.length) {
+            state = MoreArrays.copyOf(state, id * 2);
+        }
+        if (idCount * 2 > keys.length) {
+            rehash();
         }
+        return id;
+    }
+
+    private static int hash(Object key) {
+        int h = key.hashCode();
+        return h ^ (h >>> 16);
+    }
 
-        @Override public String toString() {
-            return String.valueOf(value);
+    private void rehash() {
+        Object[] oldKeys = keys;
+        int[] oldIds = slotIds;
+        keys = new Object[oldKeys.length * 2];
+        slotIds = new int[oldKeys.length * 2];
+        int mask = keys.length - 1;
+        for (int i = 0; i < oldKeys.length; i++) {
+            Object key = oldKeys[i];
+            if (key == null) continue;
+            int slot = hash(key) & mask;
+            while (keys[slot] != null) {
+                slot = (slot + 1) & mask;
+            }
+            keys[slot] = key;
+            slotIds[slot] = oldIds[i];
         }
     }
+
+    /**
+     * Invoked when an element is first reached, before any of its related elements is.
+     */
+    protected void preVisit(E value) { }
+
+    /**
+     * Invoked when an element is reached for the first time through a relationship, before it is
+     * {@linkplain #preVisit(Object) visited}.
+     */
+    protected void treeEdge(E subject, E object) { }
+
+    /**
+     * Invoked for a relationship from an element to one it is reachable from, and which is still being traversed
+     * (so the relationship closes a cycle).
+     */
+    protected void backEdge(E subject, E object) { }
+
+    /**
+     * Invoked when all elements reachable from an element have been visited.
+     */
+    protected void postVisit(E value) { }
 }
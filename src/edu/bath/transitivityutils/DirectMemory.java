@@ -0,0 +1,87 @@
+package edu.bath.transitivityutils;
+
+import com.google.common.base.Preconditions;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * A growable region of memory outside the heap, made of direct byte buffers ("chunks") of a fixed size, and
+ * addressed by long byte offsets. Callers must never let an int or a long cross a chunk boundary (which is
+ * guaranteed if they are aligned to their size). Until the region reaches the size of a chunk, it consists of a
+ * single chunk that is reallocated (doubling its size) as needed, so small regions do not waste a whole chunk.
+ *
+ * <p>The memory is released only when the buffers are garbage collected.
+ *
+ * @author Andreou Dimitris, email: jim.andreou (at) gmail.com
+ */
+final class DirectMemory {
+    private static final int MIN_BYTES = 1 << 10;
+
+    private final int chunkBits;
+    private final int chunkMask;
+    private ByteBuffer[] chunks = new ByteBuffer[0];
+    private long capacity;
+
+    /**
+     * @param chunkBits the log2 of the chunk size, from 10 to 30
+     */
+    DirectMemory(int chunkBits) {
+        Preconditions.checkArgument(chunkBits >= 10 && chunkBits <= 30, "Chunk bits out of range: %s", chunkBits);
+        this.chunkBits = chunkBits;
+        this.chunkMask = (1 << chunkBits) - 1;
+    }
+
+    int chunkBits() {
+        return chunkBits;
+    }
+
+    long capacity() {
+        return capacity;
+    }
+
+    /**
+     * Makes sure that the bytes from zero (inclusive) to the specified offset (exclusive) are available. Newly
+     * available bytes are zero.
+     */
+    void ensureCapacity(long bytes) {
+        if (bytes <= capacity) return;
+        long chunkSize = 1L << chunkBits;
+        if (capacity < chunkSize) { //still a single chunk; grow it
+            int newSize = (int)Math.min(chunkSize, Math.max(bytes, Math.max(MIN_BYTES, capacity * 2)));
+            ByteBuffer grown = ByteBuffer.allocateDirect(newSize).order(ByteOrder.nativeOrder());
+            if (chunks.length > 0) {
+                ByteBuffer old = chunks[0].duplicate();
+                old.clear();
+                grown.put(old);
+                grown.clear();
+            }
+            chunks = new ByteBuffer[] { grown };
+            capacity = newSize;
+            if (bytes <= capacity) return;
+        }
+        long chunkCount = (bytes + chunkMask) >>> chunkBits;
+        Preconditions.checkState(chunkCount <= Integer.MAX_VALUE, "Too much memory requested: %s", bytes);
+        int oldCount = chunks.length;
+        chunks = MoreArrays.copyOf(chunks, (int)chunkCount);
+        for (int i = oldCount; i < chunks.length; i++) {
+            chunks[i] = ByteBuffer.allocateDirect(1 << chunkBits).order(ByteOrder.nativeOrder());
+        }
+        capacity = chunkCount << chunkBits;
+    }
+
+    int getInt(long offset) {
+        return chunks[(int)(offset >>> chunkBits)].getInt((int)offset & chunkMask);
+    }
+
+    void putInt(long offset, int value) {
+        chunks[(int)(offset >>> chunkBits)].putInt((int)offset & chunkMask, value);
+    }
+
+    long getLong(long offset) {
+        return chunks[(int)(offset >>> chunkBits)].getLong((int)offset & chunkMask);
+    }
+
+    void putLong(long offset, long value) {
+        chunks[(int)(offset >>> chunkBits)].putLong((int)offset & chunkMask, value);
+    }
+}
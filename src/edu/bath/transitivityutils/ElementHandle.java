@@ -0,0 +1,54 @@
+package edu.bath.transitivityutils;
+
+/**
+ * An element of a transitive relation, resolved once, so that repeated queries about it skip looking it up (hashing
+ * it and comparing it with {@code equals}). Handles are obtained through
+ * {@link Relations#handle(TransitiveRelation, Object)}, and queried through
+ * {@link Relations#areRelated(ElementHandle, ElementHandle)} and similar methods; the queries of a handle
+ * always agree with those of the relation, whatever modifications were made to it after the handle was obtained.
+ *
+ * <p>For relations created by {@link Relations}, a handle caches the internal representation of the element, and
+ * a query through handles involves no lookups at all. The cache is refreshed (with a single lookup) after the
+ * relation is {@linkplain Relations#compact(TransitiveRelation) compacted} or has any element
+ * {@linkplain Relations#remove(TransitiveRelation, Object) removed}, and on every query while the element is not
+ * yet an element of the relation. For other relations, queries through handles are equivalent to queries through
+ * the elements themselves.
+ *
+ * <p>Handles are not thread-safe, even if their relation is.
+ *
+ * @param <E> the type of the element
+ * @author Andreou Dimitris, email: jim.andreou (at) gmail.com
+ */
+public final class ElementHandle<E> {
+    private final TransitiveRelation<E> relation;
+    private final E element;
+
+    //the cached internal representation of the element, valid while the generation of the relation is the same
+    Object node;
+    int generation;
+
+    ElementHandle(TransitiveRelation<E> relation, E element) {
+        this.relation = relation;
+        this.element = element;
+    }
+
+    /**
+     * Returns the relation that answers the queries of this handle (which, for the
+     * {@linkplain TransitiveBiRelation bidirectional relations} of {@link Relations}, is an internal one).
+     */
+    TransitiveRelation<E> relation() {
+        return relation;
+    }
+
+    /**
+     * Returns the element of this handle.
+     */
+    public E element() {
+        return element;
+    }
+
+    @Override
+    public String toString() {
+        return String.valueOf(element);
+    }
+}
@@ -0,0 +1,92 @@
+package edu.bath.transitivityutils;
+
+import com.google.common.base.Objects;
+import java.util.AbstractList;
+import java.util.List;
+
+/**
+ * An immutable, dense numbering of a set of elements: each element is assigned the id of its position
+ * in the array it was created from, and ids can be looked up by element through an open-addressing
+ * hash table of primitive ints. {@code null} is a valid element.
+ *
+ * @author Andreou Dimitris, email: jim.andreou (at) gmail.com
+ */
+final class ElementIndex<E> {
+    private final Object[] elements;
+
+    /*
+     * Slots hold (id + 1), so that zero means an empty slot. Linear probing, load factor at most 0.5.
+     */
+    private final int[] table;
+    private final int mask;
+
+    /**
+     * Creates an index of the specified (distinct) elements. The array is not copied,
+     * and must not be modified afterwards.
+     */
+    ElementIndex(Object[] elements) {
+        this.elements = elements;
+        int capacity = Integer.highestOneBit(Math.max(2, elements.length) * 2 - 1) << 1;
+        this.table = new int[capacity];
+        this.mask = capacity - 1;
+        for (int id = 0; id < elements.length; id++) {
+            int slot = hash(elements[id]) & mask;
+            while (table[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            table[slot] = id + 1;
+        }
+    }
+
+    int size() {
+        return elements.length;
+    }
+
+    @SuppressWarnings("unchecked")
+    E get(int id) {
+        return (E)elements[id];
+    }
+
+    /**
+     * Returns the id of the specified element, or {@code -1} if it is not indexed.
+     */
+    int indexOf(Object element) {
+        int slot = hash(element) & mask;
+        while (true) {
+            int entry = table[slot];
+            if (entry == 0) return -1;
+            if (Objects.equal(elements[entry - 1], element)) return entry - 1;
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    /**
+     * Returns an unmodifiable list view of the indexed elements, in id order.
+     */
+    List<E> asList() {
+        return new AbstractList<E>() {
+            @Override
+            public E get(int id) {
+                return ElementIndex.this.get(id);
+            }
+
+            @Override
+            public int size() {
+                return elements.length;
+            }
+        };
+    }
+
+    /**
+     * Returns the (smeared) hash code of an element, as used by this index.
+     */
+    static int hash(Object element) {
+        return smear(element == null ? 0 : element.hashCode());
+    }
+
+    //same supplemental hash function as java.util.HashMap, against poor quality hash codes
+    private static int smear(int h) {
+        h ^= (h >>> 20) ^ (h >>> 12);
+        return h ^ (h >>> 7) ^ (h >>> 4);
+    }
+}
@@ -0,0 +1,25 @@
+package edu.bath.transitivityutils;
+
+import java.util.Collection;
+
+/**
+ * A transitive relation that can enumerate the subjects related to an object straight from its labeling
+ * (e.g. by scanning the intervals of the object), rather than by traversing the relationships. The cost
+ * is proportional to the number of subjects, plus the number of intervals of the object.
+ *
+ * @see Relations#descendants(TransitiveRelation, Object)
+ * @author Andreou Dimitris, email: jim.andreou (at) gmail.com
+ */
+interface EnumerableTransitiveRelation<E> extends TransitiveRelation<E> {
+    /**
+     * Adds to the collection every element of this relation that is related to the object (including the object
+     * itself), or nothing if the object is not an element of this relation.
+     */
+    void collectDescendants(E object, Collection<? super E> collection);
+
+    /**
+     * Returns the number of elements of this relation that are related to the object (including the object
+     * itself), or zero if the object is not an element of this relation.
+     */
+    int countDescendants(E object);
+}
@@ -0,0 +1,332 @@
+package edu.bath.transitivityutils;
+
+import com.google.common.base.Objects;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * An immutable (transitive, reflexive) binary relation, in a compact, pointer-free representation.
+ *
+ * <p>Every element is identified by a dense id, which is its rank in the order of the {@code OrderList} of
+ * the relation it was frozen from (counting only the pre nodes). Thus, the interval set of each element
+ * becomes a sorted sequence of {@code [low, high]} (inclusive) id pairs, and all such sequences are packed
+ * into a single {@code int[]}, where the intervals of element {@code id} occupy the range
+ * {@code intervalOffsets[id]} (inclusive) to {@code intervalOffsets[id + 1]} (exclusive). The direct
+ * relationships are packed in the same fashion.
+ *
+ * <p>Elements with many intervals also get a copy of them in Eytzinger (breadth-first) order: the intervals are the
+ * nodes of an implicit complete binary search tree, stored level by level, so that the first steps of every search
+ * touch the same few cache lines, and each step descends without a branch. A binary search over the sorted
+ * intervals instead jumps across the whole range, missing the cache on almost every step when the relation is
+ * large. These copies are rebuilt when a relation is read back, and are not part of any snapshot format. They are
+ * not free: the intervals of such elements are kept twice, since the sorted ones are still needed to enumerate and
+ * write the relation, so in the worst case (every element with many intervals) the intervals take twice the heap.
+ *
+ * <p>Elements with at most {@link MergingIntervalSet#tagCutoff()} interval boundaries are scanned linearly
+ * instead; that cutoff is the one measured by {@link Relations#calibrateSearchCutoff()}, if it has been invoked.
+ *
+ * @see Relations#freeze(TransitiveRelation)
+ * @author Andreou Dimitris, email: jim.andreou (at) gmail.com
+ */
+final class FrozenTransitiveRelation<E> implements EnumerableTransitiveRelation<E>, Serializable {
+    private final ElementIndex<E> index;
+    private final int[] intervalOffsets;
+    private final int[] intervals;
+    private final int[] directOffsets;
+    private final int[] directTargets;
+    private final Navigator<E> navigator = new DirectNavigator();
+
+    //the Eytzinger copies of the intervals of element id occupy trees[treeOffsets[id]] to trees[treeOffsets[id + 1]]
+    private final int[] treeOffsets;
+    private final int[] trees;
+
+    /**
+     * Size (in ints) of an element's intervals from which they are also laid out in Eytzinger order.
+     */
+    static final int EYTZINGER_CUTOFF_POINT = 16;
+
+    private static final long serialVersionUID = 5238146389917163416L;
+
+    FrozenTransitiveRelation(ElementIndex<E> index, int[] intervalOffsets, int[] intervals,
+            int[] directOffsets, int[] directTargets) {
+        this.index = index;
+        this.intervalOffsets = intervalOffsets;
+        this.intervals = intervals;
+        this.directOffsets = directOffsets;
+        this.directTargets = directTargets;
+
+        int n = intervalOffsets.length - 1;
+        this.treeOffsets = new int[n + 1];
+        int treeSize = 0;
+        for (int id = 0; id < n; id++) {
+            int length = intervalOffsets[id + 1] - intervalOffsets[id];
+            if (length >= EYTZINGER_CUTOFF_POINT) treeSize += length;
+            treeOffsets[id + 1] = treeSize;
+        }
+        this.trees = new int[treeSize];
+        for (int id = 0; id < n; id++) {
+            if (treeOffsets[id] != treeOffsets[id + 1]) {
+                eytzingerLayout(intervals, intervalOffsets[id], intervalOffsets[id + 1], trees, treeOffsets[id]);
+            }
+        }
+    }
+
+    /**
+     * Always throws {@code UnsupportedOperationException}, since this relation is immutable.
+     */
+    public void relate(E subject, E object) {
+        throw new UnsupportedOperationException();
+    }
+
+    public boolean areRelated(E subjectValue, E objectValue) {
+        if (Objects.equal(subjectValue, objectValue)) return true;
+
+        int subject = index.indexOf(subjectValue);
+        if (subject < 0) return false;
+
+        int object = index.indexOf(objectValue);
+        if (object < 0) return false;
+
+        return areIdsRelated(subject, object);
+    }
+
+    boolean areIdsRelated(int subject, int object) {
+        int from = intervalOffsets[object];
+        int to = intervalOffsets[object + 1];
+        if (to - from <= MergingIntervalSet.tagCutoff()) {
+            return linearScan(intervals, from, to, subject);
+        }
+        int treeFrom = treeOffsets[object];
+        if (treeFrom != treeOffsets[object + 1]) {
+            return eytzingerSearch(trees, treeFrom, to - from, subject);
+        }
+        return binarySearch(intervals, from, to, subject);
+    }
+
+    static boolean linearScan(int[] intervals, int from, int to, int subject) {
+        for (int i = from; i < to; i += 2) {
+            if (subject < intervals[i]) return false;
+            if (subject <= intervals[i + 1]) return true;
+        }
+        return false;
+    }
+
+    static boolean binarySearch(int[] intervals, int from, int to, int subject) {
+        int position = MoreArrays.binarySearch(intervals, from, to, subject);
+        return position >= 0 || //subject is an interval boundary
+                ((-position - 1 - from) & 1) != 0; //subject falls between a low and a high
+    }
+
+    /**
+     * Copies the {@code [low, high]} pairs of {@code source[from]} to {@code source[to]} (exclusive) into
+     * {@code tree}, from {@code base} on, in Eytzinger order: the pair at (1-based) position {@code k} of the tree
+     * has its children at positions {@code 2k} and {@code 2k + 1}, and is stored, low first, at
+     * {@code tree[base + 2k - 2]}.
+     */
+    static void eytzingerLayout(int[] source, int from, int to, int[] tree, int base) {
+        fill(source, from, (to - from) / 2, tree, base, 1, 0);
+    }
+
+    //an in-order traversal of the implicit tree visits the positions in sorted order; returns the next pair to copy
+    private static int fill(int[] source, int from, int pairs, int[] tree, int base, int k, int next) {
+        if (k <= pairs) {
+            next = fill(source, from, pairs, tree, base, 2 * k, next);
+            tree[base + 2 * k - 2] = source[from + 2 * next];
+            tree[base + 2 * k - 1] = source[from + 2 * next + 1];
+            next = fill(source, from, pairs, tree, base, 2 * k + 1, next + 1);
+        }
+        return next;
+    }
+
+    /**
+     * Tests whether the subject falls in any of the intervals of an Eytzinger tree (see
+     * {@link #eytzingerLayout(int[], int, int, int[], int)}) of the specified length in ints, by finding the first
+     * interval whose high is not smaller than the subject: since the intervals are disjoint, it is the only one
+     * that can contain it.
+     */
+    static boolean eytzingerSearch(int[] tree, int base, int length, int subject) {
+        int pairs = length / 2;
+        int k = 1;
+        while (k <= pairs) {
+            k = 2 * k + (tree[base + 2 * k - 1] < subject ? 1 : 0);
+        }
+        //the path went right past the answer; undo the right turns since the last left one, and that one
+        k >>>= Integer.numberOfTrailingZeros(~k) + 1;
+        return k != 0 && tree[base + 2 * k - 2] <= subject;
+    }
+
+    public void collectDescendants(E objectValue, Collection<? super E> collection) {
+        int object = index.indexOf(objectValue);
+        if (object < 0) return;
+
+        for (int i = intervalOffsets[object]; i < intervalOffsets[object + 1]; i += 2) {
+            for (int id = intervals[i]; id <= intervals[i + 1]; id++) {
+                collection.add(index.get(id));
+            }
+        }
+    }
+
+    public int countDescendants(E objectValue) {
+        int object = index.indexOf(objectValue);
+        if (object < 0) return 0;
+
+        int count = 0;
+        for (int i = intervalOffsets[object]; i < intervalOffsets[object + 1]; i += 2) {
+            count += intervals[i + 1] - intervals[i] + 1;
+        }
+        return count;
+    }
+
+    /**
+     * Writes this relation in the format of {@link MappedTransitiveRelation}.
+     */
+    void writeMapped(OutputStream out) throws IOException {
+        MappedTransitiveRelation.write(index, intervalOffsets, intervals, directOffsets, directTargets, out);
+    }
+
+    public Navigator<E> direct() {
+        return navigator;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("{");
+        for (int id = 0; id < index.size(); id++) {
+            if (id > 0) sb.append(", ");
+            sb.append(index.get(id)).append("=").append(
+                    Arrays.toString(MoreArrays.copyOfRange(intervals, intervalOffsets[id], intervalOffsets[id + 1])));
+        }
+        return sb.append("}").toString();
+    }
+
+    private class DirectNavigator implements Navigator<E> {
+        public Set<E> related(E subjectValue) {
+            int subject = index.indexOf(subjectValue);
+            if (subject < 0 || directOffsets[subject] == directOffsets[subject + 1]) {
+                return Collections.emptySet();
+            }
+            return new IdSet(directTargets, directOffsets[subject], directOffsets[subject + 1]);
+        }
+
+        public Set<E> domain() {
+            return new AbstractSet<E>() {
+                @Override
+                public Iterator<E> iterator() {
+                    return new Iterator<E>() {
+                        int next = advance(0);
+
+                        int advance(int id) {
+                            while (id < index.size() && directOffsets[id] == directOffsets[id + 1]) id++;
+                            return id;
+                        }
+
+                        public boolean hasNext() {
+                            return next < index.size();
+                        }
+
+                        public E next() {
+                            if (!hasNext()) throw new NoSuchElementException();
+                            E value = index.get(next);
+                            next = advance(next + 1);
+                            return value;
+                        }
+
+                        public void remove() {
+                            throw new UnsupportedOperationException();
+                        }
+                    };
+                }
+
+                @Override
+                public boolean contains(Object o) {
+                    int id = index.indexOf(o);
+                    return id >= 0 && directOffsets[id] != directOffsets[id + 1];
+                }
+
+                @Override
+                public int size() {
+                    int size = 0;
+                    for (int id = 0; id < index.size(); id++) {
+                        if (directOffsets[id] != directOffsets[id + 1]) size++;
+                    }
+                    return size;
+                }
+            };
+        }
+    }
+
+    private class IdSet extends AbstractSet<E> {
+        private final int[] ids;
+        private final int from;
+        private final int to;
+
+        IdSet(int[] ids, int from, int to) {
+            this.ids = ids;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        public Iterator<E> iterator() {
+            return new Iterator<E>() {
+                int position = from;
+
+                public boolean hasNext() {
+                    return position < to;
+                }
+
+                public E next() {
+                    if (!hasNext()) throw new NoSuchElementException();
+                    return index.get(ids[position++]);
+                }
+
+                public void remove() {
+                    throw new UnsupportedOperationException();
+                }
+            };
+        }
+
+        @Override
+        public int size() {
+            return to - from;
+        }
+    }
+
+    private Object writeReplace() {
+        return new SerializationProxy(index.asList().toArray(), intervalOffsets, intervals, directOffsets, directTargets);
+    }
+
+    //the hash table of the index is not serialized, since hash codes need not be stable across virtual machines
+    private static class SerializationProxy implements Serializable {
+        private final Object[] elements;
+        private final int[] intervalOffsets;
+        private final int[] intervals;
+        private final int[] directOffsets;
+        private final int[] directTargets;
+
+        private static final long serialVersionUID = -1622580016380405773L;
+
+        SerializationProxy(Object[] elements, int[] intervalOffsets, int[] intervals,
+                int[] directOffsets, int[] directTargets) {
+            this.elements = elements;
+            this.intervalOffsets = intervalOffsets;
+            this.intervals = intervals;
+            this.directOffsets = directOffsets;
+            this.directTargets = directTargets;
+        }
+
+        private Object readResolve() {
+            return new FrozenTransitiveRelation<Object>(new ElementIndex<Object>(elements),
+                    intervalOffsets, intervals, directOffsets, directTargets);
+        }
+    }
+}
@@ -0,0 +1,143 @@
+package edu.bath.transitivityutils;
+
+/**
+ * A {@link RelationListener} that counts relabelings, propagations and interval set growths, and keeps track of the
+ * slowest relabeling and propagation, as well as of how many of them took longer than a threshold.
+ *
+ * <p>Instances are not thread-safe; they may be read while the relation they are attached to is not being modified.
+ *
+ * @author Andreou Dimitris, email: jim.andreou (at) gmail.com
+ */
+public class InstrumentationCounters extends RelationListener {
+    private final long slowThresholdNanos;
+
+    private long relabels;
+    private long relabeledNodes;
+    private int maxRelabeledNodes;
+    private long slowRelabels;
+    private long slowestRelabelNanos;
+
+    private long propagations;
+    private long nodesVisited;
+    private long intervalsMerged;
+    private long slowPropagations;
+    private long slowestPropagationNanos;
+
+    private long intervalSetGrowths;
+
+    /**
+     * Creates counters that consider slow any relabeling or propagation that lasts longer than the specified
+     * number of nanoseconds.
+     */
+    public InstrumentationCounters(long slowThresholdNanos) {
+        this.slowThresholdNanos = slowThresholdNanos;
+    }
+
+    @Override
+    public void relabeled(int nodes, long nanos) {
+        relabels++;
+        relabeledNodes += nodes;
+        maxRelabeledNodes = Math.max(maxRelabeledNodes, nodes);
+        if (nanos > slowThresholdNanos) slowRelabels++;
+        slowestRelabelNanos = Math.max(slowestRelabelNanos, nanos);
+    }
+
+    @Override
+    public void propagated(int nodesVisited, int intervalsMerged, long nanos) {
+        propagations++;
+        this.nodesVisited += nodesVisited;
+        this.intervalsMerged += intervalsMerged;
+        if (nanos > slowThresholdNanos) slowPropagations++;
+        slowestPropagationNanos = Math.max(slowestPropagationNanos, nanos);
+    }
+
+    @Override
+    public void intervalSetGrew(int capacity) {
+        intervalSetGrowths++;
+    }
+
+    /**
+     * Returns the number of relabelings.
+     */
+    public long relabels() {
+        return relabels;
+    }
+
+    /**
+     * Returns the total number of nodes relabeled by all relabelings.
+     */
+    public long relabeledNodes() {
+        return relabeledNodes;
+    }
+
+    /**
+     * Returns the number of nodes relabeled by the largest relabeling.
+     */
+    public int maxRelabeledNodes() {
+        return maxRelabeledNodes;
+    }
+
+    /**
+     * Returns the number of relabelings that took longer than the threshold.
+     */
+    public long slowRelabels() {
+        return slowRelabels;
+    }
+
+    /**
+     * Returns the duration of the slowest relabeling, in nanoseconds.
+     */
+    public long slowestRelabelNanos() {
+        return slowestRelabelNanos;
+    }
+
+    /**
+     * Returns the number of propagations.
+     */
+    public long propagations() {
+        return propagations;
+    }
+
+    /**
+     * Returns the total number of elements visited by all propagations.
+     */
+    public long nodesVisited() {
+        return nodesVisited;
+    }
+
+    /**
+     * Returns the total number of intervals merged by all propagations.
+     */
+    public long intervalsMerged() {
+        return intervalsMerged;
+    }
+
+    /**
+     * Returns the number of propagations that took longer than the threshold.
+     */
+    public long slowPropagations() {
+        return slowPropagations;
+    }
+
+    /**
+     * Returns the duration of the slowest propagation, in nanoseconds.
+     */
+    public long slowestPropagationNanos() {
+        return slowestPropagationNanos;
+    }
+
+    /**
+     * Returns the number of times that the interval set of an element had to grow its array.
+     */
+    public long intervalSetGrowths() {
+        return intervalSetGrowths;
+    }
+
+    @Override
+    public String toString() {
+        return "[relabels=" + relabels + ", relabeledNodes=" + relabeledNodes + ", slowRelabels=" + slowRelabels
+                + ", propagations=" + propagations + ", nodesVisited=" + nodesVisited
+                + ", intervalsMerged=" + intervalsMerged + ", slowPropagations=" + slowPropagations
+                + ", intervalSetGrowths=" + intervalSetGrowths + "]";
+    }
+}
@@ -0,0 +1,85 @@
+package edu.bath.transitivityutils;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * An allocator of variable-length int arrays ("blocks") in {@link DirectMemory}, outside the heap. Block capacities
+ * are powers of two, and freed blocks are kept in a free list per capacity, to be reused by later allocations of
+ * the same capacity. A block is identified by the int position of its header, which holds its size and the log2 of
+ * its capacity; while the block is free, its first two ints hold the next free block of its capacity. Position zero
+ * means "no block". Blocks start at even positions, so those longs are aligned.
+ * Blocks never cross a chunk boundary of the memory, so the largest capacity is a chunk's worth of ints.
+ *
+ * @author Andreou Dimitris, email: jim.andreou (at) gmail.com
+ */
+final class IntBlockPool {
+    private static final int HEADER_INTS = 2;
+
+    private final DirectMemory memory;
+    private final long chunkInts;
+    private final long[] freeLists = new long[32];
+    private long top = HEADER_INTS; //the first position is reserved, so that zero can mean "no block"
+
+    IntBlockPool(int chunkBits) {
+        this.memory = new DirectMemory(chunkBits);
+        this.chunkInts = 1L << (chunkBits - 2);
+    }
+
+    /**
+     * Allocates a block of at least the specified capacity, with size zero.
+     */
+    long allocate(int minCapacity) {
+        int sizeClass = 32 - Integer.numberOfLeadingZeros(Math.max(2, minCapacity) - 1);
+        int total = (1 << sizeClass) + HEADER_INTS;
+        Preconditions.checkState(sizeClass < 31 && total <= chunkInts,
+                "Cannot allocate a block of %s ints with chunks of %s ints", minCapacity, chunkInts);
+
+        long block = freeLists[sizeClass];
+        if (block != 0L) {
+            freeLists[sizeClass] = memory.getLong((block + HEADER_INTS) * 4);
+        } else {
+            if (top / chunkInts != (top + total - 1) / chunkInts) {
+                top = (top / chunkInts + 1) * chunkInts; //skip to the next chunk
+            }
+            block = top;
+            top += total;
+            memory.ensureCapacity(top * 4);
+        }
+        memory.putInt(block * 4, 0);
+        memory.putInt(block * 4 + 4, sizeClass);
+        return block;
+    }
+
+    void free(long block) {
+        int sizeClass = memory.getInt(block * 4 + 4);
+        memory.putLong((block + HEADER_INTS) * 4, freeLists[sizeClass]);
+        freeLists[sizeClass] = block;
+    }
+
+    int size(long block) {
+        return memory.getInt(block * 4);
+    }
+
+    void setSize(long block, int size) {
+        memory.putInt(block * 4, size);
+    }
+
+    int capacity(long block) {
+        return 1 << memory.getInt(block * 4 + 4);
+    }
+
+    int get(long block, int index) {
+        return memory.getInt((block + HEADER_INTS + index) * 4);
+    }
+
+    void set(long block, int index, int value) {
+        memory.putInt((block + HEADER_INTS + index) * 4, value);
+    }
+
+    /**
+     * Returns the number of bytes of memory reserved by this pool.
+     */
+    long reservedBytes() {
+        return memory.capacity();
+    }
+}
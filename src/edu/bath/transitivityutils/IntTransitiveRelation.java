@@ -0,0 +1,36 @@
+package edu.bath.transitivityutils;
+
+/**
+ * A transitive (and reflexive) binary relation over non-negative {@code int} elements. This is the
+ * primitive counterpart of {@link TransitiveRelation}, intended for elements that are identified by
+ * dense integer ids: elements are used directly as array indexes, so neither
+ * {@link #relate(int, int)} nor {@link #areRelated(int, int)} needs to box or hash them.
+ *
+ * @see Relations#newIntTransitiveRelation(int)
+ * @author Andreou Dimitris, email: jim.andreou (at) gmail.com
+ */
+public interface IntTransitiveRelation {
+    /**
+     * Relates a subject with an object (optional operation). After successfully invoking this operation,
+     * {@code areRelated(subject, object)} must return {@code true}. Relating an element with itself
+     * does nothing, since reflexivity is implicit.
+     *
+     * @throws IllegalArgumentException if either element is negative, or equal to
+     * {@link Integer#MAX_VALUE} (since elements are array indexes, the largest usable one is
+     * {@code Integer.MAX_VALUE - 1})
+     */
+    void relate(int subject, int object);
+
+    /**
+     * Returns whether the subject is related to the object.
+     */
+    boolean areRelated(int subject, int object);
+
+    /**
+     * Returns the navigator that represents the <em>explicit</em> part of this transitive relation.
+     * That is, the relationships that were created directly through {@link #relate(int, int)},
+     * and not merely induced by transitivity. The navigator is a (boxing) view of this relation, and it is
+     * not meant to be used in performance-sensitive code.
+     */
+    Navigator<Integer> direct();
+}
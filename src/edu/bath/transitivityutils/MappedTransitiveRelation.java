@@ -0,0 +1,564 @@
+package edu.bath.transitivityutils;
+
+import com.google.common.base.Objects;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.AbstractSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * An immutable (transitive, reflexive) binary relation, served directly from a memory-mapped file. The file
+ * contains the same pointer-free representation as {@link FrozenTransitiveRelation}, plus the hash table of
+ * the element index and the serialized elements themselves, so nothing is copied to the heap: startup only
+ * maps the file, and the pages are shared (through the page cache) among all processes that map the same file.
+ *
+ * <p>File layout (big-endian; every section starts at a multiple of 8):
+ * <pre>
+ * header:          magic, version, elementCount, tableCapacity, intervalCount, directCount (ints)
+ * hashes:          int[tableCapacity]   - the smeared hash code of the element of each slot
+ * slots:           int[tableCapacity]   - (id + 1) of the element of each slot, or 0 if the slot is empty
+ * intervalOffsets: int[elementCount + 1]
+ * intervals:       int[intervalCount]
+ * directOffsets:   int[elementCount + 1]
+ * directTargets:   int[directCount]
+ * records:         byte[recordBytes]    - the record of every element
+ * recordOffsets:   long[elementCount + 1] - the last one is recordBytes
+ * </pre>
+ *
+ * <p>A record is a tag byte followed by the element: nothing for {@code null}, the modified UTF-8 bytes of a
+ * string (as in {@link java.io.DataOutput#writeUTF(String)}, without the length, which is implied by the record
+ * offsets), the big-endian bytes of an {@code Integer} or a {@code Long}, or else the Java serialization of the
+ * element, in a stream of its own. The record offsets come last, so that records are streamed to the file as they
+ * are encoded, and never held in memory all at once.
+ *
+ * <p>Since elements are found by their hash codes, these must be stable across virtual machines (as is the case
+ * for strings, boxed primitives and collections of them). Strings, integers and longs are looked up by comparing
+ * their records with the encoding of the queried element, byte by byte; other elements are deserialized whenever
+ * they are compared or returned.
+ *
+ * @see Relations#mapSnapshot(File)
+ * @author Andreou Dimitris, email: jim.andreou (at) gmail.com
+ */
+final class MappedTransitiveRelation<E> implements EnumerableTransitiveRelation<E> {
+    private static final int MAGIC = 0x54524d31; //"TRM1"
+    private static final int VERSION = 2;
+    private static final int HEADER_BYTES = 24;
+
+    //record tags
+    private static final byte NULL_RECORD = 0;
+    private static final byte STRING_RECORD = 1;
+    private static final byte INTEGER_RECORD = 2;
+    private static final byte LONG_RECORD = 3;
+    private static final byte SERIALIZED_RECORD = 4;
+
+    /**
+     * Files are mapped in chunks of this size (a multiple of 8, so that no int or long crosses a chunk boundary).
+     */
+    private static final int CHUNK_BITS = 30;
+    private static final int CHUNK_MASK = (1 << CHUNK_BITS) - 1;
+
+    private final MappedByteBuffer[] chunks;
+    private final int elementCount;
+    private final int tableMask;
+
+    private final long hashesStart;
+    private final long slotsStart;
+    private final long intervalOffsetsStart;
+    private final long intervalsStart;
+    private final long directOffsetsStart;
+    private final long directTargetsStart;
+    private final long recordsStart;
+    private final long recordOffsetsStart;
+
+    private final Navigator<E> navigator = new DirectNavigator();
+
+    private MappedTransitiveRelation(MappedByteBuffer[] chunks, long length, int elementCount, int tableCapacity,
+            int intervalCount, int directCount) {
+        this.chunks = chunks;
+        this.elementCount = elementCount;
+        this.tableMask = tableCapacity - 1;
+
+        this.hashesStart = HEADER_BYTES;
+        this.slotsStart = align(hashesStart + 4L * tableCapacity);
+        this.intervalOffsetsStart = align(slotsStart + 4L * tableCapacity);
+        this.intervalsStart = align(intervalOffsetsStart + 4L * (elementCount + 1));
+        this.directOffsetsStart = align(intervalsStart + 4L * intervalCount);
+        this.directTargetsStart = align(directOffsetsStart + 4L * (elementCount + 1));
+        this.recordsStart = align(directTargetsStart + 4L * directCount);
+        this.recordOffsetsStart = recordsStart + align(getLong(length - 8L));
+    }
+
+    /**
+     * Maps the specified file, which must have been written by
+     * {@link #write(ElementIndex, int[], int[], int[], int[], OutputStream)}. The file is not locked; it must not be
+     * modified while it is mapped.
+     */
+    static <E> MappedTransitiveRelation<E> map(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            long length = channel.size();
+            if (length < HEADER_BYTES) {
+                throw new IOException("Not a mapped transitive relation: " + file);
+            }
+            MappedByteBuffer[] chunks = new MappedByteBuffer[(int)((length + CHUNK_MASK) >>> CHUNK_BITS)];
+            for (int i = 0; i < chunks.length; i++) {
+                long position = (long)i << CHUNK_BITS;
+                chunks[i] = channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(length - position, 1L << CHUNK_BITS));
+            }
+            ByteBuffer header = chunks[0];
+            if (header.getInt(0) != MAGIC) {
+                throw new IOException("Not a mapped transitive relation: " + file);
+            }
+            int version = header.getInt(4);
+            if (version != VERSION) {
+                throw new IOException("Unsupported version " + version + ": " + file);
+            }
+            int elementCount = header.getInt(8);
+            if (length < HEADER_BYTES + 8L * (elementCount + 1)) {
+                throw new IOException("Truncated or corrupted file: " + file);
+            }
+            MappedTransitiveRelation<E> relation = new MappedTransitiveRelation<E>(chunks, length,
+                    elementCount, header.getInt(12), header.getInt(16), header.getInt(20));
+            if (relation.recordOffsetsStart + 8L * (elementCount + 1) != length) {
+                throw new IOException("Truncated or corrupted file: " + file);
+            }
+            return relation;
+        } finally {
+            //the mapping remains valid after the channel is closed
+            raf.close();
+        }
+    }
+
+    /**
+     * Writes the specified frozen representation in the format of this class. The stream is flushed, but not closed.
+     */
+    static void write(ElementIndex<?> index, int[] intervalOffsets, int[] intervals,
+            int[] directOffsets, int[] directTargets, OutputStream stream) throws IOException {
+        int elementCount = index.size();
+        int tableCapacity = Integer.highestOneBit(Math.max(2, elementCount) * 2 - 1) << 1;
+        int[] hashes = new int[tableCapacity];
+        int[] slots = new int[tableCapacity];
+        for (int id = 0; id < elementCount; id++) {
+            int hash = ElementIndex.hash(index.get(id));
+            int slot = hash & (tableCapacity - 1);
+            while (slots[slot] != 0) {
+                slot = (slot + 1) & (tableCapacity - 1);
+            }
+            hashes[slot] = hash;
+            slots[slot] = id + 1;
+        }
+
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream));
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt(elementCount);
+        out.writeInt(tableCapacity);
+        out.writeInt(intervalOffsets[elementCount]);
+        out.writeInt(directOffsets[elementCount]);
+        writeInts(out, hashes, tableCapacity);
+        writeInts(out, slots, tableCapacity);
+        writeInts(out, intervalOffsets, elementCount + 1);
+        writeInts(out, intervals, intervalOffsets[elementCount]);
+        writeInts(out, directOffsets, elementCount + 1);
+        writeInts(out, directTargets, directOffsets[elementCount]);
+
+        long[] recordOffsets = new long[elementCount + 1];
+        long recordBytes = 0L;
+        for (int id = 0; id < elementCount; id++) {
+            byte[] record = record(index.get(id), true);
+            out.write(record);
+            recordBytes += record.length;
+            recordOffsets[id + 1] = recordBytes;
+        }
+        for (long padding = recordBytes; (padding & 7) != 0; padding++) {
+            out.writeByte(0);
+        }
+        for (long offset : recordOffsets) {
+            out.writeLong(offset);
+        }
+        out.flush();
+    }
+
+    /**
+     * Encodes the record of the specified element. If the element has no compact encoding, it is serialized if
+     * {@code serialize} is true, otherwise {@code null} is returned.
+     */
+    private static byte[] record(Object element, boolean serialize) throws IOException {
+        if (element == null) {
+            return new byte[] { NULL_RECORD };
+        } else if (element instanceof String) {
+            return stringRecord((String)element);
+        } else if (element instanceof Integer) {
+            int value = (Integer)element;
+            return new byte[] { INTEGER_RECORD,
+                    (byte)(value >>> 24), (byte)(value >>> 16), (byte)(value >>> 8), (byte)value };
+        } else if (element instanceof Long) {
+            long value = (Long)element;
+            byte[] record = new byte[9];
+            record[0] = LONG_RECORD;
+            for (int i = 1; i < 9; i++) {
+                record[i] = (byte)(value >>> (64 - 8 * i));
+            }
+            return record;
+        } else if (!serialize) {
+            return null;
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        bytes.write(SERIALIZED_RECORD);
+        ObjectOutputStream objectOut = new ObjectOutputStream(bytes);
+        objectOut.writeObject(element);
+        objectOut.close();
+        return bytes.toByteArray();
+    }
+
+    //modified UTF-8, as in DataOutput.writeUTF
+    private static byte[] stringRecord(String string) {
+        int length = 1;
+        for (int i = 0; i < string.length(); i++) {
+            char c = string.charAt(i);
+            length += c != 0 && c < 0x80 ? 1 : c < 0x800 ? 2 : 3;
+        }
+        byte[] record = new byte[length];
+        record[0] = STRING_RECORD;
+        int position = 1;
+        for (int i = 0; i < string.length(); i++) {
+            char c = string.charAt(i);
+            if (c != 0 && c < 0x80) {
+                record[position++] = (byte)c;
+            } else if (c < 0x800) {
+                record[position++] = (byte)(0xc0 | (c >> 6));
+                record[position++] = (byte)(0x80 | (c & 0x3f));
+            } else {
+                record[position++] = (byte)(0xe0 | (c >> 12));
+                record[position++] = (byte)(0x80 | ((c >> 6) & 0x3f));
+                record[position++] = (byte)(0x80 | (c & 0x3f));
+            }
+        }
+        return record;
+    }
+
+    private static String decodeString(byte[] record) {
+        char[] chars = new char[record.length - 1];
+        int count = 0;
+        int position = 1;
+        while (position < record.length) {
+            int b = record[position++] & 0xff;
+            if (b < 0x80) {
+                chars[count++] = (char)b;
+            } else if ((b & 0xe0) == 0xc0) {
+                chars[count++] = (char)(((b & 0x1f) << 6) | (record[position++] & 0x3f));
+            } else {
+                chars[count++] = (char)(((b & 0x0f) << 12) | ((record[position++] & 0x3f) << 6)
+                        | (record[position++] & 0x3f));
+            }
+        }
+        return new String(chars, 0, count);
+    }
+
+    private static void writeInts(DataOutputStream out, int[] array, int length) throws IOException {
+        for (int i = 0; i < length; i++) {
+            out.writeInt(array[i]);
+        }
+        if ((length & 1) != 0) {
+            out.writeInt(0); //padding
+        }
+    }
+
+    private static long align(long position) {
+        return (position + 7) & ~7L;
+    }
+
+    private int getInt(long position) {
+        return chunks[(int)(position >>> CHUNK_BITS)].getInt((int)position & CHUNK_MASK);
+    }
+
+    private long getLong(long position) {
+        return chunks[(int)(position >>> CHUNK_BITS)].getLong((int)position & CHUNK_MASK);
+    }
+
+    private byte[] getBytes(long position, int length) {
+        byte[] bytes = new byte[length];
+        int copied = 0;
+        while (copied < length) {
+            ByteBuffer chunk = chunks[(int)(position >>> CHUNK_BITS)].duplicate();
+            chunk.position((int)position & CHUNK_MASK);
+            int count = Math.min(length - copied, chunk.remaining());
+            chunk.get(bytes, copied, count);
+            copied += count;
+            position += count;
+        }
+        return bytes;
+    }
+
+    private long recordFrom(int id) {
+        return getLong(recordOffsetsStart + 8L * id);
+    }
+
+    @SuppressWarnings("unchecked")
+    E element(int id) {
+        long from = recordFrom(id);
+        byte[] record = getBytes(recordsStart + from, (int)(recordFrom(id + 1) - from));
+        switch (record[0]) {
+            case NULL_RECORD:
+                return null;
+            case STRING_RECORD:
+                return (E)decodeString(record);
+            case INTEGER_RECORD:
+                return (E)Integer.valueOf(ByteBuffer.wrap(record, 1, 4).getInt());
+            case LONG_RECORD:
+                return (E)Long.valueOf(ByteBuffer.wrap(record, 1, 8).getLong());
+            default:
+                try {
+                    ObjectInputStream in = new ObjectInputStream(
+                            new ByteArrayInputStream(record, 1, record.length - 1));
+                    return (E)in.readObject();
+                } catch (IOException e) {
+                    throw new IllegalStateException("Cannot read element " + id, e);
+                } catch (ClassNotFoundException e) {
+                    throw new IllegalStateException("Cannot read element " + id, e);
+                }
+        }
+    }
+
+    /**
+     * Returns the id of the specified element, or {@code -1} if it is not in this relation.
+     */
+    int indexOf(Object element) {
+        byte[] key;
+        try {
+            key = record(element, false);
+        } catch (IOException e) {
+            throw new AssertionError(e); //nothing is serialized
+        }
+        int hash = ElementIndex.hash(element);
+        int slot = hash & tableMask;
+        while (true) {
+            int entry = getInt(slotsStart + 4L * slot);
+            if (entry == 0) return -1;
+            if (getInt(hashesStart + 4L * slot) == hash) {
+                int id = entry - 1;
+                if (key != null ? recordEquals(id, key) : Objects.equal(element(id), element)) {
+                    return id;
+                }
+            }
+            slot = (slot + 1) & tableMask;
+        }
+    }
+
+    /**
+     * Tests whether the record of the specified element consists of the specified bytes.
+     */
+    private boolean recordEquals(int id, byte[] key) {
+        long from = recordFrom(id);
+        if (recordFrom(id + 1) - from != key.length) return false;
+        long position = recordsStart + from;
+        for (int i = 0; i < key.length; i++, position++) {
+            if (chunks[(int)(position >>> CHUNK_BITS)].get((int)position & CHUNK_MASK) != key[i]) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Always throws {@code UnsupportedOperationException}, since this relation is immutable.
+     */
+    public void relate(E subject, E object) {
+        throw new UnsupportedOperationException();
+    }
+
+    public boolean areRelated(E subjectValue, E objectValue) {
+        if (Objects.equal(subjectValue, objectValue)) return true;
+
+        int subject = indexOf(subjectValue);
+        if (subject < 0) return false;
+
+        int object = indexOf(objectValue);
+        if (object < 0) return false;
+
+        return areIdsRelated(subject, object);
+    }
+
+    //see FrozenTransitiveRelation.areIdsRelated
+    boolean areIdsRelated(int subject, int object) {
+        int from = getInt(intervalOffsetsStart + 4L * object);
+        int to = getInt(intervalOffsetsStart + 4L * (object + 1));
+        if (to - from <= MergingIntervalSet.tagCutoff()) {
+            for (int i = from; i < to; i += 2) {
+                if (subject < getInt(intervalsStart + 4L * i)) return false;
+                if (subject <= getInt(intervalsStart + 4L * (i + 1))) return true;
+            }
+            return false;
+        }
+        //find the number of boundaries that are less than or equal to the subject
+        int low = from;
+        int high = to;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            int boundary = getInt(intervalsStart + 4L * mid);
+            if (boundary == subject) return true;
+            if (boundary < subject) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return ((low - from) & 1) != 0; //subject falls between a low and a high
+    }
+
+    public void collectDescendants(E objectValue, Collection<? super E> collection) {
+        int object = indexOf(objectValue);
+        if (object < 0) return;
+
+        int to = getInt(intervalOffsetsStart + 4L * (object + 1));
+        for (int i = getInt(intervalOffsetsStart + 4L * object); i < to; i += 2) {
+            int high = getInt(intervalsStart + 4L * (i + 1));
+            for (int id = getInt(intervalsStart + 4L * i); id <= high; id++) {
+                collection.add(element(id));
+            }
+        }
+    }
+
+    public int countDescendants(E objectValue) {
+        int object = indexOf(objectValue);
+        if (object < 0) return 0;
+
+        int count = 0;
+        int to = getInt(intervalOffsetsStart + 4L * (object + 1));
+        for (int i = getInt(intervalOffsetsStart + 4L * object); i < to; i += 2) {
+            count += getInt(intervalsStart + 4L * (i + 1)) - getInt(intervalsStart + 4L * i) + 1;
+        }
+        return count;
+    }
+
+    public Navigator<E> direct() {
+        return navigator;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("{");
+        for (int id = 0; id < elementCount; id++) {
+            if (id > 0) sb.append(", ");
+            sb.append(element(id)).append("=[");
+            int from = getInt(intervalOffsetsStart + 4L * id);
+            int to = getInt(intervalOffsetsStart + 4L * (id + 1));
+            for (int i = from; i < to; i++) {
+                if (i > from) sb.append(", ");
+                sb.append(getInt(intervalsStart + 4L * i));
+            }
+            sb.append("]");
+        }
+        return sb.append("}").toString();
+    }
+
+    private int directFrom(int id) {
+        return getInt(directOffsetsStart + 4L * id);
+    }
+
+    private class DirectNavigator implements Navigator<E> {
+        public Set<E> related(E subjectValue) {
+            int subject = indexOf(subjectValue);
+            if (subject < 0 || directFrom(subject) == directFrom(subject + 1)) {
+                return Collections.emptySet();
+            }
+            return new TargetSet(directFrom(subject), directFrom(subject + 1));
+        }
+
+        public Set<E> domain() {
+            return new AbstractSet<E>() {
+                @Override
+                public Iterator<E> iterator() {
+                    return new Iterator<E>() {
+                        int next = advance(0);
+
+                        int advance(int id) {
+                            while (id < elementCount && directFrom(id) == directFrom(id + 1)) id++;
+                            return id;
+                        }
+
+                        public boolean hasNext() {
+                            return next < elementCount;
+                        }
+
+                        public E next() {
+                            if (!hasNext()) throw new NoSuchElementException();
+                            E value = element(next);
+                            next = advance(next + 1);
+                            return value;
+                        }
+
+                        public void remove() {
+                            throw new UnsupportedOperationException();
+                        }
+                    };
+                }
+
+                @Override
+                public boolean contains(Object o) {
+                    int id = indexOf(o);
+                    return id >= 0 && directFrom(id) != directFrom(id + 1);
+                }
+
+                @Override
+                public int size() {
+                    int size = 0;
+                    for (int id = 0; id < elementCount; id++) {
+                        if (directFrom(id) != directFrom(id + 1)) size++;
+                    }
+                    return size;
+                }
+            };
+        }
+    }
+
+    private class TargetSet extends AbstractSet<E> {
+        private final int from;
+        private final int to;
+
+        TargetSet(int from, int to) {
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        public Iterator<E> iterator() {
+            return new Iterator<E>() {
+                int position = from;
+
+                public boolean hasNext() {
+                    return position < to;
+                }
+
+                public E next() {
+                    if (!hasNext()) throw new NoSuchElementException();
+                    return element(getInt(directTargetsStart + 4L * position++));
+                }
+
+                public void remove() {
+                    throw new UnsupportedOperationException();
+                }
+            };
+        }
+
+        @Override
+        public int size() {
+            return to - from;
+        }
+    }
+}
@@ -0,0 +1,21 @@
+package edu.bath.transitivityutils;
+
+/**
+ * A transitive relation that can report its size and the compression of its labeling, and notify a listener
+ * of its expensive internal operations.
+ *
+ * @see Relations#statistics(TransitiveRelation)
+ * @see Relations#setListener(TransitiveRelation, RelationListener)
+ * @author Andreou Dimitris, email: jim.andreou (at) gmail.com
+ */
+interface MeasurableTransitiveRelation<E> extends TransitiveRelation<E> {
+    /**
+     * Returns a snapshot of the statistics of this relation.
+     */
+    RelationStatistics statistics();
+
+    /**
+     * Sets the listener to notify, or {@code null} to disable notifications.
+     */
+    void setListener(RelationListener listener);
+}
@@ -5,7 +5,9 @@ import com.google.common.base.Joiner;
 import com.google.common.base.Preconditions;
 import edu.bath.transitivityutils.OrderList.Node;
 import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Comparator;
+import java.util.Random;
 
 /**
  * An interval set that supports adding intervals and testing whether a node belongs in any of them.
@@ -16,16 +18,141 @@ final class MergingIntervalSet {
     private Node<?>[] array = new Node<?>[2];
     private int size = 0;
 
+    /*
+     * A lazily created copy of the tags of the nodes in array, so that queries can be answered
+     * by comparing primitives, without dereferencing any node. It is valid as long as its version
+     * equals the relabel count of the owning OrderList (it is discarded whenever array changes).
+     * Since mere queries refresh it, it is replaced as a whole rather than updated in place, and its
+     * fields are final: a thread that sees a copy also sees its tags, even if another thread created
+     * it, so that a relation can still be queried by several threads, as long as none modifies it.
+     */
+    private CachedTags tags;
+
+    private static final class CachedTags {
+        final long[] values;
+        final long version;
+
+        CachedTags(long[] values, long version) {
+            this.values = values;
+            this.version = version;
+        }
+    }
+
     MergingIntervalSet() { }
 
+    /**
+     * Creates an interval set from the first {@code size} boundaries of the specified array, which must already
+     * be a minimal and sorted sequence of pre/post pairs (as returned by {@link #get(int)}).
+     */
+    MergingIntervalSet(Node<?>[] boundaries, int size) {
+        Preconditions.checkArgument((size & 1) == 0, "Odd number of boundaries: %s", size);
+        int capacity = Integer.highestOneBit(Math.max(2, size));
+        if (capacity != Math.max(2, size)) capacity <<= 1;
+        this.array = new Node<?>[capacity];
+        System.arraycopy(boundaries, 0, array, 0, size);
+        this.size = size;
+    }
+
     int size() {
         return size;
     }
+
+    /**
+     * Returns the length of the internal array, i.e. the number of boundaries this set can hold without growing.
+     */
+    int capacity() {
+        return array.length;
+    }
+
+    /**
+     * Returns an estimate of the heap occupied by this set, including its arrays (see {@link RelationStatistics}).
+     */
+    long estimatedBytes() {
+        long bytes = RelationStatistics.INTERVAL_SET_BYTES + RelationStatistics.arrayBytes(4, array.length);
+        CachedTags tags = this.tags;
+        if (tags != null) {
+            bytes += RelationStatistics.CACHED_TAGS_BYTES + RelationStatistics.arrayBytes(8, tags.values.length);
+        }
+        return bytes;
+    }
+
+    /**
+     * Removes all intervals. The capacity of the set is retained.
+     */
+    void clear() {
+        Arrays.fill(array, 0, size, null);
+        size = 0;
+        tags = null;
+    }
+
+    /**
+     * Returns the interval boundary at the specified index; even indexes hold pre nodes, odd ones post nodes.
+     */
+    Node<?> get(int index) {
+        Preconditions.checkElementIndex(index, size);
+        return array[index];
+    }
     
-    void addIntervals(MergingIntervalSet other) {
-        for (int i = 0; i < other.size; i += 2) {
-            addInterval(other.array[i], other.array[i + 1]);
+    /**
+     * Adds all intervals of another interval set to this one (of course, the nodes of both interval sets must
+     * belong to the same instance of OrderList), in a single linear merge of the two sorted arrays.
+     *
+     * @return {@code true} if this interval set changed, {@code false} if it already contained all intervals
+     * of the other
+     */
+    boolean addIntervals(MergingIntervalSet other) {
+        if (containsAll(other)) {
+            return false;
+        }
+        //first pass only counts the merged size, so that the array is allocated exactly once
+        int newSize = merge(other, null);
+        int capacity = Integer.highestOneBit(newSize);
+        if (capacity != newSize) capacity <<= 1;
+        Node<?>[] newArray = new Node<?>[capacity];
+        merge(other, newArray);
+
+        array = newArray;
+        size = newSize;
+        tags = null;
+        return true;
+    }
+
+    /**
+     * Merges the intervals of this and the other set into the target array (if it is not null), coalescing
+     * overlapping intervals, and returns the size of the result.
+     */
+    private int merge(MergingIntervalSet other, Node<?>[] target) {
+        int i = 0;
+        int j = 0;
+        int count = 0;
+        long lastPostTag = Long.MIN_VALUE;
+        while (i < size || j < other.size) {
+            Node<?> pre;
+            Node<?> post;
+            if (j == other.size || (i < size && array[i].tag() <= other.array[j].tag())) {
+                pre = array[i];
+                post = array[i + 1];
+                i += 2;
+            } else {
+                pre = other.array[j];
+                post = other.array[j + 1];
+                j += 2;
+            }
+            if (count > 0 && pre.tag() <= lastPostTag) { //overlapping the last interval
+                if (post.tag() > lastPostTag) {
+                    if (target != null) target[count - 1] = post;
+                    lastPostTag = post.tag();
+                }
+            } else {
+                if (target != null) {
+                    target[count] = pre;
+                    target[count + 1] = post;
+                }
+                count += 2;
+                lastPostTag = post.tag();
+            }
         }
+        return count;
     }
 
     /**
@@ -40,8 +167,8 @@ final class MergingIntervalSet {
          *
          * where preA < postA < preB < postB < ...
          */
-        int preIndex = Arrays.binarySearch(array, 0, size, pre, NodeComparator.INSTANCE);
-        int postIndex = Arrays.binarySearch(array, 0, size, post, NodeComparator.INSTANCE);
+        int preIndex = MoreArrays.binarySearch(array, 0, size, pre, NodeComparator.INSTANCE);
+        int postIndex = MoreArrays.binarySearch(array, 0, size, post, NodeComparator.INSTANCE);
 
         //finding the insertion points, whether the pre/post were found or not
         if (preIndex < 0) preIndex = -preIndex - 1;
@@ -94,6 +221,7 @@ final class MergingIntervalSet {
             array = newArray;
             size = newSize;
         }
+        tags = null;
     }
 
 
@@ -102,6 +230,66 @@ final class MergingIntervalSet {
      */
     private static final int BINARY_SEARCH_CUTOFF_POINT = 8; //slightly conservative. 10 would be probably OK too
 
+    /**
+     * Size above which queries over the cached tags switch to the branch-free binary search. It starts out as
+     * BINARY_SEARCH_CUTOFF_POINT, and is replaced by the crossover measured on the running machine by
+     * {@link #calibrateTagCutoff()}. Not volatile: any value gives correct answers, and a stale one is only slower.
+     */
+    private static int tagCutoff = BINARY_SEARCH_CUTOFF_POINT;
+
+    private static final int MAX_CALIBRATED_CUTOFF = 512;
+    private static final int CALIBRATION_QUERIES = 1024;
+
+    /**
+     * Measures the size up to which a linear scan over cached tags beats the branch-free binary search on this
+     * machine, with random queries over synthetic interval sets of 4, 8, 16 ... boundaries, and makes it the cutoff
+     * of all interval sets. Takes a few milliseconds.
+     *
+     * @return the new cutoff
+     */
+    static int calibrateTagCutoff() {
+        Random random = new Random(0);
+        long[] queries = new long[CALIBRATION_QUERIES];
+        long[] tags = new long[MAX_CALIBRATED_CUTOFF];
+        for (int i = 0; i < tags.length; i++) {
+            tags[i] = 2L * i; //the odd numbers fall between boundaries
+        }
+        int cutoff = 2;
+        for (int size = 4; size <= tags.length; size *= 2) {
+            for (int i = 0; i < queries.length; i++) {
+                queries[i] = random.nextInt(2 * size + 1) - 1;
+            }
+            long linear = Long.MAX_VALUE;
+            long branchFree = Long.MAX_VALUE;
+            int hits = 0;
+            for (int repeat = 0; repeat < 20; repeat++) { //the first repeats just warm up the compiler
+                long start = System.nanoTime();
+                for (long query : queries) {
+                    if (linearScan(tags, size, query)) hits++;
+                }
+                long middle = System.nanoTime();
+                for (long query : queries) {
+                    if (branchFreeSearch(tags, size, query)) hits--;
+                }
+                long end = System.nanoTime();
+                linear = Math.min(linear, middle - start);
+                branchFree = Math.min(branchFree, end - middle);
+            }
+            Preconditions.checkState(hits == 0, "Search strategies disagree");
+            if (linear > branchFree) break;
+            cutoff = size;
+        }
+        tagCutoff = cutoff;
+        return cutoff;
+    }
+
+    /**
+     * Returns the current cutoff of queries over cached tags.
+     */
+    static int tagCutoff() {
+        return tagCutoff;
+    }
+
     /**
      * Tests whether a node is contained in any interval (or defines an interval boundary) of this interval set.
      */
@@ -134,11 +322,135 @@ final class MergingIntervalSet {
 
     @VisibleForTesting
     boolean contains_binarySearch(Node<?> node) {
-        int index = Arrays.binarySearch(array, 0, size, node, NodeComparator.INSTANCE);
+        int index = MoreArrays.binarySearch(array, 0, size, node, NodeComparator.INSTANCE);
         return index > 0 || //node exists as-is in the set
                 (index & 1) == 0; //node does not exist, but is inside an interval, not outside
     }
 
+    /**
+     * Tests whether a node lies between the start of the first interval and the end of the last interval of this
+     * set (inclusive). If not, the node is certainly not {@linkplain #contains(Node) contained} in the set. This
+     * reads just three tags, straight from the nodes, so it needs no cached tags, whatever the label version.
+     */
+    boolean spans(Node<?> node) {
+        if (size == 0) return false;
+        long tag = node.tag();
+        return array[0].tag() <= tag && tag <= array[size - 1].tag();
+    }
+
+    /**
+     * Tests whether a node is contained in any interval (or defines an interval boundary) of this interval set,
+     * by comparing node tags directly. The specified label version must be the current
+     * {@linkplain OrderList#relabelCount() relabel count} of the {@code OrderList} that owns the nodes; if
+     * it differs from the version the cached tags were read at, the tags are read again from the nodes.
+     */
+    boolean contains(Node<?> node, long labelVersion) {
+        long[] values = tags(labelVersion);
+        long tag = node.tag();
+        if (values.length <= tagCutoff) {
+            return linearScan(values, values.length, tag);
+        } else {
+            return branchFreeSearch(values, values.length, tag);
+        }
+    }
+
+    /**
+     * For every tag of the (ascending) sorted array that is contained in this interval set, sets the bit of its
+     * position. The label version is as in {@link #contains(Node, long)}. Many tags are tested with a single
+     * merge-style sweep of the intervals, and few tags with independent binary searches.
+     */
+    void markContainedTags(long[] sortedTags, int count, long labelVersion, BitSet hits) {
+        long[] tags = tags(labelVersion);
+        int size = tags.length;
+        if (size == 0) return;
+        if (count * 8 < size) {
+            for (int i = 0; i < count; i++) {
+                if (branchFreeSearch(tags, size, sortedTags[i])) {
+                    hits.set(i);
+                }
+            }
+            return;
+        }
+        int boundary = 0;
+        for (int i = 0; i < count; i++) {
+            long tag = sortedTags[i];
+            while (tags[boundary + 1] < tag) { //skip the intervals that end before the tag
+                boundary += 2;
+                if (boundary == size) return;
+            }
+            if (tags[boundary] <= tag) {
+                hits.set(i);
+            }
+        }
+    }
+
+    /**
+     * Returns the cached tags, first reading them again from the nodes if they are not of the specified label
+     * version. The returned array is never modified afterwards.
+     */
+    private long[] tags(long labelVersion) {
+        CachedTags tags = this.tags;
+        if (tags == null || tags.version != labelVersion) {
+            long[] values = new long[size];
+            for (int i = 0; i < values.length; i++) {
+                values[i] = array[i].tag();
+            }
+            tags = new CachedTags(values, labelVersion);
+            this.tags = tags;
+        }
+        return tags.values;
+    }
+
+    @VisibleForTesting
+    boolean containsTag_linearScan(long tag) {
+        return linearScan(tags.values, tags.values.length, tag);
+    }
+
+    private static boolean linearScan(long[] tags, int size, long tag) {
+        int i = 0;
+        while (i < size) {
+            if (tag < tags[i++]) {
+                return false;
+            }
+            if (tag <= tags[i++]) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * A binary search for the first tag that is not smaller than the specified one, where every step picks the next
+     * range with a conditional move instead of a branch. Since the comparisons of random queries are as likely to go
+     * either way, an ordinary binary search mispredicts about half of its branches, each costing more than a whole
+     * step of this one; here the cost depends only on the size, so the search is considerably faster on large sets.
+     */
+    @VisibleForTesting
+    boolean containsTag_branchFree(long tag) {
+        return branchFreeSearch(tags.values, tags.values.length, tag);
+    }
+
+    private static boolean branchFreeSearch(long[] tags, int size, long tag) {
+        if (size == 0) return false;
+        int base = 0;
+        int n = size;
+        while (n > 1) {
+            int half = n >>> 1;
+            base = tags[base + half - 1] < tag ? base + half : base;
+            n -= half;
+        }
+        //base is now the first index whose tag is not smaller, or size - 1
+        long found = tags[base];
+        return found == tag || ((base + (found < tag ? 1 : 0)) & 1) != 0;
+    }
+
+    @VisibleForTesting
+    boolean containsTag_binarySearch(long tag) {
+        int index = Arrays.binarySearch(tags.values, tag);
+        return index >= 0 || //tag exists as-is in the set
+                (index & 1) == 0; //tag does not exist, but is inside an interval, not outside
+    }
+
     /**
      * Tests whether this interval set contains every interval of another interval set (of course, the
      * nodes of both interval sets must belong to the same instance of OrderList).
@@ -0,0 +1,101 @@
+package edu.bath.transitivityutils;
+
+import java.lang.reflect.Array;
+import java.util.Comparator;
+
+/**
+ * The array copies and ranged binary searches of {@link java.util.Arrays} that only appeared in Java 6, for the
+ * Java 5 platform this library targets. Each behaves exactly as its namesake in {@code java.util.Arrays}, except
+ * that the arguments are not checked.
+ *
+ * @author Andreou Dimitris, email: jim.andreou (at) gmail.com
+ */
+final class MoreArrays {
+    private MoreArrays() { }
+
+    static byte[] copyOf(byte[] original, int newLength) {
+        byte[] copy = new byte[newLength];
+        System.arraycopy(original, 0, copy, 0, Math.min(original.length, newLength));
+        return copy;
+    }
+
+    static int[] copyOf(int[] original, int newLength) {
+        int[] copy = new int[newLength];
+        System.arraycopy(original, 0, copy, 0, Math.min(original.length, newLength));
+        return copy;
+    }
+
+    static <T> T[] copyOf(T[] original, int newLength) {
+        T[] copy = newArray(original, newLength);
+        System.arraycopy(original, 0, copy, 0, Math.min(original.length, newLength));
+        return copy;
+    }
+
+    static int[] copyOfRange(int[] original, int from, int to) {
+        int[] copy = new int[to - from];
+        System.arraycopy(original, from, copy, 0, Math.min(original.length - from, to - from));
+        return copy;
+    }
+
+    static <T> T[] copyOfRange(T[] original, int from, int to) {
+        T[] copy = newArray(original, to - from);
+        System.arraycopy(original, from, copy, 0, Math.min(original.length - from, to - from));
+        return copy;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T[] newArray(T[] prototype, int length) {
+        return (T[])Array.newInstance(prototype.getClass().getComponentType(), length);
+    }
+
+    static int binarySearch(int[] a, int from, int to, int key) {
+        int low = from;
+        int high = to - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int value = a[mid];
+            if (value < key) {
+                low = mid + 1;
+            } else if (value > key) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -(low + 1);
+    }
+
+    static int binarySearch(long[] a, int from, int to, long key) {
+        int low = from;
+        int high = to - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            long value = a[mid];
+            if (value < key) {
+                low = mid + 1;
+            } else if (value > key) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -(low + 1);
+    }
+
+    static <T> int binarySearch(T[] a, int from, int to, T key, Comparator<? super T> comparator) {
+        int low = from;
+        int high = to - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int comparison = comparator.compare(a[mid], key);
+            if (comparison < 0) {
+                low = mid + 1;
+            } else if (comparison > 0) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -(low + 1);
+    }
+}
@@ -0,0 +1,173 @@
+package edu.bath.transitivityutils;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * The order-maintenance list of {@link OrderList}, with the same relabeling algorithm, but whose nodes are
+ * plain int ids, and whose links and tags are stored in {@link DirectMemory}, outside the heap. Node ids are
+ * assigned in order of creation, starting from 1; the base node has id {@link #BASE}. Nodes cannot be deleted.
+ *
+ * @author Andreou Dimitris, email: jim.andreou (at) gmail.com
+ */
+final class OffHeapOrderList {
+    static final int BASE = 0;
+
+    //every node takes 16 bytes: its tag (long), then its previous and next nodes (ints)
+    private static final int NODE_BYTES = 16;
+
+    private final DirectMemory memory;
+    private int size = 0;
+    private long relabelCount = 0L;
+
+    OffHeapOrderList(int chunkBits) {
+        this.memory = new DirectMemory(chunkBits);
+        memory.ensureCapacity(NODE_BYTES);
+        setTag(BASE, Long.MIN_VALUE);
+        setPrevious(BASE, BASE);
+        setNext(BASE, BASE);
+    }
+
+    /**
+     * Returns the number of nodes, not counting the base.
+     */
+    int size() {
+        return size;
+    }
+
+    long relabelCount() {
+        return relabelCount;
+    }
+
+    /**
+     * Returns the number of bytes of memory reserved by this list.
+     */
+    long reservedBytes() {
+        return memory.capacity();
+    }
+
+    long tag(int node) {
+        return memory.getLong((long)node * NODE_BYTES);
+    }
+
+    int previous(int node) {
+        return memory.getInt((long)node * NODE_BYTES + 8);
+    }
+
+    int next(int node) {
+        return memory.getInt((long)node * NODE_BYTES + 12);
+    }
+
+    private void setTag(int node, long tag) {
+        memory.putLong((long)node * NODE_BYTES, tag);
+    }
+
+    private void setPrevious(int node, int previous) {
+        memory.putInt((long)node * NODE_BYTES + 8, previous);
+    }
+
+    private void setNext(int node, int next) {
+        memory.putInt((long)node * NODE_BYTES + 12, next);
+    }
+
+    /**
+     * Adds a new node immediately after the specified one, and returns its id (which is always {@code size()}
+     * before the addition, plus one).
+     */
+    int addAfter(int n) {
+        Preconditions.checkState(size != Integer.MAX_VALUE - 1, "Too many elements");
+        int node = size + 1;
+        memory.ensureCapacity((long)(node + 1) * NODE_BYTES);
+
+        //see OrderList#link(Node, Node)
+        final long newTag;
+        if (next(n) == n) {
+            newTag = 0L;
+        } else {
+            if (tag(n) + 1 == tag(next(n))) {
+                relabelMinimumSparseEnclosingRange(n);
+            }
+            if (next(n) == BASE) {
+                if (tag(n) != Long.MAX_VALUE - 1) {
+                    newTag = average(tag(n), Long.MAX_VALUE);
+                } else {
+                    newTag = Long.MAX_VALUE;
+                }
+            } else {
+                newTag = average(tag(n), tag(next(n)));
+            }
+        }
+        int next = next(n);
+        setTag(node, newTag);
+        setPrevious(node, n);
+        setNext(node, next);
+        setNext(n, node);
+        setPrevious(next, node);
+        size++;
+        return node;
+    }
+
+    private static long average(long x, long y) {
+        return (x & y) + (x ^ y) / 2;
+    }
+
+    private static final double _2_to_62 = Math.pow(2, 62);
+
+    //see OrderList#relabelMinimumSparseEnclosingRange(Node)
+    private void relabelMinimumSparseEnclosingRange(int n) {
+        final double T = Math.pow(_2_to_62 / size, 1.0 / 62);
+        final long tag = tag(n);
+
+        double elementCount = 1.0;
+        int left = n;
+        int right = n;
+        long low = tag;
+        long high = tag;
+
+        int level = 0;
+        double overflowThreshold = 1.0;
+        long range = 1;
+        do {
+            long toggleBit = 1L << level++;
+            overflowThreshold /= T;
+            range <<= 1;
+
+            boolean expandToLeft = (tag & toggleBit) != 0L;
+            if (expandToLeft) {
+                low ^= toggleBit;
+                while (tag(left) > low) {
+                    left = previous(left);
+                    elementCount++;
+                }
+            } else {
+                high ^= toggleBit;
+                while (tag(right) < high && tag(next(right)) > tag(right)) {
+                    right = next(right);
+                    elementCount++;
+                }
+            }
+        } while (elementCount >= (range * overflowThreshold) && level < 62);
+        relabelCount++;
+        int count = (int)elementCount;
+
+        long pos = low;
+        long step = range / count;
+        int cursor = left;
+        if (step > 1) {
+            for (int i = 0; i < count; i++) {
+                setTag(cursor, pos);
+                pos += step;
+                cursor = next(cursor);
+            }
+        } else {
+            long slack = range - count;
+            for (int i = 0; i < count; i++) {
+                setTag(cursor, pos);
+                pos++;
+                if (n == cursor) {
+                    pos += slack;
+                }
+                cursor = next(cursor);
+            }
+        }
+    }
+}
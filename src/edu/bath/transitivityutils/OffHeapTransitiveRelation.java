@@ -0,0 +1,509 @@
+package edu.bath.transitivityutils;
+
+import com.google.common.base.Objects;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import java.util.AbstractSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * A (transitive, reflexive) binary relation that keeps its labeling outside the heap, so that the heap it
+ * occupies (and the work it causes to the garbage collector) does not grow with the number of intervals.
+ *
+ * <p>This follows the labeling scheme of {@link DefaultIntTransitiveRelation}. Each element is assigned a dense id
+ * when it is first related, and only the mapping between elements and ids lives on the heap. Everything else is
+ * kept in {@link DirectMemory}:
+ * <ul>
+ * <li>the order list of the labels ({@link OffHeapOrderList}), where the pre and post nodes of the element with
+ * id {@code k} are the nodes {@code 2k + 1} and {@code 2k + 2} (they are always created together, in this order)</li>
+ * <li>a fixed-size record per element: its interval set and its direct successors (both blocks of an
+ * {@link IntBlockPool}), its visit epoch, and whether it is enclosable</li>
+ * <li>the interval sets themselves, as sorted sequences of the ids of their boundary nodes, and the lists of the
+ * ids of the direct successors</li>
+ * </ul>
+ *
+ * <p>Queries compare tags read straight from the order list. This relation is not thread-safe. The memory is
+ * released when the relation is garbage collected.
+ *
+ * @author Andreou Dimitris, email: jim.andreou (at) gmail.com
+ */
+final class OffHeapTransitiveRelation<E> implements EnumerableTransitiveRelation<E> {
+    /**
+     * Memory is allocated in chunks of 2^24 bytes (16MB), which also limits the intervals of an element to
+     * about two million.
+     */
+    static final int DEFAULT_CHUNK_BITS = 24;
+
+    //every element record takes 24 bytes: intervals and successors (longs), visit epoch and flags (ints)
+    private static final int RECORD_BYTES = 24;
+    private static final int ENCLOSABLE = 1;
+
+    /**
+     * Size (in boundaries) of an interval set above which we switch to binary search.
+     */
+    private static final int BINARY_SEARCH_CUTOFF_POINT = 8;
+
+    private final Map<E, Integer> ids = Maps.newHashMap();
+    private final List<E> elements = Lists.newArrayList();
+
+    private final OffHeapOrderList order;
+    private final DirectMemory records;
+    private final IntBlockPool pool;
+
+    private int[] toVisit = new int[16];
+    private int visitEpoch;
+    private int domainSize;
+
+    private final Navigator<E> navigator = new DirectNavigator();
+
+    OffHeapTransitiveRelation() {
+        this(DEFAULT_CHUNK_BITS);
+    }
+
+    OffHeapTransitiveRelation(int chunkBits) {
+        this.order = new OffHeapOrderList(chunkBits);
+        this.records = new DirectMemory(chunkBits);
+        this.pool = new IntBlockPool(chunkBits);
+    }
+
+    public void relate(E subjectValue, E objectValue) {
+        if (Objects.equal(subjectValue, objectValue)) {
+            return;
+        }
+        Integer subjectId = ids.get(subjectValue);
+        Integer objectId = ids.get(objectValue);
+        int subject;
+        int object;
+        if (subjectId == null) {
+            if (objectId == null) {
+                subject = create(subjectValue, order.previous(OffHeapOrderList.BASE), true);
+                object = createEnclosing(subject, objectValue);
+            } else {
+                object = objectId;
+                subject = create(subjectValue, order.previous(post(object)), false);
+            }
+        } else {
+            subject = subjectId;
+            if (objectId == null && isEnclosable(subject)) {
+                object = createEnclosing(subject, objectValue);
+            } else {
+                object = objectId != null ? objectId
+                        : create(objectValue, order.previous(OffHeapOrderList.BASE), true);
+                propagate(subject, object);
+            }
+        }
+        addSuccessor(subject, object);
+    }
+
+    private static int pre(int id) {
+        return 2 * id + 1;
+    }
+
+    private static int post(int id) {
+        return 2 * id + 2;
+    }
+
+    /**
+     * Creates an element whose pre and post nodes are adjacent, right after the specified node.
+     */
+    private int create(E value, int after, boolean enclosable) {
+        int id = elements.size();
+        int pre = order.addAfter(after);
+        int post = order.addAfter(pre);
+        assert pre == pre(id) && post == post(id);
+        register(value, id, enclosable);
+        return id;
+    }
+
+    //see DefaultTransitiveRelation.Node#createEnclosing
+    private int createEnclosing(int enclosed, E value) {
+        int id = elements.size();
+        int pre = order.addAfter(order.previous(pre(enclosed)));
+        int post = order.addAfter(post(enclosed));
+        assert pre == pre(id) && post == post(id);
+        setFlags(enclosed, 0);
+        register(value, id, true);
+        return id;
+    }
+
+    private void register(E value, int id, boolean enclosable) {
+        records.ensureCapacity((long)(id + 1) * RECORD_BYTES);
+        long intervals = pool.allocate(2);
+        pool.set(intervals, 0, pre(id));
+        pool.set(intervals, 1, post(id));
+        pool.setSize(intervals, 2);
+        setIntervals(id, intervals);
+        setSuccessors(id, 0L);
+        setVisitEpoch(id, 0);
+        setFlags(id, enclosable ? ENCLOSABLE : 0);
+        ids.put(value, id);
+        elements.add(value);
+    }
+
+    private long intervals(int id) {
+        return records.getLong((long)id * RECORD_BYTES);
+    }
+
+    private void setIntervals(int id, long block) {
+        records.putLong((long)id * RECORD_BYTES, block);
+    }
+
+    private long successors(int id) {
+        return records.getLong((long)id * RECORD_BYTES + 8);
+    }
+
+    private void setSuccessors(int id, long block) {
+        records.putLong((long)id * RECORD_BYTES + 8, block);
+    }
+
+    private int visitEpoch(int id) {
+        return records.getInt((long)id * RECORD_BYTES + 16);
+    }
+
+    private void setVisitEpoch(int id, int epoch) {
+        records.putInt((long)id * RECORD_BYTES + 16, epoch);
+    }
+
+    private void setFlags(int id, int flags) {
+        records.putInt((long)id * RECORD_BYTES + 20, flags);
+    }
+
+    //see DefaultTransitiveRelation.Node#isEnclosable()
+    private boolean isEnclosable(int id) {
+        if ((records.getInt((long)id * RECORD_BYTES + 20) & ENCLOSABLE) == 0) return false;
+        if (pool.size(intervals(id)) != 2) {
+            setFlags(id, 0);
+            return false;
+        }
+        return true;
+    }
+
+    private int successorCount(int id) {
+        long block = successors(id);
+        return block == 0L ? 0 : pool.size(block);
+    }
+
+    private void addSuccessor(int subject, int object) {
+        long block = successors(subject);
+        int count = 0;
+        if (block == 0L) {
+            block = pool.allocate(2);
+            setSuccessors(subject, block);
+            domainSize++;
+        } else {
+            count = pool.size(block);
+            for (int i = 0; i < count; i++) {
+                if (pool.get(block, i) == object) return;
+            }
+            if (count == pool.capacity(block)) {
+                long grown = pool.allocate(count * 2);
+                for (int i = 0; i < count; i++) {
+                    pool.set(grown, i, pool.get(block, i));
+                }
+                pool.free(block);
+                block = grown;
+                setSuccessors(subject, block);
+            }
+        }
+        pool.set(block, count, object);
+        pool.setSize(block, count + 1);
+    }
+
+    //see DefaultIntTransitiveRelation#propagate(int, int)
+    private void propagate(int subject, int object) {
+        int epoch = nextVisitEpoch();
+        long subjectIntervals = intervals(subject);
+        int top = 0;
+        toVisit[top++] = object;
+        setVisitEpoch(object, epoch);
+        while (top > 0) {
+            int current = toVisit[--top];
+            if (addIntervals(current, subjectIntervals)) { //this gracefully handles cycles
+                long next = successors(current);
+                int count = successorCount(current);
+                if (top + count > toVisit.length) {
+                    toVisit = MoreArrays.copyOf(toVisit, Math.max(toVisit.length * 2, top + count));
+                }
+                for (int i = 0; i < count; i++) {
+                    int successor = pool.get(next, i);
+                    if (visitEpoch(successor) != epoch) {
+                        setVisitEpoch(successor, epoch);
+                        toVisit[top++] = successor;
+                    }
+                }
+            }
+        }
+    }
+
+    private int nextVisitEpoch() {
+        if (++visitEpoch == 0) { //wrapped around
+            for (int id = 0; id < elements.size(); id++) {
+                setVisitEpoch(id, 0);
+            }
+            visitEpoch = 1;
+        }
+        return visitEpoch;
+    }
+
+    /**
+     * Adds the intervals of the source block to the interval set of the element, replacing its block.
+     *
+     * @return whether the interval set changed
+     */
+    private boolean addIntervals(int id, long source) {
+        long target = intervals(id);
+        if (containsAll(target, source)) {
+            return false;
+        }
+        int newSize = merge(target, source, 0L);
+        long merged = pool.allocate(newSize);
+        merge(target, source, merged);
+        pool.setSize(merged, newSize);
+        pool.free(target);
+        setIntervals(id, merged);
+        return true;
+    }
+
+    /**
+     * Tests whether every interval of the source lies within an interval of the target.
+     */
+    private boolean containsAll(long target, long source) {
+        int targetSize = pool.size(target);
+        int sourceSize = pool.size(source);
+        int i = 0;
+        for (int j = 0; j < sourceSize; j += 2) {
+            long pre = order.tag(pool.get(source, j));
+            while (i < targetSize && order.tag(pool.get(target, i + 1)) < pre) {
+                i += 2;
+            }
+            if (i == targetSize || order.tag(pool.get(target, i)) > pre
+                    || order.tag(pool.get(target, i + 1)) < order.tag(pool.get(source, j + 1))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    //see MergingIntervalSet#merge(MergingIntervalSet, Node[])
+    private int merge(long first, long second, long result) {
+        int firstSize = pool.size(first);
+        int secondSize = pool.size(second);
+        int i = 0;
+        int j = 0;
+        int count = 0;
+        long lastPostTag = Long.MIN_VALUE;
+        while (i < firstSize || j < secondSize) {
+            int pre;
+            int post;
+            if (j == secondSize || (i < firstSize
+                    && order.tag(pool.get(first, i)) <= order.tag(pool.get(second, j)))) {
+                pre = pool.get(first, i);
+                post = pool.get(first, i + 1);
+                i += 2;
+            } else {
+                pre = pool.get(second, j);
+                post = pool.get(second, j + 1);
+                j += 2;
+            }
+            long postTag = order.tag(post);
+            if (count > 0 && order.tag(pre) <= lastPostTag) { //overlapping the last interval
+                if (postTag > lastPostTag) {
+                    if (result != 0L) pool.set(result, count - 1, post);
+                    lastPostTag = postTag;
+                }
+            } else {
+                if (result != 0L) {
+                    pool.set(result, count, pre);
+                    pool.set(result, count + 1, post);
+                }
+                count += 2;
+                lastPostTag = postTag;
+            }
+        }
+        return count;
+    }
+
+    public boolean areRelated(E subjectValue, E objectValue) {
+        if (Objects.equal(subjectValue, objectValue)) return true;
+
+        Integer subject = ids.get(subjectValue);
+        if (subject == null) return false;
+
+        Integer object = ids.get(objectValue);
+        if (object == null) return false;
+
+        return contains(intervals(object), order.tag(pre(subject)));
+    }
+
+    private boolean contains(long block, long tag) {
+        int size = pool.size(block);
+        if (size <= BINARY_SEARCH_CUTOFF_POINT) {
+            for (int i = 0; i < size; i += 2) {
+                if (tag < order.tag(pool.get(block, i))) return false;
+                if (tag <= order.tag(pool.get(block, i + 1))) return true;
+            }
+            return false;
+        }
+        //find the number of boundaries whose tags are less than or equal to the tag
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            long boundary = order.tag(pool.get(block, mid));
+            if (boundary == tag) return true;
+            if (boundary < tag) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return (low & 1) != 0; //the tag falls between a pre and a post
+    }
+
+    /**
+     * Walks the order list ranges of the intervals of the object. Pre nodes have odd ids.
+     */
+    public void collectDescendants(E objectValue, Collection<? super E> collection) {
+        Integer object = ids.get(objectValue);
+        if (object == null) return;
+
+        long block = intervals(object);
+        for (int i = 0; i < pool.size(block); i += 2) {
+            int end = pool.get(block, i + 1);
+            for (int node = pool.get(block, i); ; node = order.next(node)) {
+                if ((node & 1) != 0) {
+                    collection.add(elements.get(node >>> 1));
+                }
+                if (node == end) break;
+            }
+        }
+    }
+
+    public int countDescendants(E objectValue) {
+        Integer object = ids.get(objectValue);
+        if (object == null) return 0;
+
+        long block = intervals(object);
+        int nodes = 0;
+        for (int i = 0; i < pool.size(block); i += 2) {
+            int end = pool.get(block, i + 1);
+            for (int node = pool.get(block, i); node != end; node = order.next(node)) {
+                nodes++;
+            }
+            nodes++;
+        }
+        return nodes / 2;
+    }
+
+    public Navigator<E> direct() {
+        return navigator;
+    }
+
+    /**
+     * Returns the number of bytes reserved outside the heap.
+     */
+    long reservedBytes() {
+        return order.reservedBytes() + records.capacity() + pool.reservedBytes();
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("{");
+        for (int id = 0; id < elements.size(); id++) {
+            if (id > 0) sb.append(", ");
+            sb.append(elements.get(id)).append("=[");
+            long block = intervals(id);
+            for (int i = 0; i < pool.size(block); i++) {
+                if (i > 0) sb.append(", ");
+                sb.append(pool.get(block, i));
+            }
+            sb.append("]");
+        }
+        return sb.append("}").toString();
+    }
+
+    private class DirectNavigator implements Navigator<E> {
+        public Set<E> related(E subjectValue) {
+            Integer subject = ids.get(subjectValue);
+            if (subject == null || successorCount(subject) == 0) {
+                return Collections.emptySet();
+            }
+            final long block = successors(subject);
+            return new AbstractSet<E>() {
+                @Override
+                public Iterator<E> iterator() {
+                    return new Iterator<E>() {
+                        int index;
+
+                        public boolean hasNext() {
+                            return index < pool.size(block);
+                        }
+
+                        public E next() {
+                            if (!hasNext()) throw new NoSuchElementException();
+                            return elements.get(pool.get(block, index++));
+                        }
+
+                        public void remove() {
+                            throw new UnsupportedOperationException();
+                        }
+                    };
+                }
+
+                @Override
+                public int size() {
+                    return pool.size(block);
+                }
+            };
+        }
+
+        public Set<E> domain() {
+            return new AbstractSet<E>() {
+                @Override
+                public Iterator<E> iterator() {
+                    return new Iterator<E>() {
+                        int next = advance(0);
+
+                        int advance(int id) {
+                            while (id < elements.size() && successorCount(id) == 0) id++;
+                            return id;
+                        }
+
+                        public boolean hasNext() {
+                            return next < elements.size();
+                        }
+
+                        public E next() {
+                            if (!hasNext()) throw new NoSuchElementException();
+                            E value = elements.get(next);
+                            next = advance(next + 1);
+                            return value;
+                        }
+
+                        public void remove() {
+                            throw new UnsupportedOperationException();
+                        }
+                    };
+                }
+
+                @Override
+                public boolean contains(Object o) {
+                    Integer id = ids.get(o);
+                    return id != null && successorCount(id) != 0;
+                }
+
+                @Override
+                public int size() {
+                    return domainSize;
+                }
+            };
+        }
+    }
+}
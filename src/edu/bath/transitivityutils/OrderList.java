@@ -3,7 +3,9 @@ package edu.bath.transitivityutils;
 import com.google.common.base.Joiner;
 import com.google.common.base.Preconditions;
 import java.io.Serializable;
+import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.List;
 import java.util.NoSuchElementException;
 
 /**
@@ -24,6 +26,14 @@ import java.util.NoSuchElementException;
  * to a method of a different {@code OrderList} instance. For memory usage considerations, {@code Node}
  * instances do not remember the {@code OrderList} instance that owns them, so application code must be careful
  * not to use an {@code OrderList} with nodes that does not belong to it.
+ *
+ * <p>A list created by {@link #createTwoLevel()} groups its nodes into <em>buckets</em> of consecutive nodes (the
+ * two-level variant of the structure, also described by Bender et al.). The high bits of the tag of a node are the
+ * tag of its bucket, maintained by the same kind of relabeling over the (much fewer) buckets, and the low bits are
+ * its tag within the bucket. A full bucket is split in two, and a crowded one is relabeled as a whole; both take
+ * time proportional to the bucket size only, so insertions take constant amortized time, and no relabeling ever
+ * touches more than a bucket's worth of nodes, plus a range of buckets. Computing the tag of a node takes an extra
+ * dereference (of its bucket), and relabelings are more frequent (though much smaller).
  * 
  * @author Andreou Dimitris, email: jim.andreou (at) gmail.com
  * @see <a href="http://portal.acm.org/citation.cfm?id=740822">Two Simplified Algorithms for Maintaining Order in a List (Bender et al., 2002)</a>
@@ -35,6 +45,14 @@ public final class OrderList<E> implements Iterable<OrderList.Node<E>>, Serializ
 
     private transient Node<E> base;
     private transient int size = 0;
+    private transient long relabelCount = 0L;
+
+    //notified of relabelings, if not null
+    private transient RelationListener listener;
+
+    //the sentinel of the circular list of buckets, if this is a two-level list (not preserved by serialization)
+    private transient Bucket bucketHead;
+    private transient int bucketCount = 0; //the number of buckets, maintained so that relabelings need not count them
     
     private static final long serialVersionUID = -6060298699521132512L;
 
@@ -61,6 +79,24 @@ public final class OrderList<E> implements Iterable<OrderList.Node<E>>, Serializ
         return new OrderList<E>();
     }
 
+    /**
+     * Creates a new, empty, two-level {@code OrderList}, where insertions take constant amortized time (see above).
+     * A deserialized copy of such a list is not two-level.
+     */
+    public static <E> OrderList<E> createTwoLevel() {
+        OrderList<E> list = new OrderList<E>();
+        list.bucketHead = new Bucket();
+        list.bucketHead.tag = -1L;
+        return list;
+    }
+
+    /**
+     * Returns whether this list was created by {@link #createTwoLevel()}.
+     */
+    boolean isTwoLevel() {
+        return bucketHead != null;
+    }
+
     /**
      * Returns the base (sentinel) node, which precedes any other node in this list. 
      * The base can be used to add nodes at the start of this list, i.e. by {@code list.addAfter(list.base(), newElement)}.
@@ -88,6 +124,9 @@ public final class OrderList<E> implements Iterable<OrderList.Node<E>>, Serializ
         Node<E> n = (Node<E>)node;
         if (!n.isValid()) return false;
         if (node == base) return false;
+        if (bucketHead != null) {
+            leaveBucket((BucketNode<E>)n);
+        }
         n.prev.next = n.next;
         n.next.prev = n.prev;
         n.prev = n.next = null;
@@ -121,6 +160,20 @@ public final class OrderList<E> implements Iterable<OrderList.Node<E>>, Serializ
         Preconditions.checkState(n.isValid(), "Node has been deleted");
         Preconditions.checkState(size != Integer.MAX_VALUE, "Too many elements"); //just for good conscience; never going to happen
 
+        Node<E> newNode = bucketHead == null ? new Node<E>(value, 0L) : new BucketNode<E>(value);
+        link(n, newNode);
+        size++;
+        return newNode;
+    }
+
+    /**
+     * Links a node (which is not part of the list) immediately after another, and assigns it a tag.
+     */
+    private void link(Node<E> n, Node<E> newNode) {
+        if (bucketHead != null) {
+            linkTwoLevel(n, (BucketNode<E>)newNode);
+            return;
+        }
         final long newTag;
         if (n.next == n) { //then this node is the base (with tag of Long.MIN_VALUE) and we insert the first real node
             newTag = 0L;
@@ -138,14 +191,149 @@ public final class OrderList<E> implements Iterable<OrderList.Node<E>>, Serializ
                 newTag = average(n.tag, n.next.tag);
             }
         }
-        Node<E> newNode = new Node<E>(value, newTag);
+        newNode.tag = newTag;
         newNode.prev = n;
         newNode.next = n.next;
 
         n.next = newNode;
         newNode.next.prev = newNode;
-        size++;
-        return newNode;
+    }
+
+    /**
+     * Moves the nodes from {@code first} to {@code last} (inclusive), which must be a range of this list,
+     * to the end of the list, keeping their order. The moved nodes are assigned new tags, so this counts as a
+     * relabeling (see {@link #relabelCount()}).
+     */
+    void moveToEnd(OrderList.Node<E> first, OrderList.Node<E> last) {
+        Node<E> from = (Node<E>)first;
+        Node<E> to = (Node<E>)last;
+        Preconditions.checkState(from.isValid() && to.isValid(), "Node has been deleted");
+        if (to.next == base) return; //already there
+
+        long start = listener == null ? 0L : System.nanoTime();
+        if (bucketHead != null) {
+            for (Node<E> cursor = from; ; cursor = cursor.next) {
+                leaveBucket((BucketNode<E>)cursor);
+                if (cursor == to) break;
+            }
+        }
+        from.prev.next = to.next;
+        to.next.prev = from.prev;
+        Node<E> cursor = from;
+        int moved = 0;
+        while (true) {
+            Node<E> next = cursor.next;
+            link(base.prev, cursor);
+            moved++;
+            if (cursor == to) break;
+            cursor = next;
+        }
+        relabelCount++;
+        if (listener != null) {
+            listener.relabeled(moved, System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Moves all nodes of another list, which must be of the same kind (one-level or two-level), to the end of this
+     * list, keeping their order. The other list is left empty. The moved nodes are assigned new tags, and the
+     * relabel count of this list is raised above that of both lists, so that tags cached against either of them are
+     * recognized as stale (see {@link #relabelCount()}).
+     */
+    void appendAll(OrderList<E> other) {
+        Preconditions.checkArgument(other != this, "Cannot append a list to itself");
+        Preconditions.checkArgument(isTwoLevel() == other.isTwoLevel(), "Lists of different kinds");
+        int count = other.size;
+        if (count == 0) return;
+
+        long start = listener == null ? 0L : System.nanoTime();
+        Node<E> first = other.base.next;
+        Node<E> last = other.base.prev;
+        other.base.next = other.base;
+        other.base.prev = other.base;
+        other.size = 0;
+        if (other.bucketHead != null) {
+            //the moved nodes join buckets of this list
+            other.bucketHead.next = other.bucketHead;
+            other.bucketHead.prev = other.bucketHead;
+            other.bucketCount = 0;
+        }
+
+        //in a one-level list, if the tags after the last node suffice, space the moved nodes evenly among them
+        long lastTag = base.prev.tag;
+        long step = (lastTag >= 0L ? Long.MAX_VALUE - lastTag : Long.MAX_VALUE) / (count + 1L);
+        if (bucketHead == null && step >= 1L) {
+            first.prev = base.prev;
+            base.prev.next = first;
+            last.next = base;
+            base.prev = last;
+            long tag = lastTag;
+            for (Node<E> cursor = first; ; cursor = cursor.next) {
+                tag += step;
+                cursor.tag = tag;
+                if (cursor == last) break;
+            }
+        } else {
+            for (Node<E> cursor = first; ; ) {
+                Node<E> next = cursor.next;
+                link(base.prev, cursor);
+                if (cursor == last) break;
+                cursor = next;
+            }
+        }
+        size += count;
+        relabelCount = Math.max(relabelCount, other.relabelCount) + 1;
+        if (listener != null) {
+            listener.relabeled(count, System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Sets the listener to notify of relabelings, or {@code null} for none.
+     */
+    void setListener(RelationListener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Returns the number of times that a range of this list has been relabeled. Node tags
+     * change only during a relabeling, so tags that were read while this count stays the same
+     * are still valid and can be compared directly, without going through {@link Node#precedes(OrderList.Node)}.
+     */
+    long relabelCount() {
+        return relabelCount;
+    }
+
+    /**
+     * Appends the specified number of nodes (with {@code null} values) to this list, which must be empty, spacing
+     * their tags evenly, so that no relabeling is needed either now or for a while after. This is useful for
+     * recreating a list of known size in linear time.
+     *
+     * @param count the number of nodes to append
+     * @return the new nodes, in list order
+     * @throws IllegalStateException if this list is not empty
+     */
+    List<Node<E>> appendEvenlySpaced(int count) {
+        Preconditions.checkState(size == 0, "List is not empty");
+        Preconditions.checkArgument(count >= 0, "Negative count: %s", count);
+        if (bucketHead != null) {
+            return appendEvenlySpacedTwoLevel(count);
+        }
+        List<Node<E>> nodes = new ArrayList<Node<E>>(count);
+        //spread over the whole range of tags, after the base; the multiplication may wrap around, harmlessly
+        long step = Long.MAX_VALUE / (count + 1L) * 2;
+        Node<E> last = base;
+        for (int i = 0; i < count; i++) {
+            Node<E> newNode = new Node<E>(null, Long.MIN_VALUE + (i + 1) * step);
+            newNode.prev = last;
+            newNode.next = base;
+            last.next = newNode;
+            base.prev = newNode;
+            last = newNode;
+            nodes.add(newNode);
+        }
+        size = count;
+        return nodes;
     }
 
     private static long average(long x, long y) {
@@ -162,6 +350,7 @@ public final class OrderList<E> implements Iterable<OrderList.Node<E>>, Serializ
     }
 
     private void relabelMinimumSparseEnclosingRange(Node<E> n) {
+        long start = listener == null ? 0L : System.nanoTime();
         final double T = computeOptimalT();
 
         double elementCount = 1.0;
@@ -194,6 +383,7 @@ public final class OrderList<E> implements Iterable<OrderList.Node<E>>, Serializ
                 }
             }
         } while (elementCount >= (range * overflowThreshold) && level < 62);
+        relabelCount++;
         int count = (int)elementCount; //elementCount always fits into an int, size() is an int too
 
         //note that the base itself can be relabeled, but always gets the same label! (Long.MIN_VALUE)
@@ -219,6 +409,236 @@ public final class OrderList<E> implements Iterable<OrderList.Node<E>>, Serializ
             }
         }
         assert n.tag + 1 != n.next.tag;
+        if (listener != null) {
+            listener.relabeled(count, System.nanoTime() - start);
+        }
+    }
+
+    /*
+     * Two-level lists. A node's tag is (bucket tag << LOCAL_BITS) | local tag. Bucket tags are non-negative and less
+     * than 2^BUCKET_BITS, so all tags are non-negative, and the tag of the base (Long.MIN_VALUE) precedes them all.
+     */
+    private static final int LOCAL_BITS = 32;
+    private static final int BUCKET_BITS = 63 - LOCAL_BITS;
+    private static final long LOCAL_RANGE = 1L << LOCAL_BITS;
+    private static final long BUCKET_RANGE = 1L << BUCKET_BITS;
+    private static final int MAX_BUCKET_SIZE = 64;
+
+    /**
+     * A run of consecutive nodes of a two-level list.
+     */
+    private static final class Bucket {
+        long tag;
+        Bucket prev = this;
+        Bucket next = this;
+        BucketNode<?> first;
+        int size;
+    }
+
+    private static final class BucketNode<E> extends Node<E> {
+        Bucket bucket;
+
+        BucketNode(E value) {
+            super(value, 0L);
+        }
+
+        //the tag field of the node holds its local tag
+        @Override
+        long tag() {
+            return (bucket.tag << LOCAL_BITS) | ((Node<E>)this).tag;
+        }
+    }
+
+    private static long localTag(Node<?> node) {
+        return node.tag;
+    }
+
+    private void linkTwoLevel(Node<E> n, BucketNode<E> bucketNode) {
+        Node<E> newNode = bucketNode; //the fields of Node are private, so they are only accessible through Node
+        if (n.next == n) { //the first node of the list
+            Bucket bucket = new Bucket();
+            bucket.tag = BUCKET_RANGE / 2;
+            insertBucketAfter(bucketHead, bucket);
+            bucketNode.bucket = bucket;
+            newNode.tag = LOCAL_RANGE / 2;
+            bucket.first = bucketNode;
+            bucket.size = 1;
+        } else {
+            //the new node joins the bucket of n (or the first bucket, if n is the base)
+            Bucket bucket = n == base ? ((BucketNode<E>)n.next).bucket : ((BucketNode<E>)n).bucket;
+            long low = n == base ? -1L : localTag(n);
+            long high = isIn(n.next, bucket) ? localTag(n.next) : LOCAL_RANGE;
+            if (high - low < 2) {
+                long start = listener == null ? 0L : System.nanoTime();
+                int relabeled = bucket.size;
+                if (bucket.size >= MAX_BUCKET_SIZE) {
+                    splitBucket(bucket);
+                    bucket = n == base ? ((BucketNode<E>)n.next).bucket : ((BucketNode<E>)n).bucket;
+                } else {
+                    relabelBucket(bucket);
+                }
+                relabelCount++;
+                if (listener != null) {
+                    listener.relabeled(relabeled, System.nanoTime() - start);
+                }
+                low = n == base ? -1L : localTag(n);
+                high = isIn(n.next, bucket) ? localTag(n.next) : LOCAL_RANGE;
+            }
+            bucketNode.bucket = bucket;
+            newNode.tag = low + (high - low) / 2;
+            if (n == base) {
+                bucket.first = bucketNode;
+            }
+            bucket.size++;
+        }
+        newNode.prev = n;
+        newNode.next = n.next;
+        n.next = newNode;
+        newNode.next.prev = newNode;
+    }
+
+    private static boolean isIn(Node<?> node, Bucket bucket) {
+        return node instanceof BucketNode && ((BucketNode<?>)node).bucket == bucket;
+    }
+
+    /**
+     * Spreads the local tags of the nodes of a bucket evenly.
+     */
+    private static void relabelBucket(Bucket bucket) {
+        long step = LOCAL_RANGE / (bucket.size + 1);
+        Node<?> cursor = bucket.first;
+        for (int i = 0; i < bucket.size; i++) {
+            cursor.tag = (i + 1) * step;
+            cursor = cursor.next;
+        }
+    }
+
+    /**
+     * Moves the second half of the nodes of a bucket to a new bucket right after it, and relabels both.
+     */
+    private void splitBucket(Bucket bucket) {
+        Bucket second = new Bucket();
+        insertBucketAfter(bucket, second);
+        int half = bucket.size / 2;
+        Node<?> cursor = bucket.first;
+        for (int i = 0; i < half; i++) {
+            cursor = cursor.next;
+        }
+        second.first = (BucketNode<?>)cursor;
+        second.size = bucket.size - half;
+        bucket.size = half;
+        for (int i = 0; i < second.size; i++) {
+            ((BucketNode<?>)cursor).bucket = second;
+            cursor = cursor.next;
+        }
+        relabelBucket(bucket);
+        relabelBucket(second);
+    }
+
+    /**
+     * Links a new bucket after another (or after the head), first relabeling a range of buckets around it if there
+     * is no room for its tag. This is the relabeling of {@link #relabelMinimumSparseEnclosingRange(Node)}, with
+     * aligned ranges of bucket tags growing until they are sparse enough.
+     */
+    private void insertBucketAfter(Bucket bucket, Bucket newBucket) {
+        if (bucket != bucketHead) {
+            long next = bucket.next == bucketHead ? BUCKET_RANGE : bucket.next.tag;
+            if (next - bucket.tag < 2) {
+                relabelBuckets(bucket);
+            }
+            next = bucket.next == bucketHead ? BUCKET_RANGE : bucket.next.tag;
+            newBucket.tag = bucket.tag + (next - bucket.tag) / 2;
+        }
+        newBucket.prev = bucket;
+        newBucket.next = bucket.next;
+        bucket.next.prev = newBucket;
+        bucket.next = newBucket;
+        bucketCount++;
+    }
+
+    private void relabelBuckets(Bucket bucket) {
+        final double T = Math.pow(Math.pow(2, BUCKET_BITS) / (bucketCount + 1), 1.0 / BUCKET_BITS);
+
+        Bucket left = bucket;
+        Bucket right = bucket;
+        int count = 1;
+        int level = 0;
+        double overflowThreshold = 1.0;
+        long low;
+        long range;
+        do {
+            level++;
+            overflowThreshold /= T;
+            range = 1L << level;
+            low = bucket.tag & -range;
+            while (left.prev != bucketHead && left.prev.tag >= low) {
+                left = left.prev;
+                count++;
+            }
+            while (right.next != bucketHead && right.next.tag < low + range) {
+                right = right.next;
+                count++;
+            }
+            //leave room for at least one more bucket, with gaps of at least two
+        } while (((count + 1) * 2L > range || count + 1 > range * overflowThreshold) && level < BUCKET_BITS);
+        Preconditions.checkState((count + 1) * 2L <= range, "Too many buckets");
+
+        long step = range / count;
+        Bucket cursor = left;
+        for (int i = 0; i < count; i++) {
+            cursor.tag = low + i * step;
+            cursor = cursor.next;
+        }
+    }
+
+    /**
+     * Removes a node (which is about to be unlinked from the list) from its bucket, and the bucket itself from the
+     * list of buckets, if it becomes empty.
+     */
+    private void leaveBucket(BucketNode<E> node) {
+        Bucket bucket = node.bucket;
+        bucket.size--;
+        if (bucket.size == 0) {
+            bucket.prev.next = bucket.next;
+            bucket.next.prev = bucket.prev;
+            bucket.first = null;
+            bucketCount--;
+        } else if (bucket.first == node) {
+            bucket.first = (BucketNode<?>)((Node<E>)node).next;
+        }
+    }
+
+    private List<Node<E>> appendEvenlySpacedTwoLevel(int count) {
+        List<Node<E>> nodes = new ArrayList<Node<E>>(count);
+        int perBucket = MAX_BUCKET_SIZE / 2;
+        int buckets = (count + perBucket - 1) / perBucket;
+        Preconditions.checkState(buckets * 2L < BUCKET_RANGE, "Too many nodes: %s", count);
+        long bucketStep = BUCKET_RANGE / (buckets + 1);
+        Node<E> last = base;
+        Bucket bucket = null;
+        for (int i = 0; i < count; i++) {
+            if (i % perBucket == 0) {
+                Bucket newBucket = new Bucket();
+                newBucket.tag = (i / perBucket + 1) * bucketStep;
+                insertBucketAfter(bucket == null ? bucketHead : bucket, newBucket);
+                bucket = newBucket;
+            }
+            BucketNode<E> bucketNode = new BucketNode<E>(null);
+            bucketNode.bucket = bucket;
+            if (bucket.size++ == 0) {
+                bucket.first = bucketNode;
+            }
+            Node<E> newNode = bucketNode;
+            newNode.tag = (i % perBucket + 1) * (LOCAL_RANGE / (perBucket + 1));
+            newNode.prev = last;
+            newNode.next = base;
+            last.next = newNode;
+            base.prev = newNode;
+            last = newNode;
+            nodes.add(newNode);
+        }
+        size = count;
+        return nodes;
     }
 
     @Override
@@ -293,7 +713,15 @@ public final class OrderList<E> implements Iterable<OrderList.Node<E>>, Serializ
         public final boolean precedes(OrderList.Node<?> n) {
             Preconditions.checkState(isValid(), "This node is deleted");
             Preconditions.checkState(n.isValid(), "The argument node is deleted");
-            return tag < ((Node<?>)n).tag;
+            return tag() < ((Node<?>)n).tag();
+        }
+
+        /**
+         * Returns the current tag of this node. Tags are consistent with the order of the list,
+         * but may change whenever the list is relabeled (see {@link OrderList#relabelCount()}).
+         */
+        long tag() {
+            return tag;
         }
 
         /**
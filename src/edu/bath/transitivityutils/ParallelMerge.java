@@ -0,0 +1,209 @@
+package edu.bath.transitivityutils;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Merges the relationships of a navigator into a relation, labeling its weakly connected components in parallel.
+ *
+ * <p>Elements of different weakly connected components are never related, so each component can be labeled
+ * independently of the others, in a relation of its own, and the labelings simply concatenated. The components are
+ * found with union-find over dense int ids, and grouped into batches of roughly equal numbers of relationships (a
+ * few per available processor, so that the work is balanced even if some components are much larger than others).
+ * Every batch is related, through a {@link SpanningForest}, into a fresh relation on the executor, and the results
+ * are {@linkplain DefaultTransitiveRelation#absorb(DefaultTransitiveRelation) absorbed} into the target relation in
+ * batch order, so the result does not depend on the scheduling.
+ *
+ * <p>Components with elements that are already contained in the target relation are related into it directly,
+ * after the rest, and so is everything when the target relation is not one created by
+ * {@link Relations#newTransitiveRelation()} (or {@link Relations#newTwoLevelTransitiveRelation()}).
+ *
+ * @author Andreou Dimitris, email: jim.andreou (at) gmail.com
+ */
+final class ParallelMerge<E> {
+    private static final int BATCHES_PER_PROCESSOR = 4;
+
+    private final ElementIndex<E> index;
+    private final int[] subjects;
+    private final int[] objects;
+    private final int count;
+
+    private ParallelMerge(ElementIndex<E> index, int[] subjects, int[] objects, int count) {
+        this.index = index;
+        this.subjects = subjects;
+        this.objects = objects;
+        this.count = count;
+    }
+
+    /**
+     * Collects all relationships of the specified navigator (ignoring reflexive ones).
+     */
+    static <E> ParallelMerge<E> create(Navigator<E> navigator) {
+        Set<Object> elements = new LinkedHashSet<Object>();
+        int count = 0;
+        for (E subject : navigator.domain()) {
+            elements.add(subject);
+            for (E object : navigator.related(subject)) {
+                elements.add(object);
+                count++;
+            }
+        }
+        ElementIndex<E> index = new ElementIndex<E>(elements.toArray());
+        int[] subjectIds = new int[count];
+        int[] objectIds = new int[count];
+        count = 0;
+        for (E subject : navigator.domain()) {
+            int subjectId = index.indexOf(subject);
+            for (E object : navigator.related(subject)) {
+                int objectId = index.indexOf(object);
+                if (subjectId == objectId) continue;
+                subjectIds[count] = subjectId;
+                objectIds[count] = objectId;
+                count++;
+            }
+        }
+        return new ParallelMerge<E>(index, subjectIds, objectIds, count);
+    }
+
+    @SuppressWarnings("unchecked") //the elements of the target relation are only ever E's, in this method
+    void mergeInto(TransitiveRelation<? super E> relation, ExecutorService executor) throws InterruptedException {
+        if (!(relation instanceof DefaultTransitiveRelation)) {
+            SpanningForest.create(relationships(allEdges(), 0, count)).relateInto(relation);
+            return;
+        }
+        DefaultTransitiveRelation<E> target = (DefaultTransitiveRelation<E>)relation;
+
+        int[] component = components();
+        int[] order = sortedByComponent(component);
+
+        //components touching elements of the target relation cannot be labeled separately
+        boolean[] touching = new boolean[index.size()];
+        for (int id = 0; id < index.size(); id++) {
+            if (target.contains(index.get(id))) {
+                touching[component[id]] = true;
+            }
+        }
+        int[] separate = new int[count];
+        int separateCount = 0;
+        int[] joined = new int[count];
+        int joinedCount = 0;
+        for (int i = 0; i < count; i++) {
+            int edge = order[i];
+            if (touching[component[subjects[edge]]]) {
+                joined[joinedCount++] = edge;
+            } else {
+                separate[separateCount++] = edge;
+            }
+        }
+
+        //batches end at component boundaries
+        int batchSize = Math.max(1,
+                separateCount / (Runtime.getRuntime().availableProcessors() * BATCHES_PER_PROCESSOR));
+        List<Future<DefaultTransitiveRelation<E>>> futures = Lists.newArrayList();
+        try {
+            int from = 0;
+            while (from < separateCount) {
+                int to = Math.min(from + batchSize, separateCount);
+                while (to < separateCount
+                        && component[subjects[separate[to]]] == component[subjects[separate[to - 1]]]) {
+                    to++;
+                }
+                final List<Map.Entry<E, E>> batch = relationships(separate, from, to);
+                final DefaultTransitiveRelation<E> part = target.newEmptyLike();
+                futures.add(executor.submit(new Callable<DefaultTransitiveRelation<E>>() {
+                    public DefaultTransitiveRelation<E> call() {
+                        SpanningForest.create(batch).relateInto(part);
+                        return part;
+                    }
+                }));
+                from = to;
+            }
+            for (Future<DefaultTransitiveRelation<E>> future : futures) {
+                target.absorb(future.get());
+            }
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) throw (RuntimeException)cause;
+            if (cause instanceof Error) throw (Error)cause;
+            throw new RuntimeException(cause);
+        } finally {
+            for (Future<DefaultTransitiveRelation<E>> future : futures) {
+                future.cancel(true);
+            }
+        }
+        SpanningForest.create(relationships(joined, 0, joinedCount)).relateInto(target);
+    }
+
+    /**
+     * Returns the weakly connected component of each element, as the id of some element of it.
+     */
+    private int[] components() {
+        int[] parent = new int[index.size()];
+        for (int id = 0; id < parent.length; id++) {
+            parent[id] = id;
+        }
+        for (int i = 0; i < count; i++) {
+            int a = find(parent, subjects[i]);
+            int b = find(parent, objects[i]);
+            if (a != b) {
+                parent[Math.max(a, b)] = Math.min(a, b);
+            }
+        }
+        for (int id = 0; id < parent.length; id++) {
+            parent[id] = parent[parent[id]]; //roots have smaller ids, so they are final already
+        }
+        return parent;
+    }
+
+    private static int find(int[] parent, int id) {
+        while (parent[id] != id) {
+            parent[id] = parent[parent[id]]; //path halving
+            id = parent[id];
+        }
+        return id;
+    }
+
+    /**
+     * Returns the relationship indexes, grouped by the component of their subjects.
+     */
+    private int[] sortedByComponent(int[] component) {
+        int n = index.size();
+        int[] offsets = new int[n + 1];
+        for (int i = 0; i < count; i++) {
+            offsets[component[subjects[i]] + 1]++;
+        }
+        for (int c = 0; c < n; c++) {
+            offsets[c + 1] += offsets[c];
+        }
+        int[] order = new int[count];
+        for (int i = 0; i < count; i++) {
+            order[offsets[component[subjects[i]]]++] = i;
+        }
+        return order;
+    }
+
+    private int[] allEdges() {
+        int[] order = new int[count];
+        for (int i = 0; i < count; i++) {
+            order[i] = i;
+        }
+        return order;
+    }
+
+    private List<Map.Entry<E, E>> relationships(int[] edges, int from, int to) {
+        List<Map.Entry<E, E>> relationships = Lists.newArrayListWithCapacity(to - from);
+        for (int i = from; i < to; i++) {
+            int edge = edges[i];
+            relationships.add(Maps.immutableEntry(index.get(subjects[edge]), index.get(objects[edge])));
+        }
+        return relationships;
+    }
+}
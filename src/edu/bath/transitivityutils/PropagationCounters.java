@@ -0,0 +1,84 @@
+package edu.bath.transitivityutils;
+
+/**
+ * Counters of the work done to propagate intervals in a transitive relation. Whenever
+ * {@link TransitiveRelation#relate(Object, Object)} cannot simply nest the subject inside the object, the
+ * intervals of the subject are propagated to the object and everything the object is related to; these counters
+ * report how many elements were visited by such propagations, and how many intervals were merged into them.
+ *
+ * <p>Instances are live views of the counters of a relation, and are obtained through
+ * {@link Relations#propagationCounters(TransitiveRelation)}. They are not thread-safe.
+ *
+ * @author Andreou Dimitris, email: jim.andreou (at) gmail.com
+ */
+public final class PropagationCounters {
+    private long propagations;
+    private long nodesVisited;
+    private long intervalsMerged;
+    private int lastNodesVisited;
+    private int lastIntervalsMerged;
+
+    PropagationCounters() { }
+
+    void startRelate() {
+        lastNodesVisited = 0;
+        lastIntervalsMerged = 0;
+    }
+
+    void recordPropagation(int visited, int merged) {
+        propagations++;
+        nodesVisited += visited;
+        intervalsMerged += merged;
+        lastNodesVisited += visited;
+        lastIntervalsMerged += merged;
+    }
+
+    /**
+     * Returns the total number of propagations performed.
+     */
+    public long propagations() {
+        return propagations;
+    }
+
+    /**
+     * Returns the total number of elements visited by all propagations.
+     */
+    public long nodesVisited() {
+        return nodesVisited;
+    }
+
+    /**
+     * Returns the total number of intervals merged into the interval sets of visited elements.
+     */
+    public long intervalsMerged() {
+        return intervalsMerged;
+    }
+
+    /**
+     * Returns the number of elements visited while relating the most recent pair.
+     */
+    public int lastNodesVisited() {
+        return lastNodesVisited;
+    }
+
+    /**
+     * Returns the number of intervals merged while relating the most recent pair.
+     */
+    public int lastIntervalsMerged() {
+        return lastIntervalsMerged;
+    }
+
+    /**
+     * Resets all counters to zero.
+     */
+    public void reset() {
+        propagations = nodesVisited = intervalsMerged = 0L;
+        lastNodesVisited = lastIntervalsMerged = 0;
+    }
+
+    @Override
+    public String toString() {
+        return "[propagations=" + propagations + ", nodesVisited=" + nodesVisited
+                + ", intervalsMerged=" + intervalsMerged + "]";
+    }
+}
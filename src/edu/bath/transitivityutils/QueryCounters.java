@@ -0,0 +1,83 @@
+package edu.bath.transitivityutils;
+
+/**
+ * Counters of the outcomes of {@link TransitiveRelation#areRelated(Object, Object)} in a transitive relation.
+ * Before searching the intervals of the object for the subject, a query checks whether the subject lies within the
+ * span of those intervals at all (from the start of the first to the end of the last one); if not, the answer is
+ * negative, and is decided without a search. These counters report how many queries this filter decided, and how
+ * many needed a search (and how many of those were positive).
+ *
+ * <p>Only queries between two distinct elements of the relation are counted; queries involving an element that has
+ * never been related are decided by the element lookup alone.
+ *
+ * <p>Instances are live views of the counters of a relation, and are obtained through
+ * {@link Relations#queryCounters(TransitiveRelation)}; the counters of a relation are only updated from the first
+ * time they are obtained. They are not thread-safe.
+ *
+ * @author Andreou Dimitris, email: jim.andreou (at) gmail.com
+ */
+public final class QueryCounters {
+    private long queries;
+    private long filtered;
+    private long hits;
+
+    QueryCounters() { }
+
+    void recordFiltered() {
+        queries++;
+        filtered++;
+    }
+
+    void recordSearch(boolean hit) {
+        queries++;
+        if (hit) hits++;
+    }
+
+    /**
+     * Returns the number of queries counted.
+     */
+    public long queries() {
+        return queries;
+    }
+
+    /**
+     * Returns the number of queries that the filter answered negatively, without a search.
+     */
+    public long filtered() {
+        return filtered;
+    }
+
+    /**
+     * Returns the number of queries that passed the filter, and were answered by searching the intervals.
+     */
+    public long searches() {
+        return queries - filtered;
+    }
+
+    /**
+     * Returns the number of searches that were answered positively.
+     */
+    public long hits() {
+        return hits;
+    }
+
+    /**
+     * Returns the fraction of the negative answers that were decided by the filter, or zero if there were none.
+     */
+    public double filteredMissRatio() {
+        long misses = queries - hits;
+        return misses == 0 ? 0.0 : (double)filtered / misses;
+    }
+
+    /**
+     * Resets all counters to zero.
+     */
+    public void reset() {
+        queries = filtered = hits = 0L;
+    }
+
+    @Override
+    public String toString() {
+        return "[queries=" + queries + ", filtered=" + filtered + ", hits=" + hits + "]";
+    }
+}
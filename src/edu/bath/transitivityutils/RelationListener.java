@@ -0,0 +1,41 @@
+package edu.bath.transitivityutils;
+
+/**
+ * Receives notifications about the expensive internal operations of a transitive relation, so that latency spikes
+ * can be attributed to them. A listener is attached with {@link Relations#setListener(TransitiveRelation, RelationListener)};
+ * while none is attached, relations do not even read the clock, so instrumentation costs nothing unless enabled.
+ *
+ * <p>All methods do nothing by default; subclasses override those they are interested in. Notifications are delivered
+ * synchronously, by the thread that modifies the relation (while holding its lock, for concurrent relations), so they
+ * should be cheap: e.g. updating counters (see {@link InstrumentationCounters}), or recording an event with an external
+ * profiler when the reported duration exceeds some threshold.
+ *
+ * @author Andreou Dimitris, email: jim.andreou (at) gmail.com
+ */
+public abstract class RelationListener {
+    /**
+     * Invoked after a range of the order list that holds the labels of the elements has been relabeled (assigned
+     * new, evenly spaced tags), to make room for new labels.
+     *
+     * @param nodes the number of relabeled nodes (two per element)
+     * @param nanos the duration of the relabeling
+     */
+    public void relabeled(int nodes, long nanos) { }
+
+    /**
+     * Invoked after the intervals of an element have been propagated to the elements it is related to, i.e. whenever
+     * relating two elements could not be done by merely nesting the label of the subject inside the object's.
+     *
+     * @param nodesVisited the number of elements (or groups of equivalent elements) visited
+     * @param intervalsMerged the number of intervals merged into the interval sets of the visited elements
+     * @param nanos the duration of the propagation
+     */
+    public void propagated(int nodesVisited, int intervalsMerged, long nanos) { }
+
+    /**
+     * Invoked after the interval set of an element had to grow its internal array.
+     *
+     * @param capacity the new capacity of the array, in interval boundaries (two per interval)
+     */
+    public void intervalSetGrew(int capacity) { }
+}
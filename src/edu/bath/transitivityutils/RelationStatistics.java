@@ -0,0 +1,173 @@
+package edu.bath.transitivityutils;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.SetMultimap;
+import java.util.Collection;
+
+/**
+ * A snapshot of the size of a transitive relation and of how well its relationships are compressed, as returned by
+ * {@link Relations#statistics(TransitiveRelation)}.
+ *
+ * <p>The cost of querying whether an element is related to another depends on the number of <em>intervals</em>
+ * of the latter; elements whose relationships are compressed well have a single interval. The distribution of
+ * these counts is the main indicator of the degradation that {@link Relations#compact(TransitiveRelation)} undoes.
+ *
+ * @author Andreou Dimitris, email: jim.andreou (at) gmail.com
+ */
+public final class RelationStatistics {
+    private final int elementCount;
+    private final int directRelationshipCount;
+    private final int[] intervalHistogram; //elements by number of intervals
+    private final long intervals;
+    private final int orderListSize;
+    private final long relabelCount;
+    private final long estimatedBytes;
+
+    RelationStatistics(int elementCount, int directRelationshipCount, int[] intervalHistogram,
+            int orderListSize, long relabelCount, long estimatedBytes) {
+        this.elementCount = elementCount;
+        this.directRelationshipCount = directRelationshipCount;
+        this.intervalHistogram = intervalHistogram;
+        this.orderListSize = orderListSize;
+        this.relabelCount = relabelCount;
+        this.estimatedBytes = estimatedBytes;
+
+        long total = 0L;
+        for (int count = 0; count < intervalHistogram.length; count++) {
+            total += (long)count * intervalHistogram[count];
+        }
+        this.intervals = total;
+    }
+
+    /**
+     * Returns a copy of these statistics, with the specified number of bytes added to the estimated size.
+     */
+    RelationStatistics plusBytes(long bytes) {
+        return new RelationStatistics(elementCount, directRelationshipCount, intervalHistogram,
+                orderListSize, relabelCount, estimatedBytes + bytes);
+    }
+
+    /**
+     * Returns the number of elements that the relation keeps labels for.
+     */
+    public int elementCount() {
+        return elementCount;
+    }
+
+    /**
+     * Returns the number of direct relationships, i.e. those that were explicitly related.
+     */
+    public int directRelationshipCount() {
+        return directRelationshipCount;
+    }
+
+    /**
+     * Returns the total number of intervals of all elements.
+     */
+    public long intervals() {
+        return intervals;
+    }
+
+    /**
+     * Returns the largest number of intervals of a single element, or zero if there are no elements.
+     */
+    public int maxIntervals() {
+        return intervalHistogram.length == 0 ? 0 : intervalHistogram.length - 1;
+    }
+
+    /**
+     * Returns the average number of intervals per element, or zero if there are no elements.
+     */
+    public double averageIntervals() {
+        return elementCount == 0 ? 0.0 : (double)intervals / elementCount;
+    }
+
+    /**
+     * Returns the smallest number of intervals such that at least the specified percentage of elements have
+     * at most that many intervals (e.g. {@code intervalsPercentile(50)} is the median), or zero if there are
+     * no elements.
+     *
+     * @param percentile a percentage, from 0 to 100
+     */
+    public int intervalsPercentile(double percentile) {
+        Preconditions.checkArgument(percentile >= 0.0 && percentile <= 100.0,
+                "Percentile out of range: %s", percentile);
+        long rank = Math.max(1L, (long)Math.ceil(percentile / 100.0 * elementCount));
+        long seen = 0L;
+        for (int count = 0; count < intervalHistogram.length; count++) {
+            seen += intervalHistogram[count];
+            if (seen >= rank) return count;
+        }
+        return 0;
+    }
+
+    /**
+     * Returns the number of nodes in the order list that the labels of the elements refer to (two per element).
+     */
+    public int orderListSize() {
+        return orderListSize;
+    }
+
+    /**
+     * Returns how many times ranges of the order list have been relabeled (since the relation was created or
+     * last compacted).
+     */
+    public long relabelCount() {
+        return relabelCount;
+    }
+
+    /**
+     * Returns an estimate of the heap retained by the relation, in bytes, excluding the elements themselves.
+     * The estimate assumes a 64-bit JVM with compressed object references, and is meant for sizing, not
+     * accounting: the actual figure depends on the JVM.
+     */
+    public long estimatedBytes() {
+        return estimatedBytes;
+    }
+
+    /*
+     * Rough sizes of the objects making up a relation, assuming 12-byte object headers and 4-byte references,
+     * with every object padded to a multiple of 8 bytes.
+     */
+    static final int ORDER_LIST_NODE_BYTES = 32; //header, tag, prev, next, value
+    static final int RELATION_NODE_BYTES = 40; //header, pre, post, intervalSet, representative, members, visitEpoch
+    static final int INTERVAL_SET_BYTES = 24; //header, array, size, tags
+    static final int CACHED_TAGS_BYTES = 24; //header, values, version
+    static final int HASH_ENTRY_BYTES = 32; //header, hash, key, value, next
+    private static final int HASH_MAP_BYTES = 48;
+    private static final int HASH_SET_BYTES = 16;
+    private static final int ARRAY_LIST_BYTES = 24;
+
+    static long arrayBytes(int elementBytes, int length) {
+        return align(16L + (long)elementBytes * length);
+    }
+
+    static long hashMapBytes(int entries) {
+        int capacity = Integer.highestOneBit(Math.max(16, (int)(entries / 0.75f) + 1));
+        return HASH_MAP_BYTES + arrayBytes(4, capacity * 2) + (long)HASH_ENTRY_BYTES * entries;
+    }
+
+    static long hashMultimapBytes(SetMultimap<?, ?> multimap) {
+        long bytes = hashMapBytes(multimap.keySet().size());
+        for (Collection<?> values : multimap.asMap().values()) {
+            bytes += HASH_SET_BYTES + hashMapBytes(values.size());
+        }
+        return bytes;
+    }
+
+    static long arrayListBytes(int size) {
+        return ARRAY_LIST_BYTES + arrayBytes(4, size);
+    }
+
+    private static long align(long bytes) {
+        return (bytes + 7L) & ~7L;
+    }
+
+    @Override
+    public String toString() {
+        return "[elements=" + elementCount + ", directRelationships=" + directRelationshipCount
+                + ", intervals=" + intervals + ", maxIntervals=" + maxIntervals()
+                + ", p99Intervals=" + intervalsPercentile(99) + ", orderListSize=" + orderListSize
+                + ", relabelCount=" + relabelCount + ", estimatedBytes=" + estimatedBytes + "]";
+    }
+}
@@ -1,10 +1,24 @@
 package edu.bath.transitivityutils;
 
 import com.google.common.base.Preconditions;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
 import java.io.Serializable;
-import java.util.IdentityHashMap;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 /**
  * Provides static utility methods for creating and working with {@link
@@ -18,6 +32,10 @@ public final class Relations {
     /**
      * Creates a new, empty, transitive relation.
      *
+     * <p>The created relation is not thread-safe, but queries do not disturb each other: once it is no longer
+     * modified (and has been safely published), any number of threads may query it at once. For concurrent
+     * queries and writes, see {@link #newConcurrentTransitiveRelation()}.
+     *
      * <p>The created {@code TransitiveRelation} is serializable, as long as the objects in the relation
      * are themselves serializable.
      */
@@ -25,6 +43,19 @@ public final class Relations {
         return new DefaultTransitiveRelation<E>();
     }
 
+    /**
+     * Creates a new, empty transitive relation, like {@link #newTransitiveRelation()}, but whose labeling takes
+     * constant amortized time per inserted element, and no relabeling touches more than a small, bounded number of
+     * elements (plus a range of groups of elements). This suits insertion-heavy loads, and in particular ones
+     * sensitive to latency spikes, at the cost of slightly slower queries.
+     *
+     * <p>The created {@code TransitiveRelation} is serializable, as long as the objects in the relation
+     * are themselves serializable; a deserialized copy uses the default labeling.
+     */
+    public static <E> TransitiveRelation<E> newTwoLevelTransitiveRelation() {
+        return new DefaultTransitiveRelation<E>(false, true);
+    }
+
     /**
      * Creates a new, empty, bidirectional transitive relation.
      *
@@ -35,6 +66,651 @@ public final class Relations {
         return new DefaultTransitiveBiRelation<E>();
     }
 
+    /**
+     * Creates a new, empty, bidirectional transitive relation, like {@link #newTransitiveBiRelation()}, which also
+     * labels its {@linkplain TransitiveBiRelation#inverse() inverse} relationships. Queries on the inverse relation,
+     * such as {@link #ancestors(TransitiveRelation, Object)}, {@link #countAncestors(TransitiveRelation, Object)},
+     * or bulk queries like {@link #relatedPairs(TransitiveRelation, List, List)} on the inverse, are then answered
+     * from that labeling, as fast as the corresponding queries on the relation itself. In exchange, relating
+     * elements costs about twice as much, and so does the memory used by the relation.
+     *
+     * <p>The created {@code TransitiveBiRelation} is serializable, as long as the objects in the relation
+     * are themselves serializable.
+     */
+    public static <E> TransitiveBiRelation<E> newDualLabeledTransitiveBiRelation() {
+        return new DefaultTransitiveBiRelation<E>(true);
+    }
+
+    /**
+     * Creates a new, empty, transitive relation that supports concurrent access. Queries
+     * ({@link TransitiveRelation#areRelated(Object, Object) areRelated}) never take a lock, and run
+     * in parallel with each other; they are only retried when they overlap with a
+     * {@link TransitiveRelation#relate(Object, Object) relate} operation. Writes are serialized.
+     * This is appropriate for relations that are queried much more often than they are modified.
+     *
+     * <p>The {@linkplain TransitiveRelation#direct() direct} navigator of the created relation returns
+     * immutable snapshots rather than views. The relation does not permit {@code null} elements.
+     *
+     * <p>The created {@code TransitiveRelation} is serializable, as long as the objects in the relation
+     * are themselves serializable.
+     */
+    public static <E> TransitiveRelation<E> newConcurrentTransitiveRelation() {
+        return new ConcurrentTransitiveRelation<E>();
+    }
+
+    /**
+     * Creates a new, empty, transitive relation over non-negative {@code int} elements. Elements are
+     * used as array indexes, so this is appropriate when they are dense ids, i.e. they range from zero
+     * up to roughly the number of elements.
+     *
+     * <p>The created {@code IntTransitiveRelation} is serializable.
+     *
+     * @param expectedSize the expected number of elements (the capacity grows as needed)
+     * @throws IllegalArgumentException if {@code expectedSize} is negative
+     */
+    public static IntTransitiveRelation newIntTransitiveRelation(int expectedSize) {
+        return new DefaultIntTransitiveRelation(expectedSize);
+    }
+
+    /**
+     * Creates a new, empty, transitive relation that keeps its labeling outside the heap, in direct buffers. Only the
+     * mapping between elements and internal ids remains on the heap, so the heap occupied by the relation, and the time
+     * spent by the garbage collector on it, do not grow with the number of intervals and relationships. This is meant
+     * for very large relations (tens of millions of elements); for smaller ones, {@link #newTransitiveRelation()} is
+     * faster.
+     *
+     * <p>The created relation is not thread-safe and not serializable. Its memory is released when it is garbage
+     * collected.
+     */
+    public static <E> TransitiveRelation<E> newOffHeapTransitiveRelation() {
+        return new OffHeapTransitiveRelation<E>();
+    }
+
+    /**
+     * Creates an immutable copy of a transitive relation, in a compact representation that is optimized for
+     * {@linkplain TransitiveRelation#areRelated(Object, Object) queries}. The copy uses just a handful of
+     * primitive arrays, and queries involve no pointer chasing, but
+     * {@link TransitiveRelation#relate(Object, Object)} on it throws {@code UnsupportedOperationException}.
+     * The copy has the same {@linkplain TransitiveRelation#direct() direct} relationships as the original.
+     *
+     * <p>This is most efficient for relations created by {@link #newTransitiveRelation()}, whose existing
+     * labeling is reused; any other relation is first re-created from its direct relationships.
+     *
+     * <p>Elements with many intervals also keep a second copy of them, laid out for faster searching, so the
+     * copy may take up to twice the memory of its intervals.
+     *
+     * <p>The created {@code TransitiveRelation} is serializable, as long as the objects in the relation
+     * are themselves serializable.
+     *
+     * @param relation the transitive relation to copy
+     * @return an immutable, compact copy of the relation
+     */
+    public static <E> TransitiveRelation<E> freeze(TransitiveRelation<E> relation) {
+        Preconditions.checkNotNull(relation);
+        if (relation instanceof FrozenTransitiveRelation) {
+            return relation;
+        }
+        return asDefault(relation).freeze();
+    }
+
+    /**
+     * Returns the relation itself if it was created by {@link #newTransitiveRelation()}, otherwise such a
+     * relation with the same direct relationships.
+     */
+    private static <E> DefaultTransitiveRelation<E> asDefault(TransitiveRelation<E> relation) {
+        if (relation instanceof DefaultTransitiveRelation) {
+            return (DefaultTransitiveRelation<E>)relation;
+        }
+        DefaultTransitiveRelation<E> copy = new DefaultTransitiveRelation<E>();
+        merge(copy, relation.direct());
+        return copy;
+    }
+
+    /**
+     * Writes a binary snapshot of a transitive relation to an output stream. Unlike Java serialization, which
+     * only records the direct relationships (so reading them back means relating them all over again), the
+     * snapshot also records the internal labeling of the relation, so that {@link #readSnapshot(InputStream)}
+     * merely scans it once. The snapshot format is versioned.
+     *
+     * <p>The elements of the relation are written with Java serialization, thus they must be serializable.
+     * Relations not created by {@link #newTransitiveRelation()} are first copied into such a relation.
+     * The stream is flushed, but not closed.
+     *
+     * @param relation the relation to write
+     * @param out the stream to write the snapshot to
+     * @throws IOException if an I/O error occurs
+     */
+    public static <E> void writeSnapshot(TransitiveRelation<E> relation, OutputStream out) throws IOException {
+        Preconditions.checkNotNull(relation);
+        ObjectOutputStream objectOut = new ObjectOutputStream(Preconditions.checkNotNull(out));
+        asDefault(relation).writeSnapshot(objectOut);
+        objectOut.flush();
+    }
+
+    /**
+     * Reads a transitive relation from a snapshot written by {@link #writeSnapshot(TransitiveRelation, OutputStream)}.
+     * The returned relation is equivalent to one created by {@link #newTransitiveRelation()}, and can be modified further.
+     * The stream is not closed.
+     *
+     * @param in the stream to read the snapshot from
+     * @return the relation recorded in the snapshot
+     * @throws IOException if an I/O error occurs, or the stream does not contain a snapshot of a supported version
+     * @throws ClassNotFoundException if the class of an element cannot be found
+     */
+    public static <E> TransitiveRelation<E> readSnapshot(InputStream in) throws IOException, ClassNotFoundException {
+        return DefaultTransitiveRelation.<E>readSnapshot(new ObjectInputStream(Preconditions.checkNotNull(in)));
+    }
+
+    /**
+     * Writes a transitive relation to a file, in a format that can be served directly from memory by
+     * {@link #mapSnapshot(File)}. The relation is {@linkplain #freeze(TransitiveRelation) frozen} first.
+     *
+     * <p>The elements of the relation must be serializable, and their hash codes must be stable across
+     * virtual machines (as is the case for strings and boxed primitives). Strings, integers and longs are written
+     * in a compact encoding, and other elements in their serialized form. The elements are written to the file as
+     * they are encoded, so the file may be larger than the available heap.
+     *
+     * @param relation the relation to write
+     * @param file the file to write the relation to; it is overwritten if it exists
+     * @throws IOException if an I/O error occurs
+     */
+    public static <E> void writeMappedSnapshot(TransitiveRelation<E> relation, File file) throws IOException {
+        Preconditions.checkNotNull(file);
+        FrozenTransitiveRelation<E> frozen = (FrozenTransitiveRelation<E>)freeze(relation);
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            frozen.writeMapped(out);
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Returns an immutable transitive relation that is served directly from a memory-mapped file, written by
+     * {@link #writeMappedSnapshot(TransitiveRelation, File)}. Opening the relation merely maps the file, and
+     * the heap usage of the relation is independent of its size; the file contents are shared (through the
+     * page cache) among all processes that map the same file. Strings, integers and longs are looked up by
+     * comparing their encoding with the bytes in the file; other elements are deserialized from the file whenever
+     * they are looked up, and all elements whenever they are returned.
+     *
+     * <p>The returned relation is thread-safe. The file must not be modified while it is mapped.
+     *
+     * @param file the file to map
+     * @return the relation stored in the file
+     * @throws IOException if an I/O error occurs, or the file was not written by
+     * {@code writeMappedSnapshot} (or by an unsupported version of it)
+     */
+    public static <E> TransitiveRelation<E> mapSnapshot(File file) throws IOException {
+        return MappedTransitiveRelation.<E>map(Preconditions.checkNotNull(file));
+    }
+
+    /**
+     * Returns the {@linkplain PropagationCounters propagation counters} of a transitive relation created by
+     * {@link #newTransitiveRelation()}. The returned counters are a live view.
+     *
+     * @param relation a transitive relation created by {@link #newTransitiveRelation()}
+     * @throws IllegalArgumentException if the relation was not created by {@link #newTransitiveRelation()}
+     */
+    public static PropagationCounters propagationCounters(TransitiveRelation<?> relation) {
+        Preconditions.checkArgument(relation instanceof DefaultTransitiveRelation,
+                "Not a relation created by newTransitiveRelation(): %s", relation);
+        return ((DefaultTransitiveRelation<?>)relation).propagationCounters();
+    }
+
+    /**
+     * Measures, on the running machine, the number of interval boundaries up to which queries of the relations
+     * created by {@link #newTransitiveRelation()} (and the other mutable relations backed by it) scan an element's
+     * intervals linearly, rather than searching them, and makes it the cutoff of all such relations, and of the
+     * relations returned by {@link #freeze(TransitiveRelation)} and {@link #mapSnapshot(File)}. Until this is
+     * invoked, a fixed, conservative cutoff is used. This takes a few milliseconds; it is best invoked once, at
+     * startup, and is safe to invoke concurrently with queries (which stay correct whatever the cutoff).
+     *
+     * @return the new cutoff, in interval boundaries (twice the number of intervals)
+     */
+    public static int calibrateSearchCutoff() {
+        return MergingIntervalSet.calibrateTagCutoff();
+    }
+
+    /**
+     * Returns the {@linkplain QueryCounters query counters} of a transitive relation created by
+     * {@link #newTransitiveRelation()}. The returned counters are a live view; they only count the queries made
+     * after they are first requested.
+     *
+     * @param relation a transitive relation created by {@link #newTransitiveRelation()}
+     * @throws IllegalArgumentException if the relation was not created by {@link #newTransitiveRelation()}
+     */
+    public static QueryCounters queryCounters(TransitiveRelation<?> relation) {
+        Preconditions.checkArgument(relation instanceof DefaultTransitiveRelation,
+                "Not a relation created by newTransitiveRelation(): %s", relation);
+        return ((DefaultTransitiveRelation<?>)relation).queryCounters();
+    }
+
+    /**
+     * Removes a direct relationship from a transitive relation, i.e. one that was created by
+     * {@code relation.relate(subject, object)}. Afterwards, the subject remains related to the object only if
+     * that is implied by the remaining relationships.
+     *
+     * <p>For relations created by this class, only the labels of the elements that the object (and the subject)
+     * reaches are recomputed, so the cost is proportional to the affected part of the relation, not to the
+     * whole of it.
+     *
+     * @param relation a relation created by {@link #newTransitiveRelation()}, {@link #newTransitiveBiRelation()}
+     * or {@link #newConcurrentTransitiveRelation()}
+     * @param subject the subject of the relationship
+     * @param object the object of the relationship
+     * @return {@code true} if the direct relationship existed
+     * @throws UnsupportedOperationException if the relation does not support removals
+     */
+    public static <E> boolean unrelate(TransitiveRelation<E> relation, E subject, E object) {
+        return asRemovable(relation).unrelate(subject, object);
+    }
+
+    /**
+     * Removes an element from a transitive relation, along with all direct relationships from it and to it.
+     * Afterwards, elements that were related only through the removed element are no longer related.
+     *
+     * <p>For relations created by this class, only the labels of the elements that the removed element reaches
+     * are recomputed, so the cost is proportional to the affected part of the relation, not to the whole of it.
+     *
+     * @param relation a relation created by {@link #newTransitiveRelation()}, {@link #newTransitiveBiRelation()}
+     * or {@link #newConcurrentTransitiveRelation()}
+     * @param element the element to remove
+     * @return {@code true} if the element existed
+     * @throws UnsupportedOperationException if the relation does not support removals
+     */
+    public static <E> boolean remove(TransitiveRelation<E> relation, E element) {
+        return asRemovable(relation).remove(element);
+    }
+
+    private static <E> RemovableTransitiveRelation<E> asRemovable(TransitiveRelation<E> relation) {
+        Preconditions.checkNotNull(relation);
+        if (!(relation instanceof RemovableTransitiveRelation)) {
+            throw new UnsupportedOperationException("Relation does not support removals: " + relation.getClass().getName());
+        }
+        return (RemovableTransitiveRelation<E>)relation;
+    }
+
+    /**
+     * Recomputes the labeling of a transitive relation from its direct relationships, laying it out along a
+     * spanning forest that maximizes nesting (as {@link #relateAll(TransitiveRelation, Iterable)} does). This
+     * undoes the fragmentation caused by relating elements in an unfavorable order, where many elements end up
+     * with many intervals, and queries against them slow down. The relationships themselves are not affected.
+     *
+     * <p>For relations created by {@link #newConcurrentTransitiveRelation()}, queries proceed unhindered
+     * while the new labeling is being built; writes wait until it is complete.
+     *
+     * @param relation a relation created by {@link #newTransitiveRelation()}, {@link #newTransitiveBiRelation()}
+     * or {@link #newConcurrentTransitiveRelation()}
+     * @return the number of intervals before and after the compaction
+     * @throws UnsupportedOperationException if the relation does not support compaction
+     */
+    public static CompactionReport compact(TransitiveRelation<?> relation) {
+        Preconditions.checkNotNull(relation);
+        if (!(relation instanceof CompactableTransitiveRelation)) {
+            throw new UnsupportedOperationException("Relation does not support compaction: " + relation.getClass().getName());
+        }
+        return ((CompactableTransitiveRelation<?>)relation).compact();
+    }
+
+    /**
+     * Returns statistics about a transitive relation: the number of its elements and direct relationships, the
+     * distribution of the number of intervals per element (which the cost of queries depends on), the size of
+     * its order list and how often it has been relabeled, and an estimate of the heap it retains. Comparing the
+     * interval counts over time reveals whether the relation would benefit from {@link #compact(TransitiveRelation)}.
+     *
+     * @param relation a relation created by {@link #newTransitiveRelation()}, {@link #newTransitiveBiRelation()}
+     * or {@link #newConcurrentTransitiveRelation()}
+     * @return a snapshot of the statistics of the relation
+     * @throws UnsupportedOperationException if the relation does not support statistics
+     */
+    public static RelationStatistics statistics(TransitiveRelation<?> relation) {
+        return asMeasurable(relation, "statistics").statistics();
+    }
+
+    /**
+     * Attaches a listener to a transitive relation, to be notified of its expensive internal operations: relabelings
+     * of the order list that holds the labels of its elements, propagations of intervals, and growths of interval sets.
+     * Any previously attached listener is replaced. Without a listener (the default), a relation does no instrumentation
+     * work at all.
+     *
+     * @param relation a relation created by {@link #newTransitiveRelation()}, {@link #newTransitiveBiRelation()}
+     * or {@link #newConcurrentTransitiveRelation()}
+     * @param listener the listener to notify, or {@code null} to detach the current one
+     * @throws UnsupportedOperationException if the relation does not support listeners
+     * @see InstrumentationCounters
+     */
+    public static void setListener(TransitiveRelation<?> relation, RelationListener listener) {
+        asMeasurable(relation, "listeners").setListener(listener);
+    }
+
+    private static MeasurableTransitiveRelation<?> asMeasurable(TransitiveRelation<?> relation, String feature) {
+        Preconditions.checkNotNull(relation);
+        if (!(relation instanceof MeasurableTransitiveRelation)) {
+            throw new UnsupportedOperationException("Relation does not support " + feature + ": "
+                    + relation.getClass().getName());
+        }
+        return (MeasurableTransitiveRelation<?>)relation;
+    }
+
+    /**
+     * Returns every element that is related to the specified object, which always includes the object itself. That is,
+     * the set of all {@code subject}s for which {@code relation.areRelated(subject, object)} is true, among the elements
+     * of the relation. For example, if a relation models a class hierarchy, these are the subclasses of a class.
+     *
+     * <p>For relations created by this class (other than the {@linkplain TransitiveBiRelation#inverse() inverse} of a
+     * bidirectional relation, unless it was created by {@link #newDualLabeledTransitiveBiRelation()}) this is computed straight from the labeling of the relation, in time proportional to the size
+     * of the result, without traversing any relationships. Otherwise, every element of the relation is examined.
+     *
+     * <p>The returned set is an unmodifiable snapshot.
+     *
+     * @param relation the transitive relation
+     * @param object the object whose descendants to return
+     * @return the elements that are related to the object, including the object itself
+     */
+    public static <E> Set<E> descendants(TransitiveRelation<E> relation, E object) {
+        relation = queryable(Preconditions.checkNotNull(relation));
+        Set<E> descendants = new LinkedHashSet<E>();
+        if (relation instanceof EnumerableTransitiveRelation) {
+            ((EnumerableTransitiveRelation<E>)relation).collectDescendants(object, descendants);
+        } else {
+            Navigator<E> direct = relation.direct();
+            for (E subject : direct.domain()) {
+                if (relation.areRelated(subject, object)) {
+                    descendants.add(subject);
+                }
+                for (E related : direct.related(subject)) {
+                    if (relation.areRelated(related, object)) {
+                        descendants.add(related);
+                    }
+                }
+            }
+        }
+        descendants.add(object);
+        return Collections.unmodifiableSet(descendants);
+    }
+
+    /**
+     * Returns the number of elements that are related to the specified object, which is the size of
+     * {@link #descendants(TransitiveRelation, Object) descendants(relation, object)}. For relations created by
+     * this class (other than the inverse of a bidirectional relation not created by
+     * {@link #newDualLabeledTransitiveBiRelation()}), the descendants are counted without being enumerated.
+     *
+     * @param relation the transitive relation
+     * @param object the object whose descendants to count
+     * @return the number of elements that are related to the object, including the object itself
+     */
+    public static <E> int countDescendants(TransitiveRelation<E> relation, E object) {
+        relation = queryable(Preconditions.checkNotNull(relation));
+        if (relation instanceof EnumerableTransitiveRelation) {
+            return Math.max(1, ((EnumerableTransitiveRelation<E>)relation).countDescendants(object));
+        }
+        return descendants(relation, object).size();
+    }
+
+    /**
+     * Returns every element to which the specified subject is related, which always includes the subject itself. That is,
+     * the set of all {@code object}s for which {@code relation.areRelated(subject, object)} is true. For example, if a
+     * relation models a class hierarchy, these are the superclasses of a class. This is the
+     * {@linkplain Navigators#closure(Navigator, Object) closure} of the subject over the direct relationships.
+     *
+     * <p>For bidirectional relations created by {@link #newDualLabeledTransitiveBiRelation()} (and their inverses),
+     * these are the {@linkplain #descendants(TransitiveRelation, Object) descendants} of the subject in the inverse
+     * relation, computed from its labeling; otherwise the relationships are traversed.
+     *
+     * <p>The returned set is an unmodifiable snapshot.
+     *
+     * @param relation the transitive relation
+     * @param subject the subject whose ancestors to return
+     * @return the elements to which the subject is related, including the subject itself
+     */
+    public static <E> Set<E> ancestors(TransitiveRelation<E> relation, E subject) {
+        TransitiveRelation<E> inverse = labeledInverse(Preconditions.checkNotNull(relation));
+        if (inverse != null) {
+            return descendants(inverse, subject);
+        }
+        return Collections.unmodifiableSet(Navigators.closure(relation.direct(), subject));
+    }
+
+    /**
+     * Returns the number of elements to which the specified subject is related, which is the size of
+     * {@link #ancestors(TransitiveRelation, Object) ancestors(relation, subject)}. For bidirectional relations created
+     * by {@link #newDualLabeledTransitiveBiRelation()} (and their inverses), the ancestors are counted without being
+     * enumerated.
+     *
+     * @param relation the transitive relation
+     * @param subject the subject whose ancestors to count
+     * @return the number of elements to which the subject is related, including the subject itself
+     */
+    public static <E> int countAncestors(TransitiveRelation<E> relation, E subject) {
+        TransitiveRelation<E> inverse = labeledInverse(Preconditions.checkNotNull(relation));
+        if (inverse != null) {
+            return countDescendants(inverse, subject);
+        }
+        return ancestors(relation, subject).size();
+    }
+
+    /**
+     * Returns the inverse of the specified relation, if that is a bidirectional relation whose inverse queries
+     * are answered from a labeling, otherwise {@code null}.
+     */
+    private static <E> TransitiveRelation<E> labeledInverse(TransitiveRelation<E> relation) {
+        relation = unwrap(relation);
+        if (!(relation instanceof TransitiveBiRelation)) {
+            return null;
+        }
+        TransitiveBiRelation<E> inverse = ((TransitiveBiRelation<E>)relation).inverse();
+        return queryable(inverse) instanceof DefaultTransitiveRelation ? inverse : null;
+    }
+
+    /**
+     * Tests whether a subject is related to any of the specified objects. This is equivalent to, but for relations
+     * created by {@link #newTransitiveRelation()} faster than, invoking {@code areRelated(subject, object)} for
+     * each object in turn: the subject is looked up only once.
+     *
+     * @param relation the transitive relation
+     * @param subject the subject
+     * @param objects the objects to test the subject against
+     * @return {@code true} if {@code relation.areRelated(subject, object)} holds for some of the objects
+     */
+    public static <E> boolean areRelatedToAny(TransitiveRelation<E> relation, E subject, Iterable<? extends E> objects) {
+        relation = queryable(Preconditions.checkNotNull(relation));
+        Preconditions.checkNotNull(objects);
+        if (relation instanceof DefaultTransitiveRelation) {
+            return ((DefaultTransitiveRelation<E>)relation).areRelatedToAny(subject, objects);
+        }
+        for (E object : objects) {
+            if (relation.areRelated(subject, object)) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Tests whether a subject is related to all of the specified objects. This is equivalent to, but for relations
+     * created by {@link #newTransitiveRelation()} faster than, invoking {@code areRelated(subject, object)} for
+     * each object in turn: the subject is looked up only once.
+     *
+     * @param relation the transitive relation
+     * @param subject the subject
+     * @param objects the objects to test the subject against
+     * @return {@code true} if {@code relation.areRelated(subject, object)} holds for all of the objects
+     */
+    public static <E> boolean areRelatedToAll(TransitiveRelation<E> relation, E subject, Iterable<? extends E> objects) {
+        relation = queryable(Preconditions.checkNotNull(relation));
+        Preconditions.checkNotNull(objects);
+        if (relation instanceof DefaultTransitiveRelation) {
+            return ((DefaultTransitiveRelation<E>)relation).areRelatedToAll(subject, objects);
+        }
+        for (E object : objects) {
+            if (!relation.areRelated(subject, object)) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Tests every subject against every object, and returns the results as a matrix, in row-major order: the bit
+     * {@code i * objects.size() + j} of the returned {@code BitSet} is set if and only if
+     * {@code relation.areRelated(subjects.get(i), objects.get(j))}.
+     *
+     * <p>For relations created by {@link #newTransitiveRelation()}, every element is looked up only once, and the
+     * labels of each object are swept against the (sorted) labels of all subjects at once, instead of being searched
+     * once per subject.
+     *
+     * @param relation the transitive relation
+     * @param subjects the subjects (rows of the matrix)
+     * @param objects the objects (columns of the matrix)
+     * @return the matrix of the related pairs
+     * @throws IllegalArgumentException if the matrix has more than {@code Integer.MAX_VALUE} cells
+     */
+    public static <E> BitSet relatedPairs(TransitiveRelation<E> relation, List<? extends E> subjects, List<? extends E> objects) {
+        relation = queryable(Preconditions.checkNotNull(relation));
+        Preconditions.checkArgument((long)subjects.size() * objects.size() <= Integer.MAX_VALUE,
+                "Too many pairs: %s x %s", subjects.size(), objects.size());
+        if (relation instanceof DefaultTransitiveRelation) {
+            return ((DefaultTransitiveRelation<E>)relation).relatedPairs(subjects, objects);
+        }
+        BitSet result = new BitSet(subjects.size() * objects.size());
+        int cell = 0;
+        for (E subject : subjects) {
+            for (E object : objects) {
+                if (relation.areRelated(subject, object)) {
+                    result.set(cell);
+                }
+                cell++;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Resolves an element of a transitive relation into a {@linkplain ElementHandle handle}, through which the element
+     * can be queried repeatedly without being looked up each time. The element need not be an element of the
+     * relation yet.
+     *
+     * @param relation the transitive relation
+     * @param element the element
+     * @return a handle of the element in the relation
+     */
+    public static <E> ElementHandle<E> handle(TransitiveRelation<E> relation, E element) {
+        return new ElementHandle<E>(queryable(Preconditions.checkNotNull(relation)), element);
+    }
+
+    /**
+     * Resolves the specified elements of a transitive relation into {@linkplain ElementHandle handles}, as by
+     * {@link #handle(TransitiveRelation, Object)}.
+     *
+     * @param relation the transitive relation
+     * @param elements the elements
+     * @return the handles of the elements in the relation, in the same order
+     */
+    public static <E> List<ElementHandle<E>> handles(TransitiveRelation<E> relation, Iterable<? extends E> elements) {
+        TransitiveRelation<E> queryable = queryable(Preconditions.checkNotNull(relation));
+        List<ElementHandle<E>> handles = new ArrayList<ElementHandle<E>>();
+        for (E element : elements) {
+            handles.add(new ElementHandle<E>(queryable, element));
+        }
+        return handles;
+    }
+
+    /**
+     * Tests whether the element of a handle is related to the element of another handle of the same relation. This
+     * is equivalent to {@code relation.areRelated(subject.element(), object.element())}, but for relations created
+     * by this class, the elements are not looked up (see {@link ElementHandle}).
+     *
+     * @param subject the handle of the subject
+     * @param object the handle of the object
+     * @return whether the subject is related to the object
+     * @throws IllegalArgumentException if the handles were obtained from different relations
+     */
+    public static <E> boolean areRelated(ElementHandle<E> subject, ElementHandle<E> object) {
+        TransitiveRelation<E> relation = subject.relation();
+        if (object.relation() != relation) {
+            throw new IllegalArgumentException("Handles of different relations: " + subject + ", " + object);
+        }
+        if (relation instanceof DefaultTransitiveRelation) {
+            return ((DefaultTransitiveRelation<E>)relation).areRelated(subject, object);
+        }
+        return relation.areRelated(subject.element(), object.element());
+    }
+
+    /**
+     * Tests whether the element of a handle is related to the element of any of the specified handles, like
+     * {@link #areRelatedToAny(TransitiveRelation, Object, Iterable)}, but without looking up the elements.
+     *
+     * @param subject the handle of the subject
+     * @param objects the handles of the objects, of the same relation as the subject
+     * @return {@code true} if the subject is related to some of the objects
+     * @throws IllegalArgumentException if the handles were obtained from different relations
+     */
+    public static <E> boolean areRelatedToAny(ElementHandle<E> subject, Iterable<? extends ElementHandle<E>> objects) {
+        for (ElementHandle<E> object : objects) {
+            if (areRelated(subject, object)) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Tests every subject against every object, like {@link #relatedPairs(TransitiveRelation, List, List)}, but
+     * through handles, so that no element is looked up.
+     *
+     * @param subjects the handles of the subjects (rows of the matrix)
+     * @param objects the handles of the objects (columns of the matrix), of the same relation as the subjects
+     * @return the matrix of the related pairs
+     * @throws IllegalArgumentException if the handles were obtained from different relations, or if the matrix has
+     * more than {@code Integer.MAX_VALUE} cells
+     */
+    public static <E> BitSet relatedPairs(List<? extends ElementHandle<E>> subjects,
+            List<? extends ElementHandle<E>> objects) {
+        Preconditions.checkArgument((long)subjects.size() * objects.size() <= Integer.MAX_VALUE,
+                "Too many pairs: %s x %s", subjects.size(), objects.size());
+        TransitiveRelation<E> relation = !subjects.isEmpty() ? subjects.get(0).relation()
+                : !objects.isEmpty() ? objects.get(0).relation() : null;
+        checkRelation(subjects, relation);
+        checkRelation(objects, relation);
+        if (relation instanceof DefaultTransitiveRelation) {
+            return ((DefaultTransitiveRelation<E>)relation).relatedHandlePairs(subjects, objects);
+        }
+        BitSet result = new BitSet(subjects.size() * objects.size());
+        int cell = 0;
+        for (ElementHandle<E> subject : subjects) {
+            for (ElementHandle<E> object : objects) {
+                if (areRelated(subject, object)) {
+                    result.set(cell);
+                }
+                cell++;
+            }
+        }
+        return result;
+    }
+
+    private static void checkRelation(List<? extends ElementHandle<?>> handles, TransitiveRelation<?> relation) {
+        for (ElementHandle<?> handle : handles) {
+            Preconditions.checkArgument(handle.relation() == relation, "Handles of different relations");
+        }
+    }
+
+    /**
+     * Returns the relation that answers the queries of the specified one: the relation itself, stripped of the
+     * unmodifiable views of this class, or the labeling of a bidirectional relation of this class.
+     */
+    private static <E> TransitiveRelation<E> queryable(TransitiveRelation<E> relation) {
+        return DefaultTransitiveBiRelation.labelingOf(unwrap(relation));
+    }
+
+    /**
+     * Strips the unmodifiable views of this class, which do not affect queries.
+     */
+    private static <E> TransitiveRelation<E> unwrap(TransitiveRelation<E> relation) {
+        while (true) {
+            if (relation instanceof UnmodifiableTransitiveRelation) {
+                relation = ((UnmodifiableTransitiveRelation<E>)relation).delegate();
+            } else if (relation instanceof UnmodifiableTransitiveBiRelation) {
+                relation = ((UnmodifiableTransitiveBiRelation<E>)relation).delegate();
+            } else {
+                return relation;
+            }
+        }
+    }
+
     /**
      * Creates an unmodifiable view of a transitive relation. In particular, {@link TransitiveRelation#relate(Object, Object)}
      * on the view throws {@code UnsupportedOperationException}. The view is also {@link Serializable}.
@@ -100,6 +776,33 @@ public final class Relations {
         }
     }
 
+    /**
+     * Relates, in bulk, all the specified subject-object pairs (map entries, with the subject as the key and the
+     * object as the value). The relationships are allowed to form cycles.
+     *
+     * <p>The effects of this method are equivalent to invoking the code:
+     *<pre>{@code
+        for (Map.Entry<E, E> relationship : relationships) {
+            relation.relate(relationship.getKey(), relationship.getValue());
+        }
+     *}</pre>
+     *
+     * <p>However, this method first collects all relationships, so that, instead of depending on the iteration
+     * order, it can choose which relationships to use as the backbone of the representation: it relates first a
+     * spanning forest that nests each element inside the object with the longest chain of objects above it (with
+     * strongly connected components treated as single elements), and then the remaining relationships,
+     * in topological order. This typically results in much more memory-efficient representation of the
+     * relationships, and less work to compute it.
+     *
+     * @param relation the transitive relation into which to relate the pairs
+     * @param relationships the subject-object pairs to relate
+     */
+    public static <E> void relateAll(TransitiveRelation<? super E> relation,
+            Iterable<? extends Map.Entry<? extends E, ? extends E>> relationships) {
+        Preconditions.checkNotNull(relation);
+        SpanningForest.<E>create(relationships).relateInto(relation);
+    }
+
     /**
      * Merges into a {@link TransitiveRelation} all particular relationships found in the specified
      * navigator. The relationships of the navigator are allowed to form a cycle (if it is known that
@@ -141,6 +844,52 @@ public final class Relations {
         }
     }
 
+    /**
+     * Merges into a {@link TransitiveRelation} all particular relationships found in the specified navigator,
+     * like {@link #merge(TransitiveRelation, Navigator)}, but labeling independent parts of it in parallel, on the
+     * specified executor. The relationships of the navigator are allowed to form cycles.
+     *
+     * <p>The relationships are split into weakly connected components (sets of elements connected by
+     * relationships in either direction), which are labeled in separate relations, in parallel, and then
+     * appended, in linear time, to the labeling of the specified relation. This gives a near-linear speedup for
+     * navigators consisting of many independent components, such as forests of disjoint hierarchies. Components
+     * sharing elements with the relation are related into it afterwards, on the calling thread; so is everything
+     * if the relation was not created by {@link #newTransitiveRelation()} or {@link #newTwoLevelTransitiveRelation()}.
+     *
+     * <p>The relation must not be accessed by other threads until this method returns. If it throws an exception,
+     * or it is interrupted, the relation may contain only some of the relationships of the navigator.
+     *
+     * @param relation the transitive relation into which to merge the relationships of the navigator
+     * @param navigator a navigator
+     * @param executor the executor on which to label the components
+     * @throws InterruptedException if the calling thread is interrupted while waiting for the labeling of components
+     */
+    public static <E> void parallelMerge(TransitiveRelation<? super E> relation, Navigator<E> navigator,
+            ExecutorService executor) throws InterruptedException {
+        Preconditions.checkNotNull(relation);
+        Preconditions.checkNotNull(executor);
+        ParallelMerge.create(navigator).mergeInto(relation, executor);
+    }
+
+    /**
+     * Merges into a {@link TransitiveRelation} all particular relationships found in the specified navigator,
+     * like {@link #parallelMerge(TransitiveRelation, Navigator, ExecutorService)}, using a thread per available
+     * processor.
+     *
+     * @param relation the transitive relation into which to merge the relationships of the navigator
+     * @param navigator a navigator
+     * @throws InterruptedException if the calling thread is interrupted while waiting for the labeling of components
+     */
+    public static <E> void parallelMerge(TransitiveRelation<? super E> relation, Navigator<E> navigator)
+            throws InterruptedException {
+        ExecutorService executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+        try {
+            parallelMerge(relation, navigator, executor);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
     /**
      * Merges into a {@link TransitiveRelation} all particular relationships found in the specified
      * <em>acyclic</em> navigator. If the relationships of the navigator are found to form a cycle, an
@@ -171,7 +920,7 @@ public final class Relations {
         //this code first adds the relationships forming the tree with longest paths, to induce
         //good interval compression, then the rest relationships (for simplicitly, all are added, the redundancy is not important)
         List<E> postOrder = Navigators.topologicalOrder(acyclicNavigator);
-        Map<E, Integer> pathLengths = new IdentityHashMap<E, Integer>(acyclicNavigator.domain().size());
+        Map<E, Integer> pathLengths = new HashMap<E, Integer>(acyclicNavigator.domain().size() * 2);
         for (E subject : postOrder) {
             int longestPath = -1;
             E objectWithMaxPath = null;
@@ -0,0 +1,24 @@
+package edu.bath.transitivityutils;
+
+/**
+ * A transitive relation whose relationships and elements can also be removed.
+ *
+ * @see Relations#unrelate(TransitiveRelation, Object, Object)
+ * @see Relations#remove(TransitiveRelation, Object)
+ * @author Andreou Dimitris, email: jim.andreou (at) gmail.com
+ */
+interface RemovableTransitiveRelation<E> extends TransitiveRelation<E> {
+    /**
+     * Removes a direct relationship, i.e. one that was created by {@link #relate(Object, Object)}.
+     *
+     * @return {@code true} if the relationship existed
+     */
+    boolean unrelate(E subject, E object);
+
+    /**
+     * Removes an element, along with all its direct relationships (in both directions).
+     *
+     * @return {@code true} if the element existed
+     */
+    boolean remove(E element);
+}
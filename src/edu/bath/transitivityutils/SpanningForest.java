@@ -0,0 +1,330 @@
+package edu.bath.transitivityutils;
+
+import com.google.common.base.Objects;
+import com.google.common.base.Preconditions;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A whole set of relationships, together with a spanning forest of them that induces good interval compression,
+ * and an order in which to relate them.
+ *
+ * <p>Every element is assigned a <em>tree parent</em>: one of the objects it is directly related to, inside
+ * whose interval its own interval will be nested. The strongly connected components of the relationships are
+ * found first (their members are all equivalent); within a component, the members form a tree under a single
+ * root, and the root is attached to the external object with the longest path to a sink. This way each element
+ * obtains for free (through nesting) the longest possible chain of objects to which it is related, and the
+ * remaining relationships only need to copy intervals to the rest.
+ *
+ * <p>{@link #relateInto(TransitiveRelation)} relates the tree edges first, from the roots downwards, so that every
+ * element is created already enclosed by its parent, and then the remaining relationships in topological order
+ * (subjects before objects), so that each interval set is complete before it is propagated further.
+ *
+ * <p>All computations are done on dense int ids, not on the elements themselves.
+ *
+ * @author Andreou Dimitris, email: jim.andreou (at) gmail.com
+ */
+final class SpanningForest<E> {
+    private final ElementIndex<E> index;
+
+    //the (deduplicated) relationships, as adjacency lists in CSR form
+    private final int[] offsets;
+    private final int[] targets;
+
+    private final int[] parent;
+    private final int[] componentOf;
+
+    //the members of each component, grouped by component; components appear in reverse topological order
+    private final int[] members;
+    private final int[] componentStart;
+    private final int componentCount;
+
+    private SpanningForest(ElementIndex<E> index, int[] offsets, int[] targets) {
+        this.index = index;
+        this.offsets = offsets;
+        this.targets = targets;
+
+        int n = index.size();
+        this.parent = new int[n];
+        Arrays.fill(parent, -1);
+        this.componentOf = new int[n];
+        this.members = new int[n];
+        this.componentStart = new int[n + 1];
+        this.componentCount = findComponents();
+        chooseParents();
+    }
+
+    /**
+     * Collects the specified relationships (ignoring reflexive ones).
+     */
+    static <E> SpanningForest<E> create(Iterable<? extends Map.Entry<? extends E, ? extends E>> relationships) {
+        Set<Object> elements = new LinkedHashSet<Object>();
+        Object[] subjects = new Object[16];
+        Object[] objects = new Object[16];
+        int count = 0;
+        for (Map.Entry<? extends E, ? extends E> relationship : relationships) {
+            E subject = relationship.getKey();
+            E object = relationship.getValue();
+            if (Objects.equal(subject, object)) continue;
+            if (count == subjects.length) {
+                subjects = MoreArrays.copyOf(subjects, count * 2);
+                objects = MoreArrays.copyOf(objects, count * 2);
+            }
+            subjects[count] = subject;
+            objects[count] = object;
+            count++;
+            elements.add(subject);
+            elements.add(object);
+        }
+        ElementIndex<E> index = new ElementIndex<E>(elements.toArray());
+        int[] subjectIds = new int[count];
+        int[] objectIds = new int[count];
+        for (int i = 0; i < count; i++) {
+            subjectIds[i] = index.indexOf(subjects[i]);
+            objectIds[i] = index.indexOf(objects[i]);
+        }
+        return create(index, subjectIds, objectIds, count);
+    }
+
+    /**
+     * Collects all relationships of the specified navigator (ignoring reflexive ones).
+     */
+    static <E> SpanningForest<E> create(Navigator<E> navigator) {
+        Set<Object> elements = new LinkedHashSet<Object>();
+        int count = 0;
+        for (E subject : navigator.domain()) {
+            elements.add(subject);
+            for (E object : navigator.related(subject)) {
+                elements.add(object);
+                count++;
+            }
+        }
+        ElementIndex<E> index = new ElementIndex<E>(elements.toArray());
+        int[] subjectIds = new int[count];
+        int[] objectIds = new int[count];
+        count = 0;
+        for (E subject : navigator.domain()) {
+            int subjectId = index.indexOf(subject);
+            for (E object : navigator.related(subject)) {
+                int objectId = index.indexOf(object);
+                if (subjectId == objectId) continue;
+                subjectIds[count] = subjectId;
+                objectIds[count] = objectId;
+                count++;
+            }
+        }
+        return create(index, subjectIds, objectIds, count);
+    }
+
+    private static <E> SpanningForest<E> create(ElementIndex<E> index, int[] subjectIds, int[] objectIds, int count) {
+        int n = index.size();
+        int[] offsets = new int[n + 1];
+        for (int i = 0; i < count; i++) {
+            offsets[subjectIds[i] + 1]++;
+        }
+        for (int i = 0; i < n; i++) {
+            offsets[i + 1] += offsets[i];
+        }
+        int[] targets = new int[count];
+        int[] fill = MoreArrays.copyOf(offsets, n);
+        for (int i = 0; i < count; i++) {
+            targets[fill[subjectIds[i]]++] = objectIds[i];
+        }
+
+        //sort and deduplicate each adjacency list, compacting in place
+        int write = 0;
+        for (int v = 0; v < n; v++) {
+            int from = offsets[v];
+            int to = offsets[v + 1];
+            Arrays.sort(targets, from, to);
+            offsets[v] = write;
+            for (int i = from; i < to; i++) {
+                if (i == from || targets[i] != targets[i - 1]) {
+                    targets[write++] = targets[i];
+                }
+            }
+        }
+        offsets[n] = write;
+        return new SpanningForest<E>(index, offsets, MoreArrays.copyOf(targets, write));
+    }
+
+    /**
+     * Tarjan's algorithm, without recursion. Returns the number of strongly connected components.
+     */
+    private int findComponents() {
+        final int n = index.size();
+        int[] order = new int[n];
+        Arrays.fill(order, -1);
+        int[] low = new int[n];
+        boolean[] onStack = new boolean[n];
+        int[] stack = new int[n];
+        int sp = 0;
+        int[] callStack = new int[n];
+        int[] edgeCursor = new int[n];
+        int csp = 0;
+
+        int counter = 0;
+        int components = 0;
+        int memberCount = 0;
+        for (int root = 0; root < n; root++) {
+            if (order[root] != -1) continue;
+            order[root] = low[root] = counter++;
+            stack[sp++] = root;
+            onStack[root] = true;
+            callStack[csp] = root;
+            edgeCursor[csp++] = offsets[root];
+
+            while (csp > 0) {
+                int v = callStack[csp - 1];
+                if (edgeCursor[csp - 1] < offsets[v + 1]) {
+                    int w = targets[edgeCursor[csp - 1]++];
+                    if (order[w] == -1) {
+                        order[w] = low[w] = counter++;
+                        stack[sp++] = w;
+                        onStack[w] = true;
+                        callStack[csp] = w;
+                        edgeCursor[csp++] = offsets[w];
+                    } else if (onStack[w]) {
+                        low[v] = Math.min(low[v], order[w]);
+                    }
+                } else {
+                    csp--;
+                    if (low[v] == order[v]) {
+                        componentStart[components] = memberCount;
+                        int w;
+                        do {
+                            w = stack[--sp];
+                            onStack[w] = false;
+                            componentOf[w] = components;
+                            members[memberCount++] = w;
+                        } while (w != v);
+                        components++;
+                    }
+                    if (csp > 0) {
+                        int u = callStack[csp - 1];
+                        low[u] = Math.min(low[u], low[v]);
+                    }
+                }
+            }
+        }
+        componentStart[components] = memberCount;
+        return components;
+    }
+
+    private void chooseParents() {
+        int n = index.size();
+        //reverse adjacency, to walk inside components towards their roots
+        int[] reverseOffsets = new int[n + 1];
+        for (int i = 0; i < targets.length; i++) {
+            reverseOffsets[targets[i] + 1]++;
+        }
+        for (int i = 0; i < n; i++) {
+            reverseOffsets[i + 1] += reverseOffsets[i];
+        }
+        int[] reverseTargets = new int[targets.length];
+        int[] fill = MoreArrays.copyOf(reverseOffsets, n);
+        for (int v = 0; v < n; v++) {
+            for (int i = offsets[v]; i < offsets[v + 1]; i++) {
+                reverseTargets[fill[targets[i]]++] = v;
+            }
+        }
+
+        int[] depth = new int[componentCount]; //longest path to a sink, in components
+        boolean[] attached = new boolean[n];
+        int[] queue = new int[n];
+        //components are in reverse topological order, so objects are always processed before their subjects
+        for (int c = 0; c < componentCount; c++) {
+            int bestSubject = -1;
+            int bestObject = -1;
+            int bestDepth = -1;
+            for (int m = componentStart[c]; m < componentStart[c + 1]; m++) {
+                int v = members[m];
+                for (int i = offsets[v]; i < offsets[v + 1]; i++) {
+                    int w = targets[i];
+                    int d = componentOf[w];
+                    if (d != c && depth[d] > bestDepth) {
+                        bestDepth = depth[d];
+                        bestSubject = v;
+                        bestObject = w;
+                    }
+                }
+            }
+            depth[c] = bestDepth + 1;
+
+            int root = members[componentStart[c]];
+            if (bestSubject != -1) {
+                root = bestSubject;
+                parent[root] = bestObject;
+            }
+            //breadth-first from the root, against the direction of the relationships
+            int head = 0;
+            int tail = 0;
+            queue[tail++] = root;
+            attached[root] = true;
+            while (head < tail) {
+                int v = queue[head++];
+                for (int i = reverseOffsets[v]; i < reverseOffsets[v + 1]; i++) {
+                    int u = reverseTargets[i];
+                    if (componentOf[u] == c && !attached[u]) {
+                        attached[u] = true;
+                        parent[u] = v;
+                        queue[tail++] = u;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Relates all collected relationships into the specified relation: first the tree edges, top-down,
+     * then the rest, in topological order.
+     */
+    void relateInto(TransitiveRelation<? super E> relation) {
+        Preconditions.checkNotNull(relation);
+        final int n = index.size();
+
+        //children lists of the forest
+        int[] childOffsets = new int[n + 1];
+        for (int v = 0; v < n; v++) {
+            if (parent[v] != -1) childOffsets[parent[v] + 1]++;
+        }
+        for (int v = 0; v < n; v++) {
+            childOffsets[v + 1] += childOffsets[v];
+        }
+        int[] children = new int[childOffsets[n]];
+        int[] fill = MoreArrays.copyOf(childOffsets, n);
+        for (int v = 0; v < n; v++) {
+            if (parent[v] != -1) children[fill[parent[v]]++] = v;
+        }
+
+        int[] queue = new int[n];
+        int tail = 0;
+        for (int v = 0; v < n; v++) {
+            if (parent[v] == -1) queue[tail++] = v;
+        }
+        for (int head = 0; head < tail; head++) {
+            int v = queue[head];
+            E object = index.get(v);
+            for (int i = childOffsets[v]; i < childOffsets[v + 1]; i++) {
+                int child = children[i];
+                relation.relate(index.get(child), object);
+                queue[tail++] = child;
+            }
+        }
+
+        for (int c = componentCount - 1; c >= 0; c--) {
+            for (int m = componentStart[c]; m < componentStart[c + 1]; m++) {
+                int v = members[m];
+                E subject = index.get(v);
+                for (int i = offsets[v]; i < offsets[v + 1]; i++) {
+                    int w = targets[i];
+                    if (w != parent[v]) {
+                        relation.relate(subject, index.get(w));
+                    }
+                }
+            }
+        }
+    }
+}
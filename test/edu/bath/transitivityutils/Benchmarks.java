@@ -0,0 +1,311 @@
+package edu.bath.transitivityutils;
+
+import com.google.common.collect.Lists;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * A repeatable benchmark suite, measuring for every {@link Workload}:
+ * <ul>
+ * <li>relate throughput (relating edges one by one in random order, or in bulk through {@link Relations#relateAll}),
+ * also for {@linkplain Relations#newTwoLevelTransitiveRelation() two-level} relations
+ * <li>{@link Relations#merge}, {@link Relations#parallelMerge} and {@link Relations#mergeAcyclic}
+ * <li>areRelated latency, separately for pairs that are related and pairs that are not, and through
+ * {@linkplain ElementHandle element handles}
+ * <li>areRelated throughput of {@linkplain Relations#newConcurrentTransitiveRelation() concurrent} relations,
+ * queried by 1, 2, 4 and 8 threads at once
+ * <li>serialization round trips
+ * <li>insert-heavy loads of one-level and two-level {@link OrderList}s, inserting at random positions, or always
+ * after the same (hot spot) node, the worst case of the former; the latter also at 4, 16 and 64 times the size,
+ * to show how the time per insertion scales
+ * </ul>
+ *
+ * <p>Every benchmark is run for a few warmup iterations before it is measured, and the mean and minimum
+ * time per operation over the measured iterations are reported. Usage:
+ * <pre>
+ * java edu.bath.transitivityutils.Benchmarks [size [filter]]
+ * </pre>
+ * where {@code size} is the number of elements of each workload (default: 10000), and {@code filter}
+ * restricts the benchmarks to those whose name contains it.
+ *
+ * @author Andreou Dimitris, email: jim.andreou (at) gmail.com
+ */
+class Benchmarks {
+    static final int WARMUP_ITERATIONS = 5;
+    static final int MEASURED_ITERATIONS = 10;
+    static final int QUERIES = 100000;
+    static final long SEED = 0L;
+
+    /**
+     * Results are accumulated here, so that the measured code cannot be optimized away.
+     */
+    static volatile long sink;
+
+    interface Task {
+        /**
+         * Runs one iteration, and returns some value computed by it.
+         */
+        long run();
+    }
+
+    public static void main(String[] args) {
+        int size = args.length > 0 ? Integer.parseInt(args[0]) : 10000;
+        String filter = args.length > 1 ? args[1] : "";
+
+        System.out.printf("%-34s %-16s %14s %14s%n", "benchmark", "workload", "mean ns/op", "min ns/op");
+        for (Workload workload : Workload.values()) {
+            runAll(workload, size, filter);
+        }
+        runOrderLists(size, filter);
+    }
+
+    private static void runOrderLists(final int size, String filter) {
+        for (final boolean twoLevel : new boolean[] { false, true }) {
+            String name = twoLevel ? "orderList insert(two-level)" : "orderList insert";
+            run(filter, name, "random", size, new Task() {
+                public long run() {
+                    Random random = new Random(SEED);
+                    OrderList<Integer> list = twoLevel ? OrderList.<Integer>createTwoLevel() : OrderList.<Integer>create();
+                    List<OrderList.Node<Integer>> nodes = Lists.newArrayListWithCapacity(size + 1);
+                    nodes.add(list.base());
+                    for (int i = 0; i < size; i++) {
+                        nodes.add(list.addAfter(nodes.get(random.nextInt(nodes.size())), i));
+                    }
+                    return list.relabelCount();
+                }
+            });
+            //the same workload at growing sizes: the time per insertion should stay (roughly) flat
+            for (int scale = 1; scale <= 64; scale *= 4) {
+                final int count = size * scale;
+                run(filter, name, scale == 1 ? "hot spot" : "hot spot x" + scale, count, new Task() {
+                    public long run() {
+                        OrderList<Integer> list = twoLevel ? OrderList.<Integer>createTwoLevel() : OrderList.<Integer>create();
+                        OrderList.Node<Integer> hotSpot = list.addAfter(list.base(), -1);
+                        for (int i = 0; i < count; i++) {
+                            list.addAfter(hotSpot, i);
+                        }
+                        return list.relabelCount();
+                    }
+                });
+            }
+        }
+    }
+
+    private static void runAll(final Workload workload, final int size, String filter) {
+        final List<Map.Entry<Integer, Integer>> relationships = workload.relationships(size, SEED);
+        final Navigator<Integer> navigator = Navigators.forMultimap(workload.navigableEdges(size, SEED));
+        final int edges = relationships.size();
+
+        run(filter, "relate", workload, edges, new Task() {
+            public long run() {
+                TransitiveRelation<Integer> relation = Relations.newTransitiveRelation();
+                for (Map.Entry<Integer, Integer> relationship : relationships) {
+                    relation.relate(relationship.getKey(), relationship.getValue());
+                }
+                return relation.hashCode();
+            }
+        });
+
+        run(filter, "relate(two-level)", workload, edges, new Task() {
+            public long run() {
+                TransitiveRelation<Integer> relation = Relations.newTwoLevelTransitiveRelation();
+                for (Map.Entry<Integer, Integer> relationship : relationships) {
+                    relation.relate(relationship.getKey(), relationship.getValue());
+                }
+                return relation.hashCode();
+            }
+        });
+
+        run(filter, "relateAll", workload, edges, new Task() {
+            public long run() {
+                TransitiveRelation<Integer> relation = Relations.newTransitiveRelation();
+                Relations.relateAll(relation, relationships);
+                return relation.hashCode();
+            }
+        });
+
+        run(filter, "merge", workload, edges, new Task() {
+            public long run() {
+                TransitiveRelation<Integer> relation = Relations.newTransitiveRelation();
+                Relations.merge(relation, navigator);
+                return relation.hashCode();
+            }
+        });
+
+        final ExecutorService executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+        try {
+            run(filter, "parallelMerge", workload, edges, new Task() {
+                public long run() {
+                    TransitiveRelation<Integer> relation = Relations.newTransitiveRelation();
+                    try {
+                        Relations.parallelMerge(relation, navigator, executor);
+                    } catch (InterruptedException e) {
+                        throw new RuntimeException(e);
+                    }
+                    return relation.hashCode();
+                }
+            });
+        } finally {
+            executor.shutdown();
+        }
+
+        if (workload.isAcyclic()) {
+            run(filter, "mergeAcyclic", workload, edges, new Task() {
+                public long run() {
+                    TransitiveRelation<Integer> relation = Relations.newTransitiveRelation();
+                    Relations.mergeAcyclic(relation, navigator);
+                    return relation.hashCode();
+                }
+            });
+        }
+
+        final TransitiveRelation<Integer> relation = Relations.newTransitiveRelation();
+        Relations.relateAll(relation, relationships);
+        final Integer[][] queries = queries(relation, size);
+        final Integer[] hitSubjects = queries[0];
+        final Integer[] hitObjects = queries[1];
+        final Integer[] missSubjects = queries[2];
+        final Integer[] missObjects = queries[3];
+
+        run(filter, "areRelated(hit)", workload, hitSubjects.length, new Task() {
+            public long run() {
+                long count = 0;
+                for (int i = 0; i < hitSubjects.length; i++) {
+                    if (relation.areRelated(hitSubjects[i], hitObjects[i])) count++;
+                }
+                return count;
+            }
+        });
+
+        final List<ElementHandle<Integer>> hitSubjectHandles = Relations.handles(relation, Arrays.asList(hitSubjects));
+        final List<ElementHandle<Integer>> hitObjectHandles = Relations.handles(relation, Arrays.asList(hitObjects));
+        run(filter, "areRelated(hit, handles)", workload, hitSubjects.length, new Task() {
+            public long run() {
+                long count = 0;
+                for (int i = 0; i < hitSubjects.length; i++) {
+                    if (Relations.areRelated(hitSubjectHandles.get(i), hitObjectHandles.get(i))) count++;
+                }
+                return count;
+            }
+        });
+
+        run(filter, "areRelated(miss)", workload, missSubjects.length, new Task() {
+            public long run() {
+                long count = 0;
+                for (int i = 0; i < missSubjects.length; i++) {
+                    if (relation.areRelated(missSubjects[i], missObjects[i])) count++;
+                }
+                return count;
+            }
+        });
+
+        final TransitiveRelation<Integer> concurrent = Relations.newConcurrentTransitiveRelation();
+        Relations.relateAll(concurrent, relationships);
+        for (final int threads : new int[] { 1, 2, 4, 8 }) {
+            //every thread runs all the queries, so the time per query falls as the throughput scales
+            final ExecutorService readers = Executors.newFixedThreadPool(threads);
+            final List<Callable<Long>> tasks = Lists.newArrayList();
+            for (int i = 0; i < threads; i++) {
+                tasks.add(new Callable<Long>() {
+                    public Long call() {
+                        long count = 0;
+                        for (int i = 0; i < hitSubjects.length; i++) {
+                            if (concurrent.areRelated(hitSubjects[i], hitObjects[i])) count++;
+                        }
+                        return count;
+                    }
+                });
+            }
+            try {
+                run(filter, "concurrent areRelated(" + threads + " threads)", workload,
+                        threads * hitSubjects.length, new Task() {
+                    public long run() {
+                        long count = 0;
+                        try {
+                            for (Future<Long> result : readers.invokeAll(tasks)) {
+                                count += result.get();
+                            }
+                        } catch (Exception e) {
+                            throw new RuntimeException(e);
+                        }
+                        return count;
+                    }
+                });
+            } finally {
+                readers.shutdown();
+            }
+        }
+
+        run(filter, "serialization round trip", workload, 1, new Task() {
+            public long run() {
+                return SerializationUtils.serializedCopy(relation).hashCode();
+            }
+        });
+    }
+
+    /**
+     * Returns {hit subjects, hit objects, miss subjects, miss objects}, each of (at most) QUERIES length.
+     */
+    private static Integer[][] queries(TransitiveRelation<Integer> relation, int size) {
+        Random random = new Random(SEED);
+        List<Integer> hitSubjects = Lists.newArrayList();
+        List<Integer> hitObjects = Lists.newArrayList();
+        List<Integer> missSubjects = Lists.newArrayList();
+        List<Integer> missObjects = Lists.newArrayList();
+
+        //hits are found by random walks along the direct relationships
+        Navigator<Integer> direct = relation.direct();
+        for (int attempt = 0; attempt < 100 * QUERIES && hitSubjects.size() < QUERIES; attempt++) {
+            Integer subject = random.nextInt(size);
+            Integer object = subject;
+            int steps = 1 + random.nextInt(8);
+            for (int i = 0; i < steps; i++) {
+                List<Integer> related = Lists.newArrayList(direct.related(object));
+                if (related.isEmpty()) break;
+                object = related.get(random.nextInt(related.size()));
+            }
+            if (!object.equals(subject)) {
+                hitSubjects.add(subject);
+                hitObjects.add(object);
+            }
+        }
+        for (int attempt = 0; attempt < 100 * QUERIES && missSubjects.size() < QUERIES; attempt++) {
+            Integer subject = random.nextInt(size);
+            Integer object = random.nextInt(size);
+            if (!relation.areRelated(subject, object)) {
+                missSubjects.add(subject);
+                missObjects.add(object);
+            }
+        }
+        return new Integer[][] {
+            hitSubjects.toArray(new Integer[0]), hitObjects.toArray(new Integer[0]),
+            missSubjects.toArray(new Integer[0]), missObjects.toArray(new Integer[0])
+        };
+    }
+
+    static void run(String filter, String name, Object workload, int operations, Task task) {
+        if (!name.contains(filter) || operations == 0) {
+            return;
+        }
+        for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+            sink += task.run();
+        }
+        long total = 0L;
+        long min = Long.MAX_VALUE;
+        for (int i = 0; i < MEASURED_ITERATIONS; i++) {
+            long start = System.nanoTime();
+            sink += task.run();
+            long time = System.nanoTime() - start;
+            total += time;
+            min = Math.min(min, time);
+        }
+        double mean = (double)total / MEASURED_ITERATIONS / operations;
+        System.out.printf("%-34s %-16s %14.1f %14.1f%n", name, workload, mean, (double)min / operations);
+    }
+}
@@ -0,0 +1,131 @@
+package edu.bath.transitivityutils;
+
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import static edu.bath.transitivityutils.RelationAssertions.*;
+
+/**
+ *
+ * @author Andreou Dimitris, email: jim.andreou (at) gmail.com
+ */
+public class ConcurrentTransitiveRelationTest {
+
+    @Test
+    public void testCyclic() {
+        TransitiveRelation<Integer> r = Relations.newConcurrentTransitiveRelation();
+        r.relate(2, 3);
+        r.relate(2, 4);
+        r.relate(1, 2);
+        r.relate(0, 1);
+        r.relate(2, 0);
+
+        assertRelations(r,
+                0, 1,
+                0, 2,
+                0, 3,
+                0, 4,
+                1, 0,
+                1, 2,
+                1, 3,
+                1, 4,
+                2, 0,
+                2, 1,
+                2, 3,
+                2, 4);
+        assertDirectRelations(r,
+                2, 3,
+                2, 4,
+                1, 2,
+                0, 1,
+                2, 0);
+    }
+
+    @Test
+    public void testNulls() {
+        TransitiveRelation<Integer> r = Relations.newConcurrentTransitiveRelation();
+        r.relate(1, 2);
+        assertTrue(r.areRelated(null, null));
+        assertFalse(r.areRelated(null, 2));
+        assertFalse(r.areRelated(1, null));
+        try {
+            r.relate(null, 2);
+            fail();
+        } catch (NullPointerException ok) { }
+    }
+
+    @Test
+    public void testSerializable() {
+        TransitiveRelation<Integer> r = Relations.newConcurrentTransitiveRelation();
+        r.relate(0, 1);
+        r.relate(1, 0);
+        r.relate(4, 1);
+        r.relate(4, 5);
+
+        assertRelations(SerializationUtils.serializedCopy(r),
+                0, 1,
+                1, 0,
+                4, 0,
+                4, 1,
+                4, 5);
+    }
+
+    @Test
+    public void testConcurrentReadersSeeMonotonicRelation() throws Exception {
+        final TransitiveRelation<Integer> r = Relations.newConcurrentTransitiveRelation();
+        final int total = 300;
+        final int readers = 4;
+        final CountDownLatch done = new CountDownLatch(readers);
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        final boolean[] finished = new boolean[1];
+
+        for (int i = 0; i < readers; i++) {
+            final Random random = new Random(i);
+            new Thread() {
+                @Override public void run() {
+                    try {
+                        boolean[][] seen = new boolean[total][total];
+                        while (!isFinished(finished)) {
+                            int subject = random.nextInt(total);
+                            int object = random.nextInt(total);
+                            boolean related = r.areRelated(subject, object);
+                            //relationships are only ever added, so a pair that was seen related must stay related
+                            assertTrue(related || !seen[subject][object]);
+                            seen[subject][object] = related;
+                        }
+                    } catch (Throwable t) {
+                        failure.set(t);
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            }.start();
+        }
+
+        Random random = new Random(42);
+        for (int i = 0; i < total * 4; i++) {
+            r.relate(random.nextInt(total), random.nextInt(total));
+        }
+        synchronized (finished) {
+            finished[0] = true;
+        }
+        done.await();
+        assertNull(failure.get());
+
+        for (int subject = 0; subject < total; subject++) {
+            Set<Integer> closure = Navigators.closure(r.direct(), subject);
+            for (int object = 0; object < total; object++) {
+                assertEquals(closure.contains(object), r.areRelated(subject, object));
+            }
+        }
+    }
+
+    private static boolean isFinished(boolean[] finished) {
+        synchronized (finished) {
+            return finished[0];
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package edu.bath.transitivityutils;
+
+import com.google.common.collect.HashMultimap;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSetMultimap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.SetMultimap;
+import java.util.List;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Andreou Dimitris, email: jim.andreou (at) gmail.com
+ */
+public class DfsTest {
+    private static class RecordingDfs extends Dfs<String> {
+        final List<String> events = Lists.newArrayList();
+
+        RecordingDfs(Navigator<String> navigator) {
+            super(navigator);
+        }
+
+        @Override
+        protected void preVisit(String value) {
+            events.add("pre " + value);
+        }
+
+        @Override
+        protected void treeEdge(String subject, String object) {
+            events.add("tree " + subject + "->" + object);
+        }
+
+        @Override
+        protected void backEdge(String subject, String object) {
+            events.add("back " + subject + "->" + object);
+        }
+
+        @Override
+        protected void postVisit(String value) {
+            events.add("post " + value);
+        }
+    }
+
+    @Test
+    public void testCallbacks() {
+        RecordingDfs dfs = new RecordingDfs(Navigators.forMultimap(ImmutableSetMultimap.of(
+                "a", "b",
+                "a", "c",
+                "b", "c",
+                "c", "a",
+                "d", "c")));
+        dfs.execute();
+        assertEquals(ImmutableList.of(
+                "pre a",
+                "tree a->b", "pre b",
+                "tree b->c", "pre c",
+                "back c->a", "post c",
+                "post b",
+                "post a",
+                "pre d", "post d"), dfs.events);
+
+        //reusable, with the same results
+        dfs.events.clear();
+        dfs.execute();
+        assertEquals(11, dfs.events.size());
+        assertEquals("back c->a", dfs.events.get(5));
+    }
+
+    @Test
+    public void testCycleReported() {
+        Dfs<String> dfs = new Dfs<String>(Navigators.forMultimap(ImmutableSetMultimap.of(
+                "x", "a",
+                "a", "b",
+                "b", "c",
+                "c", "a")));
+        try {
+            dfs.execute(false);
+            fail();
+        } catch (IllegalArgumentException expected) {
+            assertEquals("Cycle detected in navigator: a -> b -> c -> a", expected.getMessage());
+        }
+    }
+
+    @Test
+    public void testDeepChain() {
+        final int length = 200000;
+        SetMultimap<Integer, Integer> edges = HashMultimap.create();
+        for (int i = 0; i < length; i++) {
+            edges.put(i, i + 1);
+        }
+        final int[] counts = new int[2];
+        new Dfs<Integer>(Navigators.forMultimap(edges)) {
+            @Override
+            protected void treeEdge(Integer subject, Integer object) {
+                counts[0]++;
+            }
+
+            @Override
+            protected void postVisit(Integer value) {
+                counts[1]++;
+            }
+        }.execute(false);
+        assertEquals(length, counts[0]);
+        assertEquals(length + 1, counts[1]);
+    }
+}
@@ -0,0 +1,157 @@
+package edu.bath.transitivityutils;
+
+import com.google.common.collect.ImmutableSet;
+import java.util.Random;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import static edu.bath.transitivityutils.RelationAssertions.*;
+
+/**
+ *
+ * @author Andreou Dimitris, email: jim.andreou (at) gmail.com
+ */
+public class FrozenTransitiveRelationTest {
+
+    @Test
+    public void testCyclic() {
+        TransitiveRelation<Integer> r = Relations.newTransitiveRelation();
+        r.relate(2, 3);
+        r.relate(2, 4);
+        r.relate(1, 2);
+        r.relate(0, 1);
+        r.relate(2, 0);
+
+        TransitiveRelation<Integer> frozen = Relations.freeze(r);
+        assertRelations(frozen,
+                0, 1,
+                0, 2,
+                0, 3,
+                0, 4,
+                1, 0,
+                1, 2,
+                1, 3,
+                1, 4,
+                2, 0,
+                2, 1,
+                2, 3,
+                2, 4);
+        assertDirectRelations(frozen,
+                2, 3,
+                2, 4,
+                1, 2,
+                0, 1,
+                2, 0);
+        assertTrue(frozen.areRelated(7, 7));
+        assertFalse(frozen.areRelated(7, 0));
+        assertSame(frozen, Relations.freeze(frozen));
+    }
+
+    @Test
+    public void testNullElement() {
+        TransitiveRelation<String> r = Relations.newTransitiveRelation();
+        r.relate(null, "a");
+        r.relate("a", "b");
+
+        TransitiveRelation<String> frozen = Relations.freeze(r);
+        assertTrue(frozen.areRelated(null, "b"));
+        assertFalse(frozen.areRelated("b", null));
+        assertEquals(ImmutableSet.of("a"), ImmutableSet.copyOf(frozen.direct().related(null)));
+    }
+
+    @Test(expected=UnsupportedOperationException.class)
+    public void testImmutable() {
+        TransitiveRelation<Integer> r = Relations.newTransitiveRelation();
+        r.relate(0, 1);
+        Relations.freeze(r).relate(1, 2);
+    }
+
+    @Test
+    public void testFreezeOtherRelation() {
+        TransitiveRelation<Integer> r = Relations.newTransitiveRelation();
+        r.relate(0, 1);
+        r.relate(1, 2);
+
+        assertRelations(Relations.freeze(Relations.unmodifiableTransitiveRelation(r)),
+                0, 1,
+                0, 2,
+                1, 2);
+    }
+
+    @Test
+    public void testEytzingerSearch() {
+        Random random = new Random(0);
+        for (int pairs = 1; pairs <= 100; pairs++) {
+            int[] intervals = new int[2 * pairs];
+            int next = 0;
+            for (int i = 0; i < intervals.length; i += 2) {
+                intervals[i] = next + 1 + random.nextInt(3);
+                intervals[i + 1] = intervals[i] + random.nextInt(3);
+                next = intervals[i + 1];
+            }
+            int[] tree = new int[intervals.length + 3];
+            FrozenTransitiveRelation.eytzingerLayout(intervals, 0, intervals.length, tree, 3);
+            for (int subject = 0; subject <= next + 1; subject++) {
+                assertEquals(FrozenTransitiveRelation.linearScan(intervals, 0, intervals.length, subject),
+                        FrozenTransitiveRelation.eytzingerSearch(tree, 3, intervals.length, subject));
+                assertEquals(FrozenTransitiveRelation.linearScan(intervals, 0, intervals.length, subject),
+                        FrozenTransitiveRelation.binarySearch(intervals, 0, intervals.length, subject));
+            }
+        }
+    }
+
+    @Test
+    public void testManyIntervals() {
+        //the sinks are reached from every source, and each source from one in five sinks, so that the sinks
+        //have many intervals, which are laid out as search trees
+        TransitiveRelation<Integer> r = Relations.newTransitiveRelation();
+        for (int i = 0; i < 200; i++) {
+            r.relate(1000 + i, i);
+            if (i % 5 == 0) r.relate(i, 2000 + i);
+            for (int j = 0; j < 200; j += 40) {
+                r.relate(i, 3000 + j);
+            }
+        }
+        TransitiveRelation<Integer> frozen = Relations.freeze(r);
+        for (int object = 3000; object < 3200; object += 40) {
+            for (int subject = 0; subject < 3200; subject++) {
+                assertEquals(r.areRelated(subject, object), frozen.areRelated(subject, object));
+            }
+        }
+        assertEquals(frozen.toString(), SerializationUtils.serializedCopy(frozen).toString());
+    }
+
+    @Test
+    public void testCalibratedCutoff() {
+        Relations.calibrateSearchCutoff();
+        testManyIntervals();
+    }
+
+    @Test
+    public void testRandomized() {
+        TransitiveRelation<Integer> r = Relations.newTransitiveRelation();
+        int total = 200;
+        Random random = new Random(0);
+
+        for (int subject = 0; subject < total; subject++) {
+            for (int object = 0; object < total; object++) {
+                if (random.nextDouble() < 0.01) {
+                    r.relate(subject, object);
+                }
+            }
+        }
+        TransitiveRelation<Integer> frozen = Relations.freeze(r);
+        assertSameRelation(r, frozen, total);
+        assertSameRelation(r, SerializationUtils.serializedCopy(frozen), total);
+    }
+
+    private static void assertSameRelation(TransitiveRelation<Integer> expected, TransitiveRelation<Integer> actual, int total) {
+        assertEquals(ImmutableSet.copyOf(expected.direct().domain()), ImmutableSet.copyOf(actual.direct().domain()));
+        for (int subject = 0; subject < total; subject++) {
+            assertEquals(ImmutableSet.copyOf(expected.direct().related(subject)),
+                    ImmutableSet.copyOf(actual.direct().related(subject)));
+            for (int object = 0; object < total; object++) {
+                assertEquals(expected.areRelated(subject, object), actual.areRelated(subject, object));
+            }
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package edu.bath.transitivityutils;
+
+import com.google.common.collect.ImmutableSet;
+import java.util.Random;
+import java.util.Set;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Andreou Dimitris, email: jim.andreou (at) gmail.com
+ */
+public class IntTransitiveRelationTest {
+
+    @Test
+    public void testReflexivityForUnknownElements() {
+        IntTransitiveRelation r = Relations.newIntTransitiveRelation(0);
+        assertTrue(r.areRelated(5, 5));
+        assertFalse(r.areRelated(5, 6));
+        assertFalse(r.areRelated(-1, 6));
+    }
+
+    @Test
+    public void testCyclic() {
+        IntTransitiveRelation r = Relations.newIntTransitiveRelation(2);
+        r.relate(2, 3);
+        r.relate(2, 4);
+        r.relate(1, 2);
+        r.relate(0, 1);
+        r.relate(2, 0);
+
+        assertTrue(r.areRelated(0, 4));
+        assertTrue(r.areRelated(1, 0));
+        assertTrue(r.areRelated(2, 1));
+        assertFalse(r.areRelated(3, 4));
+        assertFalse(r.areRelated(4, 0));
+    }
+
+    @Test
+    public void testDirect() {
+        IntTransitiveRelation r = Relations.newIntTransitiveRelation(8);
+        r.relate(1, 2);
+        r.relate(1, 2);
+        r.relate(2, 3);
+        r.relate(3, 4);
+        r.relate(3, 5);
+        r.relate(6, 6);
+
+        assertEquals(ImmutableSet.of(1, 2, 3), ImmutableSet.copyOf(r.direct().domain()));
+        assertEquals(ImmutableSet.of(2), ImmutableSet.copyOf(r.direct().related(1)));
+        assertEquals(ImmutableSet.of(4, 5), ImmutableSet.copyOf(r.direct().related(3)));
+        assertEquals(ImmutableSet.of(), ImmutableSet.copyOf(r.direct().related(6)));
+        assertEquals(ImmutableSet.of(), ImmutableSet.copyOf(r.direct().related(100)));
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void testNegativeElement() {
+        Relations.newIntTransitiveRelation(0).relate(-1, 2);
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void testMaxValueElement() {
+        Relations.newIntTransitiveRelation(0).relate(1, Integer.MAX_VALUE);
+    }
+
+    @Test
+    public void testRandomized() {
+        IntTransitiveRelation r = Relations.newIntTransitiveRelation(0);
+        TransitiveRelation<Integer> expected = Relations.newTransitiveRelation();
+        int total = 200;
+        Random random = new Random(0);
+
+        for (int subject = 0; subject < total; subject++) {
+            for (int object = 0; object < total; object++) {
+                if (random.nextDouble() < 0.01) {
+                    r.relate(subject, object);
+                    expected.relate(subject, object);
+                }
+            }
+        }
+        assertSameRelation(expected, r, total);
+        assertSameRelation(expected, SerializationUtils.serializedCopy(r), total);
+    }
+
+    private static void assertSameRelation(TransitiveRelation<Integer> expected, IntTransitiveRelation r, int total) {
+        for (int subject = 0; subject < total; subject++) {
+            Set<Integer> closure = Navigators.closure(r.direct(), subject);
+            for (int object = 0; object < total; object++) {
+                assertEquals(expected.areRelated(subject, object), r.areRelated(subject, object));
+                assertEquals(closure.contains(object), r.areRelated(subject, object));
+            }
+        }
+    }
+}
@@ -0,0 +1,142 @@
+package edu.bath.transitivityutils;
+
+import com.google.common.collect.ImmutableSet;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Andreou Dimitris, email: jim.andreou (at) gmail.com
+ */
+public class MappedTransitiveRelationTest {
+    File file;
+
+    @Before
+    public void setUp() throws IOException {
+        file = File.createTempFile("relation", ".map");
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+    }
+
+    @Test
+    public void testRandomized() throws IOException {
+        TransitiveRelation<Integer> r = Relations.newTransitiveRelation();
+        int total = 200;
+        Random random = new Random(0);
+
+        for (int subject = 0; subject < total; subject++) {
+            for (int object = 0; object < total; object++) {
+                if (random.nextDouble() < 0.01) {
+                    r.relate(subject, object);
+                }
+            }
+        }
+        Relations.writeMappedSnapshot(r, file);
+        TransitiveRelation<Integer> mapped = Relations.mapSnapshot(file);
+
+        assertEquals(ImmutableSet.copyOf(r.direct().domain()), ImmutableSet.copyOf(mapped.direct().domain()));
+        for (int subject = 0; subject < total; subject++) {
+            assertEquals(ImmutableSet.copyOf(r.direct().related(subject)),
+                    ImmutableSet.copyOf(mapped.direct().related(subject)));
+            for (int object = 0; object < total; object++) {
+                assertEquals(r.areRelated(subject, object), mapped.areRelated(subject, object));
+            }
+        }
+        assertFalse(mapped.areRelated(total, 0));
+        assertTrue(mapped.direct().related(total).isEmpty());
+    }
+
+    @Test
+    public void testStrings() throws IOException {
+        TransitiveRelation<String> r = Relations.newTransitiveRelation();
+        r.relate(null, "a");
+        r.relate("a", "b");
+        r.relate("b", "c");
+        r.relate("c", "a");
+        Relations.writeMappedSnapshot(r, file);
+
+        TransitiveRelation<String> mapped = Relations.mapSnapshot(file);
+        assertTrue(mapped.areRelated(null, "c"));
+        assertTrue(mapped.areRelated("c", "b"));
+        assertFalse(mapped.areRelated("a", null));
+        assertFalse(mapped.areRelated("a", "d"));
+        assertEquals(ImmutableSet.of("b"), ImmutableSet.copyOf(mapped.direct().related("a")));
+    }
+
+    @Test
+    public void testRecordEncodings() throws IOException {
+        //compactly encoded elements of every kind, and serialized ones
+        List<Object> elements = Arrays.<Object>asList(null, "", "a\u0000b", "\u00e9\u4e2d\ud83d\ude00", 0, -1,
+                Integer.MIN_VALUE, 0L, Long.MAX_VALUE, Arrays.asList("x", "y"), 'c');
+        TransitiveRelation<Object> r = Relations.newTransitiveRelation();
+        for (int i = 1; i < elements.size(); i++) {
+            r.relate(elements.get(i - 1), elements.get(i));
+        }
+        Relations.writeMappedSnapshot(r, file);
+
+        TransitiveRelation<Object> mapped = Relations.mapSnapshot(file);
+        for (int i = 0; i < elements.size(); i++) {
+            for (int j = 0; j < elements.size(); j++) {
+                assertEquals(i <= j, mapped.areRelated(elements.get(i), elements.get(j)));
+            }
+        }
+        assertEquals(new HashSet<Object>(elements), Relations.descendants(mapped, 'c'));
+        assertFalse(mapped.areRelated(1L, 'c'));
+        assertFalse(mapped.areRelated((short)0, 'c'));
+        assertFalse(mapped.areRelated("a", 'c'));
+        assertFalse(mapped.areRelated(Arrays.asList("x"), 'c'));
+    }
+
+    @Test
+    public void testCompactRecords() throws IOException {
+        TransitiveRelation<Integer> r = Relations.newTransitiveRelation();
+        int total = 1000;
+        for (int i = 1; i < total; i++) {
+            r.relate(i, i - 1);
+        }
+        Relations.writeMappedSnapshot(r, file);
+        //the table, one interval, two offsets, a direct relationship, a five-byte record and a record offset
+        assertTrue(file.length() < total * 64L);
+        assertTrue(Relations.<Integer>mapSnapshot(file).areRelated(total - 1, 0));
+    }
+
+    @Test
+    public void testEmpty() throws IOException {
+        Relations.writeMappedSnapshot(Relations.<Object>newTransitiveRelation(), file);
+        TransitiveRelation<Object> mapped = Relations.mapSnapshot(file);
+        assertTrue(mapped.areRelated("a", "a"));
+        assertFalse(mapped.areRelated("a", "b"));
+        assertTrue(mapped.direct().domain().isEmpty());
+    }
+
+    @Test(expected=UnsupportedOperationException.class)
+    public void testImmutable() throws IOException {
+        TransitiveRelation<Integer> r = Relations.newTransitiveRelation();
+        r.relate(0, 1);
+        Relations.writeMappedSnapshot(r, file);
+        Relations.<Integer>mapSnapshot(file).relate(1, 2);
+    }
+
+    @Test(expected=IOException.class)
+    public void testNotASnapshot() throws IOException {
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(new byte[64]);
+        } finally {
+            out.close();
+        }
+        Relations.mapSnapshot(file);
+    }
+}
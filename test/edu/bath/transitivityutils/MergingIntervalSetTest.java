@@ -4,6 +4,7 @@ import edu.bath.transitivityutils.OrderList.Node;
 import java.lang.reflect.Field;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Random;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
@@ -254,6 +255,84 @@ public class MergingIntervalSetTest {
         assertTrue(otherSet.containsAll(set));
     }
 
+    @Test
+    public void testAddIntervalsCoalesces() {
+        MergingIntervalSet otherSet = new MergingIntervalSet();
+        set.addInterval(nodes.get(0), nodes.get(1));
+        set.addInterval(nodes.get(4), nodes.get(5));
+        set.addInterval(nodes.get(8), nodes.get(9));
+
+        otherSet.addInterval(nodes.get(1), nodes.get(4));
+        otherSet.addInterval(nodes.get(6), nodes.get(7));
+        otherSet.addInterval(nodes.get(10), nodes.get(11));
+
+        assertTrue(set.addIntervals(otherSet));
+        assertContains(nodes.get(0), nodes.get(5));
+        assertContains(nodes.get(6), nodes.get(7));
+        assertContains(nodes.get(8), nodes.get(9));
+        assertContains(nodes.get(10), nodes.get(11));
+        assertEquals(8, set.size());
+        assertEquals(8, capacityOf(set));
+
+        assertFalse(set.addIntervals(otherSet));
+        assertEquals(8, set.size());
+    }
+
+    @Test
+    public void testTagsRefreshedAfterRelabel() {
+        set.addInterval(nodes.get(1), nodes.get(2));
+        set.addInterval(nodes.get(5), nodes.get(6));
+        assertTrue(set.contains(nodes.get(1), list.relabelCount()));
+        assertFalse(set.contains(nodes.get(3), list.relabelCount()));
+
+        long before = list.relabelCount();
+        Node<Integer> last = nodes.get(1);
+        for (int i = 0; i < 100; i++) {
+            last = list.addAfter(nodes.get(1), 100 + i);
+        }
+        assertTrue(list.relabelCount() > before);
+
+        assertTrue(set.contains(last, list.relabelCount()));
+        assertTrue(set.contains(nodes.get(2), list.relabelCount()));
+        assertFalse(set.contains(nodes.get(3), list.relabelCount()));
+        assertFalse(set.contains(nodes.get(0), list.relabelCount()));
+    }
+
+    @Test
+    public void testTagStrategiesAgree() {
+        Random random = new Random(0);
+        for (int round = 0; round < 200; round++) {
+            set = new MergingIntervalSet();
+            int intervals = random.nextInt(8);
+            for (int i = 0; i < intervals; i++) {
+                int pre = random.nextInt(nodes.size() - 1);
+                int post = pre + 1 + random.nextInt(nodes.size() - 1 - pre);
+                set.addInterval(nodes.get(pre), nodes.get(post));
+            }
+            set.contains(nodes.get(0), list.relabelCount()); //caches the tags
+            for (Node<Integer> node : nodes) {
+                for (long tag = node.tag() - 1; tag <= node.tag() + 1; tag++) {
+                    boolean expected = set.containsTag_linearScan(tag);
+                    assertEquals(expected, set.containsTag_binarySearch(tag));
+                    assertEquals(expected, set.containsTag_branchFree(tag));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testCalibrateTagCutoff() {
+        int cutoff = Relations.calibrateSearchCutoff();
+        assertEquals(cutoff, MergingIntervalSet.tagCutoff());
+        assertTrue(cutoff >= 2 && cutoff <= 512);
+
+        for (int i = 0; i < 16; i += 2) {
+            set.addInterval(nodes.get(i), nodes.get(i + 1));
+        }
+        assertContains(nodes.get(0), nodes.get(1));
+        assertContains(nodes.get(14), nodes.get(15));
+    }
+
     private int capacityOf(MergingIntervalSet mis) {
         try {
             return ((Node<?>[])arrayField.get(mis)).length;
@@ -266,21 +345,37 @@ public class MergingIntervalSetTest {
         assertTrue(set.contains(pre));
         assertTrue(set.contains_linearScan(pre));
         assertTrue(set.contains_binarySearch(pre));
+        assertTrue(set.contains(pre, list.relabelCount()));
+        assertTrue(set.containsTag_linearScan(pre.tag()));
+        assertTrue(set.containsTag_binarySearch(pre.tag()));
+        assertTrue(set.containsTag_branchFree(pre.tag()));
 
         assertTrue(set.contains(post));
         assertTrue(set.contains_linearScan(post));
         assertTrue(set.contains_binarySearch(post));
+        assertTrue(set.contains(post, list.relabelCount()));
+        assertTrue(set.containsTag_linearScan(post.tag()));
+        assertTrue(set.containsTag_binarySearch(post.tag()));
+        assertTrue(set.containsTag_branchFree(post.tag()));
 
         Node<Integer> tmp = list.addAfter(pre.previous(), -1);
         assertFalse(set.contains(tmp));
         assertFalse(set.contains_linearScan(tmp));
         assertFalse(set.contains_binarySearch(tmp));
+        assertFalse(set.contains(tmp, list.relabelCount()));
+        assertFalse(set.containsTag_linearScan(tmp.tag()));
+        assertFalse(set.containsTag_binarySearch(tmp.tag()));
+        assertFalse(set.containsTag_branchFree(tmp.tag()));
         list.delete(tmp);
 
         tmp = list.addAfter(post, -1);
         assertFalse(set.contains(tmp));
         assertFalse(set.contains_linearScan(tmp));
         assertFalse(set.contains_binarySearch(tmp));
+        assertFalse(set.contains(tmp, list.relabelCount()));
+        assertFalse(set.containsTag_linearScan(tmp.tag()));
+        assertFalse(set.containsTag_binarySearch(tmp.tag()));
+        assertFalse(set.containsTag_branchFree(tmp.tag()));
         list.delete(tmp);
     }
 }
\ No newline at end of file
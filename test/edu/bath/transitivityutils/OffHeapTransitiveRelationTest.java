@@ -0,0 +1,78 @@
+package edu.bath.transitivityutils;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Sets;
+import java.util.Random;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Andreou Dimitris, email: jim.andreou (at) gmail.com
+ */
+public class OffHeapTransitiveRelationTest {
+
+    @Test
+    public void testReflexivityForUnknownElements() {
+        TransitiveRelation<String> r = Relations.newOffHeapTransitiveRelation();
+        assertTrue(r.areRelated("a", "a"));
+        assertTrue(r.areRelated(null, null));
+        assertFalse(r.areRelated("a", "b"));
+    }
+
+    @Test
+    public void testCyclic() {
+        TransitiveRelation<String> r = Relations.newOffHeapTransitiveRelation();
+        r.relate(null, "a");
+        r.relate("a", "b");
+        r.relate("b", "c");
+        r.relate("c", "a");
+        assertTrue(r.areRelated(null, "c"));
+        assertTrue(r.areRelated("c", "b"));
+        assertFalse(r.areRelated("a", null));
+        assertEquals(Sets.newHashSet("a", "b", "c", null), Relations.descendants(r, "b"));
+        assertEquals(ImmutableSet.of("b"), ImmutableSet.copyOf(r.direct().related("a")));
+    }
+
+    @Test
+    public void testRandomized() {
+        //small chunks, so that the memory spans many of them
+        assertSameRelation(new OffHeapTransitiveRelation<Integer>(12), 300, 0.01);
+        assertSameRelation(new OffHeapTransitiveRelation<Integer>(), 300, 0.02);
+    }
+
+    @Test
+    public void testCrowdedLabels() {
+        TransitiveRelation<Integer> r = new OffHeapTransitiveRelation<Integer>(10);
+        int total = 5000;
+        for (int i = 1; i < total; i++) {
+            r.relate(i, i - 1); //every label is nested right before the post node of the previous one
+        }
+        assertTrue(r.areRelated(total - 1, 0));
+        assertFalse(r.areRelated(0, 1));
+        assertEquals(total, Relations.countDescendants(r, 0));
+        assertEquals(1, Relations.countDescendants(r, total - 1));
+    }
+
+    private static void assertSameRelation(TransitiveRelation<Integer> r, int total, double probability) {
+        TransitiveRelation<Integer> expected = Relations.newTransitiveRelation();
+        Random random = new Random(0);
+        for (int subject = 0; subject < total; subject++) {
+            for (int object = 0; object < total; object++) {
+                if (random.nextDouble() < probability) {
+                    r.relate(subject, object);
+                    expected.relate(subject, object);
+                }
+            }
+        }
+        assertEquals(ImmutableSet.copyOf(expected.direct().domain()), ImmutableSet.copyOf(r.direct().domain()));
+        for (int subject = 0; subject < total; subject++) {
+            assertEquals(ImmutableSet.copyOf(expected.direct().related(subject)),
+                    ImmutableSet.copyOf(r.direct().related(subject)));
+            assertEquals(Relations.descendants(expected, subject), Relations.descendants(r, subject));
+            for (int object = 0; object < total; object++) {
+                assertEquals(expected.areRelated(subject, object), r.areRelated(subject, object));
+            }
+        }
+    }
+}
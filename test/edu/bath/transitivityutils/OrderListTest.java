@@ -51,6 +51,106 @@ public class OrderListTest {
         genericTest(randomChooser);
     }
 
+    @Test
+    public void testTwoLevelAddAllLeft() {
+        genericTest(OrderList.<Integer>createTwoLevel(), leftChooser);
+    }
+
+    @Test
+    public void testTwoLevelAddAllRight() {
+        genericTest(OrderList.<Integer>createTwoLevel(), rightChooser);
+    }
+
+    @Test
+    public void testTwoLevelRandomized() {
+        OrderList<Integer> list = genericTest(OrderList.<Integer>createTwoLevel(), randomChooser);
+        assertTrue(list.isTwoLevel());
+        Random random = new Random(1);
+        List<Node<Integer>> nodes = new ArrayList<Node<Integer>>();
+        for (Node<Integer> node = list.base().next(); node != list.base(); node = node.next()) {
+            nodes.add(node);
+        }
+        //delete most nodes, then add new ones among the remaining ones
+        for (int i = 0; i < nodes.size(); i++) {
+            if (random.nextInt(4) != 0) {
+                assertTrue(list.delete(nodes.get(i)));
+            }
+        }
+        for (int i = 0; i < 5000; i++) {
+            Node<Integer> node = nodes.get(random.nextInt(nodes.size()));
+            list.addAfter(node.isValid() ? node : list.base(), i);
+        }
+        assertAscending(list);
+        list.moveToEnd(list.base().next(), list.base().next().next());
+        assertAscending(list);
+    }
+
+    @Test
+    public void testTwoLevelMoveToEnd() {
+        testMoveToEnd(OrderList.<Integer>createTwoLevel());
+    }
+
+    @Test
+    public void testTwoLevelEvenlySpaced() {
+        OrderList<Integer> list = OrderList.createTwoLevel();
+        List<Node<Integer>> nodes = list.appendEvenlySpaced(1000);
+        assertEquals(1000, list.size());
+        assertAscending(list);
+        list.addAfter(nodes.get(10), -1);
+        list.addAfter(list.base(), -2);
+        assertAscending(list);
+    }
+
+    @Test
+    public void testTwoLevelAppendAll() {
+        OrderList<Integer> list = OrderList.createTwoLevel();
+        OrderList<Integer> other = OrderList.createTwoLevel();
+        Node<Integer> hotSpot = list.addAfter(list.base(), -1);
+        Node<Integer> otherHotSpot = other.addAfter(other.base(), -1);
+        for (int i = 0; i < 5000; i++) {
+            list.addAfter(hotSpot, i);
+            other.addAfter(otherHotSpot, i);
+        }
+        list.appendAll(other);
+        assertEquals(10002, list.size());
+        assertEquals(0, other.size());
+        assertAscending(list);
+
+        //both lists keep working, the emptied one with buckets of its own
+        for (int i = 0; i < 5000; i++) {
+            list.addAfter(otherHotSpot, i);
+            other.addAfter(other.base(), i);
+        }
+        assertAscending(list);
+        assertAscending(other);
+    }
+
+    @Test
+    public void testMoveToEnd() {
+        testMoveToEnd(OrderList.<Integer>create());
+    }
+
+    private void testMoveToEnd(OrderList<Integer> list) {
+        List<Node<Integer>> nodes = new ArrayList<Node<Integer>>();
+        Node<Integer> last = list.base();
+        for (int i = 0; i < 6; i++) {
+            last = list.addAfter(last, i);
+            nodes.add(last);
+        }
+        long relabelCount = list.relabelCount();
+        list.moveToEnd(nodes.get(1), nodes.get(3));
+        assertEquals("[0, 4, 5, 1, 2, 3]", list.toString());
+        assertEquals(6, list.size());
+        assertAscending(list);
+        assertTrue(list.relabelCount() > relabelCount);
+
+        list.moveToEnd(nodes.get(2), nodes.get(3));
+        assertEquals("[0, 4, 5, 1, 2, 3]", list.toString());
+        list.moveToEnd(nodes.get(0), nodes.get(0));
+        assertEquals("[4, 5, 1, 2, 3, 0]", list.toString());
+        assertAscending(list);
+    }
+
     @Test
     public void testToStringWithNulls() {
         OrderList<String> orderList = OrderList.create();
@@ -59,10 +159,13 @@ public class OrderListTest {
     }
 
     private OrderList<Integer> genericTest(Chooser chooser) {
+        return genericTest(OrderList.<Integer>create(), chooser);
+    }
+
+    private OrderList<Integer> genericTest(OrderList<Integer> list, Chooser chooser) {
         final int total = 10240;
         List<Node<Integer>> elements = new ArrayList<Node<Integer>>(total);
 
-        OrderList<Integer> list = OrderList.create();
         elements.add(list.base());
         for (int i = 0; i < total; i++) {
             Node<Integer> left = chooser.choose(elements);
@@ -198,11 +301,13 @@ public class OrderListTest {
         assertPrecedes(n2, n3);
     }
 
+    //compares Node.tag(), not the raw tag field, which in a two-level list holds only the tag within the bucket
     private static void assertAscending(OrderList<?> list) {
         OrderList.Node<?> node = (OrderList.Node<?>)list.base().next();
         long last = Long.MIN_VALUE;
         while (node != list.base()) {
-            assertTrue(last < getTag(node));
+            assertTrue(last < node.tag());
+            last = node.tag();
             node = (OrderList.Node<?>)node.next();
         }
     }
@@ -250,12 +355,4 @@ public class OrderListTest {
             throw new Error(ex);
         }
     }
-
-    private static long getTag(Node<?> node) {
-        try {
-            return tagField.getLong(node);
-        } catch (Exception ex) {
-            throw new Error(ex);
-        }
-    }
 }
\ No newline at end of file
@@ -2,14 +2,10 @@ package edu.bath.transitivityutils;
 
 import com.google.common.collect.HashMultimap;
 import com.google.common.collect.SetMultimap;
-import edu.bath.transitivityutils.DefaultTransitiveRelation;
-import edu.bath.transitivityutils.MergingIntervalSet;
 import edu.bath.transitivityutils.Navigator;
 import edu.bath.transitivityutils.Navigators;
 import edu.bath.transitivityutils.Relations;
 import edu.bath.transitivityutils.TransitiveRelation;
-import java.lang.reflect.Field;
-import java.util.Map;
 import java.util.Random;
 
 class Perf {
@@ -51,7 +47,7 @@ class Perf {
 //        TransitiveRelation r = testBackward(total);
         TransitiveRelation r = testMerge1(total);
 //        TransitiveRelation r = testMerge2(total);
-        int intervals = countIntervals(r);
+        long intervals = countIntervals(r);
         time += System.nanoTime();
         System.out.println("Time: " + (time / 1000000) + "ms");
         System.out.println("Propagations: " + propagations);
@@ -130,7 +126,6 @@ class Perf {
                 if (random.nextDouble() < 0.2) {
                     edges.put(subject, object);
                 }
-                    break;
             }
         }
 
@@ -149,7 +144,6 @@ class Perf {
                 if (random.nextDouble() < 0.2) {
                     edges.put(subject, object);
                 }
-                    break;
             }
         }
 
@@ -158,18 +152,9 @@ class Perf {
         return r;
     }
 
-    private static int countIntervals(TransitiveRelation r) throws Exception {
-        Field nodeMap = DefaultTransitiveRelation.class.getDeclaredField("nodeMap");
-        nodeMap.setAccessible(true);
-        Map map = (Map)nodeMap.get(r);
-        Field intervalSet = Class.forName("edu.bath.transitivityutils.DefaultTransitiveRelation$Node").getDeclaredField("intervalSet");
-        intervalSet.setAccessible(true);
-        int sum = 0;
-        System.out.println(map.size());
-        for (Object node : map.values()) {
-            MergingIntervalSet mis = (MergingIntervalSet)intervalSet.get(node);
-            sum += mis.size();
-        }
-        return sum / 2;
+    private static long countIntervals(TransitiveRelation r) {
+        RelationStatistics statistics = Relations.statistics(r);
+        System.out.println(statistics);
+        return statistics.intervals();
     }
 }
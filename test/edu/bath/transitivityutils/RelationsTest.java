@@ -1,6 +1,18 @@
 package edu.bath.transitivityutils;
 
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.HashMultimap;
 import com.google.common.collect.ImmutableSetMultimap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.SetMultimap;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
 import org.junit.Test;
 import static edu.bath.transitivityutils.RelationAssertions.*;
 import static org.junit.Assert.*;
@@ -148,6 +160,440 @@ public class RelationsTest {
                 7, 8);
     }
 
+    @Test
+    public void testRelateAll_WithCycle() {
+        TransitiveRelation<Integer> rel = Relations.newTransitiveRelation();
+        Relations.relateAll(rel, ImmutableSetMultimap.<Integer, Integer>builder()
+                .put(2, 3)
+                .put(3, 4)
+                .put(1, 4)
+                .put(0, 1)
+                .put(0, 2)
+                .put(4, 5)
+                .put(5, 0)
+                .put(9, 5)
+                .put(6, 5)
+                .put(6, 7)
+                .put(7, 8)
+                .put(8, 8).build().entries());
+
+        assertDirectRelations(rel,
+                2, 3,
+                3, 4,
+                1, 4,
+                0, 1,
+                0, 2,
+                4, 5,
+                5, 0,
+                9, 5,
+                6, 5,
+                6, 7,
+                7, 8);
+        assertTrue(rel.areRelated(9, 3));
+        assertTrue(rel.areRelated(6, 8));
+        assertTrue(rel.areRelated(3, 2));
+        assertFalse(rel.areRelated(3, 9));
+        assertFalse(rel.areRelated(8, 7));
+    }
+
+    @Test
+    public void testRelateAll_Randomized() {
+        TransitiveRelation<Integer> expected = Relations.newTransitiveRelation();
+        List<Map.Entry<Integer, Integer>> relationships = Lists.newArrayList();
+        int total = 200;
+        Random random = new Random(0);
+        for (int subject = 0; subject < total; subject++) {
+            for (int object = 0; object < total; object++) {
+                if (random.nextDouble() < 0.01) {
+                    expected.relate(subject, object);
+                    relationships.add(Maps.immutableEntry(subject, object));
+                }
+            }
+        }
+        TransitiveRelation<Integer> rel = Relations.newTransitiveRelation();
+        Relations.relateAll(rel, relationships);
+
+        for (int subject = 0; subject < total; subject++) {
+            assertEquals(ImmutableSet.copyOf(expected.direct().related(subject)),
+                    ImmutableSet.copyOf(rel.direct().related(subject)));
+            for (int object = 0; object < total; object++) {
+                assertEquals(expected.areRelated(subject, object), rel.areRelated(subject, object));
+            }
+        }
+    }
+
+    @Test
+    public void testDescendantsAndAncestors() {
+        TransitiveBiRelation<Integer> bi = Relations.newTransitiveBiRelation();
+        bi.relate(1, 0);
+        bi.relate(2, 0);
+        bi.relate(3, 1);
+        bi.relate(3, 2);
+        bi.relate(4, 3);
+
+        assertEquals(ImmutableSet.of(0, 1, 2, 3, 4), Relations.descendants(bi, 0));
+        assertEquals(ImmutableSet.of(2, 3, 4), Relations.descendants(bi, 2));
+        assertEquals(ImmutableSet.of(4), Relations.descendants(bi, 4));
+        assertEquals(ImmutableSet.of(7), Relations.descendants(bi, 7));
+        assertEquals(3, Relations.countDescendants(bi, 2));
+        assertEquals(1, Relations.countDescendants(bi, 7));
+        assertEquals(ImmutableSet.of(0, 1, 2, 3), Relations.descendants(bi.inverse(), 3));
+        assertEquals(4, Relations.countDescendants(bi.inverse(), 3));
+
+        assertEquals(ImmutableSet.of(0, 1, 2, 3), Relations.ancestors(bi, 3));
+        assertEquals(ImmutableSet.of(2, 3, 4), Relations.ancestors(bi.inverse(), 2));
+    }
+
+    @Test
+    public void testDescendants_Randomized() {
+        TransitiveRelation<Integer> r = Relations.newTransitiveRelation();
+        int total = 200;
+        Random random = new Random(0);
+        for (int subject = 0; subject < total; subject++) {
+            for (int object = 0; object < total; object++) {
+                if (random.nextDouble() < 0.01) {
+                    r.relate(subject, object);
+                }
+            }
+        }
+        List<TransitiveRelation<Integer>> relations = Lists.newArrayList();
+        relations.add(r);
+        relations.add(Relations.unmodifiableTransitiveRelation(r));
+        relations.add(Relations.freeze(r));
+        TransitiveRelation<Integer> concurrent = Relations.newConcurrentTransitiveRelation();
+        Relations.merge(concurrent, r.direct());
+        relations.add(concurrent);
+
+        for (int object = 0; object < total; object++) {
+            ImmutableSet.Builder<Integer> expected = ImmutableSet.builder();
+            for (int subject = 0; subject < total; subject++) {
+                if (r.areRelated(subject, object)) {
+                    expected.add(subject);
+                }
+            }
+            for (TransitiveRelation<Integer> relation : relations) {
+                assertEquals(expected.build(), Relations.descendants(relation, object));
+                assertEquals(expected.build().size(), Relations.countDescendants(relation, object));
+            }
+        }
+    }
+
+    @Test
+    public void testAreRelatedToAnyAndAll() {
+        TransitiveRelation<Integer> r = Relations.newTransitiveRelation();
+        r.relate(1, 0);
+        r.relate(2, 1);
+        r.relate(3, 0);
+
+        assertTrue(Relations.areRelatedToAny(r, 2, ImmutableSet.of(3, 0)));
+        assertFalse(Relations.areRelatedToAny(r, 2, ImmutableSet.of(3, 7)));
+        assertTrue(Relations.areRelatedToAny(r, 7, ImmutableSet.of(3, 7)));
+        assertFalse(Relations.areRelatedToAny(r, 2, ImmutableSet.<Integer>of()));
+
+        assertTrue(Relations.areRelatedToAll(r, 2, ImmutableSet.of(2, 1, 0)));
+        assertFalse(Relations.areRelatedToAll(r, 2, ImmutableSet.of(1, 3)));
+        assertFalse(Relations.areRelatedToAll(r, 7, ImmutableSet.of(7, 0)));
+        assertTrue(Relations.areRelatedToAll(r, 7, ImmutableSet.<Integer>of()));
+    }
+
+    @Test
+    public void testRelatedPairs_Randomized() {
+        TransitiveRelation<Integer> r = Relations.newTransitiveRelation();
+        int total = 200;
+        Random random = new Random(0);
+        for (int subject = 0; subject < total; subject++) {
+            for (int object = 0; object < total; object++) {
+                if (random.nextDouble() < 0.01) {
+                    r.relate(subject, object);
+                }
+            }
+        }
+        //include duplicates and elements outside the relation
+        List<Integer> subjects = Lists.newArrayList();
+        List<Integer> objects = Lists.newArrayList();
+        for (int i = 0; i < 150; i++) {
+            subjects.add(random.nextInt(total + 10));
+        }
+        for (int i = 0; i < 3; i++) {
+            objects.add(random.nextInt(total + 10));
+        }
+        for (int i = 0; i < total + 10; i++) {
+            objects.add(i);
+        }
+        for (TransitiveRelation<Integer> relation : ImmutableSet.of(r, Relations.freeze(r))) {
+            BitSet pairs = Relations.relatedPairs(relation, subjects, objects);
+            BitSet firstRow = Relations.relatedPairs(relation, subjects.subList(0, 1), objects);
+            for (int j = 0; j < objects.size(); j++) {
+                assertEquals(r.areRelated(subjects.get(0), objects.get(j)), firstRow.get(j));
+            }
+            for (int i = 0; i < subjects.size(); i++) {
+                for (int j = 0; j < objects.size(); j++) {
+                    assertEquals(r.areRelated(subjects.get(i), objects.get(j)), pairs.get(i * objects.size() + j));
+                }
+                assertEquals(Relations.areRelatedToAny(r, subjects.get(i), objects.subList(0, 3)),
+                        Relations.areRelatedToAny(relation, subjects.get(i), objects.subList(0, 3)));
+                assertEquals(Relations.areRelatedToAll(r, subjects.get(i), objects.subList(0, 3)),
+                        Relations.areRelatedToAll(relation, subjects.get(i), objects.subList(0, 3)));
+            }
+        }
+    }
+
+    @Test
+    public void testRemovals() {
+        TransitiveBiRelation<Integer> bi = Relations.newTransitiveBiRelation();
+        TransitiveRelation<Integer> concurrent = Relations.newConcurrentTransitiveRelation();
+        for (TransitiveRelation<Integer> r : ImmutableSet.of(bi, concurrent)) {
+            r.relate(1, 0);
+            r.relate(2, 1);
+            r.relate(3, 1);
+            assertTrue(Relations.unrelate(r, 2, 1));
+            assertFalse(r.areRelated(2, 0));
+            assertTrue(Relations.remove(r, 1));
+            assertFalse(r.areRelated(3, 0));
+            assertFalse(r.direct().domain().contains(3));
+        }
+        assertTrue(bi.inverse().direct().related(0).isEmpty());
+        assertTrue(bi.inverse().direct().related(1).isEmpty());
+    }
+
+    @Test(expected=UnsupportedOperationException.class)
+    public void testRemovals_Unsupported() {
+        TransitiveRelation<Integer> r = Relations.newTransitiveRelation();
+        r.relate(1, 0);
+        Relations.unrelate(Relations.unmodifiableTransitiveRelation(r), 1, 0);
+    }
+
+    @Test
+    public void testCompact() {
+        TransitiveBiRelation<Integer> bi = Relations.newTransitiveBiRelation();
+        TransitiveRelation<Integer> concurrent = Relations.newConcurrentTransitiveRelation();
+        TransitiveRelation<Integer> plain = Relations.newTransitiveRelation();
+        int total = 300;
+        for (TransitiveRelation<Integer> r : ImmutableSet.of(bi, concurrent, plain)) {
+            //a tree whose elements are all created before being attached to their parent
+            Random random = new Random(0);
+            for (int i = 1; i < total; i++) {
+                r.relate(i, total + i);
+            }
+            for (int i = 1; i < total; i++) {
+                r.relate(i, random.nextInt(i));
+            }
+            Map<Integer, ImmutableSet<Integer>> closure = Maps.newHashMap();
+            for (int i = 0; i < 2 * total; i++) {
+                closure.put(i, ImmutableSet.copyOf(Relations.descendants(r, i)));
+            }
+
+            CompactionReport report = Relations.compact(r);
+            assertTrue(report.toString(), report.intervalsAfter() < report.intervalsBefore());
+            assertTrue(report.toString(), report.maxIntervalsAfter() < report.maxIntervalsBefore());
+            for (int i = 0; i < 2 * total; i++) {
+                assertEquals(closure.get(i), ImmutableSet.copyOf(Relations.descendants(r, i)));
+            }
+
+            r.relate(total - 1, 2 * total); //still modifiable afterwards
+            assertTrue(r.areRelated(total - 1, 2 * total));
+            assertTrue(Relations.unrelate(r, total - 1, 2 * total));
+            assertFalse(r.areRelated(total - 1, 2 * total));
+        }
+        assertEquals(ImmutableSet.of(1), bi.inverse().direct().related(total + 1));
+    }
+
+    @Test
+    public void testCompact_RelateAfterwards() throws Exception {
+        //rebuilding a relation (when compacting) stamps one of 2 and 3 with the first visit epoch, which a relation
+        //read from a snapshot has not handed out yet; it must not hand it out again afterwards, or relating an
+        //existing element to the stamped one would skip it
+        TransitiveRelation<Integer> r = Relations.newTransitiveRelation();
+        r.relate(1, 2);
+        r.relate(1, 3);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Relations.writeSnapshot(r, out);
+        for (int object = 2; object <= 3; object++) {
+            TransitiveRelation<Integer> concurrent = Relations.newConcurrentTransitiveRelation();
+            concurrent.relate(1, 2);
+            concurrent.relate(1, 3);
+            TransitiveRelation<Integer> copy = Relations.readSnapshot(new ByteArrayInputStream(out.toByteArray()));
+            for (TransitiveRelation<Integer> relation : ImmutableList.of(copy, concurrent)) {
+                Relations.compact(relation);
+                relation.relate(5, 6);
+                relation.relate(5, object);
+                assertTrue(relation.areRelated(5, object));
+                assertTrue(relation.areRelated(5, 6));
+            }
+        }
+    }
+
+    @Test
+    public void testParallelMerge() throws InterruptedException {
+        //many small components, some with cycles, and one large one
+        SetMultimap<Integer, Integer> edges = HashMultimap.create();
+        Random random = new Random(0);
+        int total = 3000;
+        for (int i = 0; i < total; i++) {
+            if (i % 10 != 0) edges.put(i, i - 1 - random.nextInt(i % 10));
+            if (i % 30 == 7) edges.put(i - 7, i);
+            if (i % 2 == 0) edges.put(total + i / 2, total + random.nextInt(total / 2));
+        }
+        Navigator<Integer> navigator = Navigators.forMultimap(edges);
+
+        TransitiveRelation<Integer> expected = Relations.newTransitiveRelation();
+        Relations.merge(expected, navigator);
+        for (TransitiveRelation<Integer> r : ImmutableSet.of(Relations.<Integer>newTransitiveRelation(),
+                Relations.<Integer>newTwoLevelTransitiveRelation(), Relations.<Integer>newTransitiveBiRelation())) {
+            r.relate(15, -1); //a component touching an existing element
+            Relations.parallelMerge(r, navigator);
+            for (int i = 0; i < total + total / 2; i += 7) {
+                assertEquals(expected.areRelated(i, 15), r.areRelated(i, -1));
+                assertEquals(Relations.descendants(expected, i), Relations.descendants(r, i));
+                assertEquals(Relations.ancestors(expected, i), Relations.ancestors(r, i));
+            }
+        }
+    }
+
+    @Test
+    public void testHandles() {
+        TransitiveRelation<Integer> r = Relations.newTransitiveRelation();
+        r.relate(1, 2);
+        r.relate(2, 3);
+        ElementHandle<Integer> one = Relations.handle(r, 1);
+        ElementHandle<Integer> three = Relations.handle(r, 3);
+        ElementHandle<Integer> four = Relations.handle(r, 4); //not an element yet
+        assertEquals(Integer.valueOf(4), four.element());
+        assertTrue(Relations.areRelated(one, three));
+        assertFalse(Relations.areRelated(three, one));
+        assertFalse(Relations.areRelated(one, four));
+        assertTrue(Relations.areRelated(four, Relations.handle(r, 4)));
+
+        r.relate(3, 4);
+        assertTrue(Relations.areRelated(one, four));
+        Relations.compact(r); //discards all internal nodes
+        assertTrue(Relations.areRelated(one, four));
+        assertTrue(Relations.remove(r, 3));
+        assertFalse(Relations.areRelated(one, three));
+        assertFalse(Relations.areRelated(one, four));
+        assertTrue(Relations.areRelatedToAny(one, Relations.handles(r, ImmutableList.of(4, 2))));
+
+        List<Integer> subjects = ImmutableList.of(1, 2, 3, 5);
+        List<Integer> objects = ImmutableList.of(2, 5, 1);
+        assertEquals(Relations.relatedPairs(r, subjects, objects),
+                Relations.relatedPairs(Relations.handles(r, subjects), Relations.handles(r, objects)));
+    }
+
+    @Test
+    public void testHandles_OtherRelations() {
+        TransitiveBiRelation<Integer> bi = Relations.newDualLabeledTransitiveBiRelation();
+        bi.relate(1, 2);
+        assertTrue(Relations.areRelated(Relations.handle(bi, 1), Relations.handle(bi, 2)));
+        assertTrue(Relations.areRelated(Relations.handle(bi.inverse(), 2), Relations.handle(bi.inverse(), 1)));
+        assertFalse(Relations.areRelated(Relations.handle(bi.inverse(), 1), Relations.handle(bi.inverse(), 2)));
+
+        TransitiveRelation<Integer> frozen = Relations.freeze(bi);
+        assertTrue(Relations.areRelated(Relations.handle(frozen, 1), Relations.handle(frozen, 2)));
+        assertEquals(ImmutableList.of(true, true, true, false), bitsOf(Relations.relatedPairs(
+                Relations.handles(frozen, ImmutableList.of(1, 2)), Relations.handles(frozen, ImmutableList.of(2, 1))), 4));
+
+        try {
+            Relations.areRelated(Relations.handle(bi, 1), Relations.handle(frozen, 2));
+            fail();
+        } catch (IllegalArgumentException expected) { }
+    }
+
+    private static List<Boolean> bitsOf(BitSet bits, int count) {
+        List<Boolean> list = Lists.newArrayList();
+        for (int i = 0; i < count; i++) {
+            list.add(bits.get(i));
+        }
+        return list;
+    }
+
+    @Test(expected=UnsupportedOperationException.class)
+    public void testCompact_Unsupported() {
+        TransitiveRelation<Integer> r = Relations.newTransitiveRelation();
+        r.relate(1, 0);
+        Relations.compact(Relations.freeze(r));
+    }
+
+    @Test
+    public void testStatistics() {
+        TransitiveRelation<Integer> r = Relations.newTransitiveRelation();
+        RelationStatistics empty = Relations.statistics(r);
+        assertEquals(0, empty.elementCount());
+        assertEquals(0, empty.maxIntervals());
+        assertEquals(0, empty.intervalsPercentile(50));
+
+        r.relate(1, 0);
+        r.relate(2, 0);
+        r.relate(3, 4);
+        r.relate(3, 2); //3 gains the interval of 4: 2 and 0 now have two intervals
+        RelationStatistics statistics = Relations.statistics(r);
+        assertEquals(5, statistics.elementCount());
+        assertEquals(4, statistics.directRelationshipCount());
+        assertEquals(7L, statistics.intervals());
+        assertEquals(2, statistics.maxIntervals());
+        assertEquals(1, statistics.intervalsPercentile(0));
+        assertEquals(1, statistics.intervalsPercentile(60));
+        assertEquals(2, statistics.intervalsPercentile(61));
+        assertEquals(2, statistics.intervalsPercentile(100));
+        assertEquals(10, statistics.orderListSize());
+        assertTrue(statistics.estimatedBytes() > empty.estimatedBytes());
+
+        TransitiveBiRelation<Integer> bi = Relations.newTransitiveBiRelation();
+        bi.relate(1, 0);
+        bi.relate(2, 0);
+        bi.relate(3, 4);
+        bi.relate(3, 2);
+        RelationStatistics biStatistics = Relations.statistics(bi);
+        assertEquals(statistics.intervals(), biStatistics.intervals());
+        assertTrue(biStatistics.estimatedBytes() > statistics.estimatedBytes()); //also holds the inverse edges
+
+        TransitiveRelation<Integer> concurrent = Relations.newConcurrentTransitiveRelation();
+        concurrent.relate(1, 0);
+        assertEquals(2, Relations.statistics(concurrent).elementCount());
+    }
+
+    @Test(expected=UnsupportedOperationException.class)
+    public void testStatistics_Unsupported() {
+        Relations.statistics(Relations.unmodifiableTransitiveRelation(Relations.newTransitiveRelation()));
+    }
+
+    @Test
+    public void testListener_Unsupported() {
+        try {
+            Relations.setListener(Relations.unmodifiableTransitiveRelation(Relations.newTransitiveRelation()), null);
+            fail();
+        } catch (UnsupportedOperationException expected) {
+            assertTrue(expected.getMessage().startsWith("Relation does not support listeners: "));
+        }
+    }
+
+    @Test
+    public void testListener() {
+        TransitiveRelation<Integer> r = Relations.newTransitiveRelation();
+        InstrumentationCounters counters = new InstrumentationCounters(Long.MAX_VALUE);
+        Relations.setListener(r, counters);
+        for (int i = 1; i <= 100; i++) {
+            r.relate(i, 0); //crowds the labels inside the interval of 0
+        }
+        assertTrue(counters.relabels() > 0);
+        assertTrue(counters.relabeledNodes() >= counters.relabels());
+        assertEquals(0L, counters.propagations());
+
+        for (int i = 1; i < 100; i++) {
+            r.relate(i, i + 1); //each element gains the interval of the previous one
+        }
+        assertEquals(Relations.propagationCounters(r).propagations(), counters.propagations());
+        assertEquals(Relations.propagationCounters(r).nodesVisited(), counters.nodesVisited());
+        assertTrue(counters.intervalSetGrowths() > 0);
+        assertEquals(0L, counters.slowPropagations());
+        assertEquals(0L, counters.slowRelabels());
+
+        Relations.setListener(r, null);
+        long propagations = counters.propagations();
+        r.relate(200, 201);
+        r.relate(201, 1);
+        assertEquals(propagations, counters.propagations());
+    }
+
     @Test
     public void testUnmodifiableRelation() {
         TransitiveRelation<String> r = Relations.newTransitiveRelation();
@@ -5,10 +5,14 @@ import edu.bath.transitivityutils.OrderList;
 import edu.bath.transitivityutils.OrderList.Node;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Random;
 
 public class TestBinarySearchCutoff {
     static final int CUTOFF = 10;
 
+    static final int MAX_SIZE = 1024;
+    static final int QUERIES = 4096;
+
     public static void main(String[] args) {
         OrderList<Integer> list = OrderList.create();
         List<Node<Integer>> nodes = new ArrayList<Node<Integer>>();
@@ -51,5 +55,150 @@ public class TestBinarySearchCutoff {
             }
             System.out.println("Composite: " + min3);
         }
+
+        compareTagStrategies();
+        compareFrozenStrategies();
+        System.out.println();
+        System.out.println("Calibrated cutoff: " + Relations.calibrateSearchCutoff());
+    }
+
+    /**
+     * Times the strategies over cached tags (linear scan, branch-free binary search, plain binary search) at interval set sizes
+     * from 2 to MAX_SIZE boundaries, with random queries (so that branches are as unpredictable as in real use).
+     * Prints the average nanoseconds per query.
+     */
+    static void compareTagStrategies() {
+        Random random = new Random(0);
+        System.out.println();
+        System.out.println("size\tlinear\tbranch-free\tbinary");
+        for (int size = 2; size <= MAX_SIZE; size *= 2) {
+            OrderList<Integer> list = OrderList.create();
+            List<Node<Integer>> nodes = new ArrayList<Node<Integer>>();
+            for (int i = 0; i < 2 * size; i++) {
+                nodes.add(list.addAfter(list.base().previous(), i));
+            }
+            //every other pair of nodes is an interval, so half of the queries are hits
+            MergingIntervalSet set = new MergingIntervalSet();
+            for (int i = 0; i < 2 * size; i += 4) {
+                set.addInterval(nodes.get(i), nodes.get(i + 1));
+            }
+            set.contains(nodes.get(0), list.relabelCount()); //caches the tags
+            long[] queries = new long[QUERIES];
+            for (int i = 0; i < QUERIES; i++) {
+                queries[i] = nodes.get(random.nextInt(nodes.size())).tag();
+            }
+            int rounds = Math.max(20, 20000 / size);
+            long[] best = { Long.MAX_VALUE, Long.MAX_VALUE, Long.MAX_VALUE };
+            int sink = 0;
+            for (int repeats = 0; repeats < 5; repeats++) {
+                for (int strategy = 0; strategy < 3; strategy++) {
+                    long start = System.nanoTime();
+                    for (int r = 0; r < rounds; r++) {
+                        sink += run(set, strategy, queries);
+                    }
+                    best[strategy] = Math.min(best[strategy], System.nanoTime() - start);
+                }
+            }
+            long total = (long)rounds * QUERIES;
+            System.out.printf("%d\t%.1f\t%.1f\t\t%.1f%s%n", size,
+                    (double)best[0] / total, (double)best[1] / total, (double)best[2] / total,
+                    sink == 42 ? " " : "");
+        }
+    }
+
+    static final int FROZEN_INTS = 1 << 22;
+
+    /**
+     * Times the strategies of frozen relations (linear scan, binary search over the sorted intervals, search over
+     * the Eytzinger layout) at interval set sizes from 2 to MAX_SIZE ints. Many sets are packed in one array of
+     * FROZEN_INTS ints (like the intervals of a large frozen relation), and every query goes to a random one, so
+     * the measurements include the cache misses of real use. Prints the average nanoseconds per query, and the
+     * sizes from which the search and the Eytzinger layout beat the strategy before them.
+     */
+    static void compareFrozenStrategies() {
+        Random random = new Random(0);
+        System.out.println();
+        System.out.println("size\tlinear\tbinary\teytzinger");
+        int searchFrom = -1;
+        int eytzingerFrom = -1;
+        for (int size = 2; size <= MAX_SIZE; size *= 2) {
+            int sets = FROZEN_INTS / size;
+            int[] intervals = new int[FROZEN_INTS];
+            int[] trees = new int[FROZEN_INTS];
+            for (int set = 0; set < sets; set++) {
+                int next = 0;
+                for (int i = set * size; i < (set + 1) * size; i += 2) {
+                    intervals[i] = next + 1 + random.nextInt(2);
+                    intervals[i + 1] = intervals[i] + random.nextInt(2);
+                    next = intervals[i + 1];
+                }
+                FrozenTransitiveRelation.eytzingerLayout(intervals, set * size, (set + 1) * size, trees, set * size);
+            }
+            int[] querySets = new int[QUERIES];
+            int[] subjects = new int[QUERIES];
+            for (int i = 0; i < QUERIES; i++) {
+                querySets[i] = random.nextInt(sets) * size;
+                subjects[i] = random.nextInt(intervals[querySets[i] + size - 1] + 2);
+            }
+            int rounds = Math.max(20, 20000 / size);
+            long[] best = { Long.MAX_VALUE, Long.MAX_VALUE, Long.MAX_VALUE };
+            int sink = 0;
+            for (int repeats = 0; repeats < 5; repeats++) {
+                for (int strategy = 0; strategy < 3; strategy++) {
+                    long start = System.nanoTime();
+                    for (int r = 0; r < rounds; r++) {
+                        sink += runFrozen(intervals, trees, size, strategy, querySets, subjects);
+                    }
+                    best[strategy] = Math.min(best[strategy], System.nanoTime() - start);
+                }
+            }
+            if (searchFrom < 0 && best[1] < best[0]) searchFrom = size;
+            if (eytzingerFrom < 0 && best[2] < best[1]) eytzingerFrom = size;
+            long total = (long)rounds * QUERIES;
+            System.out.printf("%d\t%.1f\t%.1f\t%.1f%s%n", size,
+                    (double)best[0] / total, (double)best[1] / total, (double)best[2] / total,
+                    sink == 42 ? " " : "");
+        }
+        System.out.println("Binary search beats linear scan from size " + searchFrom);
+        System.out.println("Eytzinger beats binary search from size " + eytzingerFrom
+                + " (FrozenTransitiveRelation switches at " + FrozenTransitiveRelation.EYTZINGER_CUTOFF_POINT + ")");
+    }
+
+    private static int runFrozen(int[] intervals, int[] trees, int size, int strategy,
+            int[] querySets, int[] subjects) {
+        int hits = 0;
+        for (int i = 0; i < querySets.length; i++) {
+            int from = querySets[i];
+            boolean hit;
+            switch (strategy) {
+                case 0:
+                    hit = FrozenTransitiveRelation.linearScan(intervals, from, from + size, subjects[i]);
+                    break;
+                case 1:
+                    hit = FrozenTransitiveRelation.binarySearch(intervals, from, from + size, subjects[i]);
+                    break;
+                default:
+                    hit = FrozenTransitiveRelation.eytzingerSearch(trees, from, size, subjects[i]);
+                    break;
+            }
+            if (hit) hits++;
+        }
+        return hits;
+    }
+
+    private static int run(MergingIntervalSet set, int strategy, long[] queries) {
+        int hits = 0;
+        switch (strategy) {
+            case 0:
+                for (long tag : queries) if (set.containsTag_linearScan(tag)) hits++;
+                break;
+            case 1:
+                for (long tag : queries) if (set.containsTag_branchFree(tag)) hits++;
+                break;
+            default:
+                for (long tag : queries) if (set.containsTag_binarySearch(tag)) hits++;
+                break;
+        }
+        return hits;
     }
 }
@@ -1,5 +1,8 @@
 package edu.bath.transitivityutils;
 
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import java.util.BitSet;
 import org.junit.Ignore;
 import org.junit.Test;
 import static org.junit.Assert.*;
@@ -93,4 +96,53 @@ public class TransitiveBiRelationTest {
                 6, 8,
                 7, 8);
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testDualLabeled() {
+        TransitiveBiRelation<Object> rel = Relations.newDualLabeledTransitiveBiRelation();
+        assertSame(rel, rel.inverse().inverse());
+
+        rel.relate(1, 2);
+        rel.relate(2, 3);
+        rel.relate(2, 4);
+        rel.relate(2, 5);
+        rel.inverse().relate(8, 6);
+        rel.inverse().relate(8, 7);
+        rel.relate(8, 8);
+        rel.relate(9, 3);
+
+        assertBiRelations(rel,
+                1, 2,
+                1, 3,
+                1, 4,
+                1, 5,
+                2, 3,
+                2, 4,
+                2, 5,
+                6, 8,
+                7, 8,
+                9, 3);
+
+        assertEquals(ImmutableSet.of(3, 2, 1, 9), Relations.descendants(rel, 3));
+        assertEquals(ImmutableSet.of(1, 2, 3, 4, 5), Relations.ancestors(rel, 1));
+        assertEquals(5, Relations.countAncestors(rel, 1));
+        assertEquals(ImmutableSet.of(3, 2, 1, 9), Relations.ancestors(rel.inverse(), 3));
+        assertEquals(ImmutableSet.of(1, 2, 3, 4, 5), Relations.descendants(rel.inverse(), 1));
+        assertEquals(5, Relations.countDescendants(Relations.unmodifiableTransitiveBiRelation(rel.inverse()), 1));
+        assertEquals(1, Relations.countAncestors(rel, 3));
+
+        BitSet pairs = Relations.relatedPairs(rel.inverse(), ImmutableList.of(3, 8), ImmutableList.of(1, 9, 6));
+        assertEquals(ImmutableList.of(true, true, false, false, false, true), ImmutableList.of(
+                pairs.get(0), pairs.get(1), pairs.get(2), pairs.get(3), pairs.get(4), pairs.get(5)));
+
+        assertTrue(Relations.unrelate(rel, 9, 3));
+        assertFalse(rel.inverse().areRelated(3, 9));
+        assertTrue(Relations.remove(rel, 2));
+        assertEquals(ImmutableSet.of(1), Relations.ancestors(rel, 1));
+        assertEquals(ImmutableSet.of(8, 6, 7), Relations.descendants(rel, 8));
+
+        TransitiveBiRelation<Object> copy = SerializationUtils.serializedCopy(rel);
+        assertEquals(ImmutableSet.of(8, 6, 7), Relations.ancestors(copy.inverse(), 8));
+        assertEquals(3, Relations.countAncestors(copy.inverse(), 8));
+    }
+}
@@ -1,10 +1,17 @@
 package edu.bath.transitivityutils;
 
 import com.google.common.collect.HashMultimap;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.SetMultimap;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.util.Map;
 import java.util.Random;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicReference;
 import org.junit.After;
 import org.junit.Test;
 import static org.junit.Assert.*;
@@ -304,6 +311,16 @@ public class TransitiveRelationTest {
     @Test
     public void testRandomized() {
         r = Relations.newTransitiveRelation();
+        randomizedTest();
+    }
+
+    @Test
+    public void testTwoLevelRandomized() {
+        r = Relations.newTwoLevelTransitiveRelation();
+        randomizedTest();
+    }
+
+    private void randomizedTest() {
         SetMultimap<Integer, Integer> edges = HashMultimap.create();
         int total = 200;
         Random random = new Random(0);
@@ -325,6 +342,275 @@ public class TransitiveRelationTest {
         }
     }
 
+    @Test
+    public void testPropagationCounters() {
+        r = Relations.newTransitiveRelation();
+        PropagationCounters counters = Relations.propagationCounters(r);
+        r.relate(1, 2);
+        r.relate(2, 3);
+        r.relate(3, 4);
+        assertEquals(0L, counters.propagations());
+
+        r.relate(5, 6);
+        r.relate(6, 2); //propagates the intervals of 6 (covering 5 and 6) to 2, 3 and 4
+        assertEquals(1L, counters.propagations());
+        assertEquals(3, counters.lastNodesVisited());
+        assertEquals(3, counters.lastIntervalsMerged());
+
+        r.relate(5, 4); //already implied; only 4 is visited
+        assertEquals(1, counters.lastNodesVisited());
+        assertEquals(0, counters.lastIntervalsMerged());
+        assertEquals(4L, counters.nodesVisited());
+
+        counters.reset();
+        assertEquals(0L, counters.nodesVisited());
+    }
+
+    @Test
+    public void testQueryCounters() {
+        r = Relations.newTransitiveRelation();
+        r.relate(1, 2);
+        r.relate(2, 3);
+        r.relate(3, 4);
+        r.relate(5, 6);
+        r.relate(6, 2); //2 now has two intervals: its own, and that of 6
+        r.relate(9, 4); //nested inside 4, between the two intervals of 2
+
+        QueryCounters counters = Relations.queryCounters(r);
+        assertFalse(r.areRelated(4, 1));
+        assertFalse(r.areRelated(3, 2));
+        assertFalse(r.areRelated(1, 6));
+        assertEquals(3L, counters.filtered());
+        assertEquals(0L, counters.searches());
+
+        assertTrue(r.areRelated(1, 2));
+        assertTrue(r.areRelated(5, 2));
+        assertFalse(r.areRelated(9, 2)); //within the span of the intervals of 2, so it is searched
+        assertFalse(r.areRelated(1, 7)); //not counted
+        assertTrue(r.areRelated(2, 2)); //not counted
+        assertEquals(6L, counters.queries());
+        assertEquals(3L, counters.searches());
+        assertEquals(2L, counters.hits());
+        assertEquals(0.75, counters.filteredMissRatio(), 0.0);
+
+        counters.reset();
+        assertEquals(0L, counters.queries());
+    }
+
+    @Test
+    public void testCycleCollapsing() {
+        r = Relations.newTransitiveRelation();
+        PropagationCounters counters = Relations.propagationCounters(r);
+        int length = 50;
+        for (int i = 0; i < length - 1; i++) {
+            r.relate(i, i + 1);
+        }
+        r.relate(length, 0);
+        r.relate(length - 1, 0); //closes the cycle
+        for (int i = 0; i < length; i++) {
+            assertTrue(r.areRelated(length, i));
+            assertFalse(r.areRelated(i, length));
+            for (int j = 0; j < length; j++) {
+                assertTrue(r.areRelated(i, j));
+            }
+        }
+
+        r.relate(10, 30); //inside the cycle, nothing to propagate
+        assertEquals(0, counters.lastNodesVisited());
+
+        r.relate(length + 1, length + 2);
+        r.relate(length + 1, 20); //the whole cycle is visited once
+        assertEquals(1, counters.lastNodesVisited());
+        assertTrue(r.areRelated(length + 1, 40));
+
+        Relations.unrelate(r, length - 1, 0); //breaks the cycle; 10 -> 30 still shortcuts part of it
+        assertTrue(r.areRelated(0, length - 1));
+        assertFalse(r.areRelated(length - 1, 0));
+        assertTrue(r.areRelated(10, 30));
+        assertFalse(r.areRelated(30, 10));
+        assertTrue(r.areRelated(length + 1, 40));
+        assertFalse(r.areRelated(length + 1, 19));
+    }
+
+    @Test
+    public void testSnapshot() throws Exception {
+        r = Relations.newTransitiveRelation();
+        int total = 200;
+        Random random = new Random(0);
+        for (int subject = 0; subject < total; subject++) {
+            for (int object = 0; object < total; object++) {
+                if (random.nextDouble() < 0.01) {
+                    r.relate(subject, object);
+                }
+            }
+        }
+        r.relate(null, 0);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Relations.writeSnapshot(r, out);
+        TransitiveRelation<Object> copy = Relations.readSnapshot(new ByteArrayInputStream(out.toByteArray()));
+        assertEquals(0L, Relations.propagationCounters(copy).propagations());
+
+        for (int subject = 0; subject < total; subject++) {
+            assertEquals(ImmutableSet.copyOf(r.direct().related(subject)), ImmutableSet.copyOf(copy.direct().related(subject)));
+            for (int object = 0; object < total; object++) {
+                assertEquals(r.areRelated(subject, object), copy.areRelated(subject, object));
+            }
+        }
+        assertTrue(copy.areRelated(null, 0));
+
+        //the copy remains fully functional
+        copy.relate(total, total + 1);
+        copy.relate(total + 1, 0);
+        copy.relate(1, total);
+        assertTrue(copy.areRelated(total, 0));
+        assertTrue(copy.areRelated(1, total + 1));
+    }
+
+    @Test
+    public void testSnapshotKeepsComponents() throws Exception {
+        //a cycle through elements with many intervals each; its members share a single interval set
+        r = Relations.newTransitiveRelation();
+        int total = 50;
+        for (int i = 0; i < total; i++) {
+            r.relate(i, (i + 1) % total);
+            r.relate(total + 2 * i, i);
+            r.relate(total + 2 * i + 1, total + 2 * i);
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Relations.writeSnapshot(r, out);
+        TransitiveRelation<Object> copy = Relations.readSnapshot(new ByteArrayInputStream(out.toByteArray()));
+        assertTrue(Relations.statistics(copy).estimatedBytes() <= Relations.statistics(r).estimatedBytes());
+
+        //the restored component behaves as the original one
+        for (TransitiveRelation<Object> relation : ImmutableList.of(r, copy)) {
+            relation.relate(-1, 7);
+            assertTrue(relation.areRelated(-1, 30));
+            assertTrue(relation.areRelated(30, 7));
+            assertTrue(Relations.remove(relation, 20)); //breaks the cycle into the path 21 -> ... -> 49 -> 0 -> ... -> 19
+            assertTrue(relation.areRelated(-1, 19));
+            assertFalse(relation.areRelated(-1, 21));
+            assertFalse(relation.areRelated(-1, 6));
+            assertTrue(relation.areRelated(21, 19));
+            assertFalse(relation.areRelated(19, 21));
+            assertTrue(relation.areRelated(total + 43, 3));
+            assertTrue(relation.areRelated(total + 41, total + 40));
+            assertFalse(relation.areRelated(total + 41, 21));
+        }
+    }
+
+    @Test(expected=IOException.class)
+    public void testSnapshotWithWrongMagic() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ObjectOutputStream objectOut = new ObjectOutputStream(out);
+        objectOut.writeInt(42);
+        objectOut.flush();
+        Relations.readSnapshot(new ByteArrayInputStream(out.toByteArray()));
+    }
+
+    @Test
+    public void testUnrelateNested() {
+        r = Relations.newTransitiveRelation();
+        r.relate(1, 0); //1 nested in 0
+        r.relate(2, 1); //2 nested in 1
+        r.relate(3, 0);
+
+        assertTrue(Relations.unrelate(r, 1, 0));
+        assertFalse(Relations.unrelate(r, 1, 0));
+        assertFalse(r.areRelated(1, 0));
+        assertFalse(r.areRelated(2, 0));
+        assertTrue(r.areRelated(2, 1));
+        assertTrue(r.areRelated(3, 0));
+        assertTrue(r.direct().related(1).isEmpty());
+
+        r.relate(2, 3);
+        assertTrue(r.areRelated(2, 0));
+        assertFalse(r.areRelated(1, 0));
+    }
+
+    @Test
+    public void testRemove() {
+        r = Relations.newTransitiveRelation();
+        r.relate(1, 0);
+        r.relate(2, 1);
+        r.relate(3, 2);
+        r.relate(4, 1);
+
+        assertTrue(Relations.remove(r, 1));
+        assertFalse(Relations.remove(r, 1));
+        assertFalse(r.areRelated(2, 0));
+        assertFalse(r.areRelated(3, 0));
+        assertFalse(r.areRelated(4, 0));
+        assertTrue(r.areRelated(3, 2));
+        assertFalse(r.areRelated(4, 1));
+        assertFalse(r.direct().domain().contains(4));
+        assertEquals(ImmutableSet.of(2), ImmutableSet.copyOf(r.direct().related(3)));
+
+        r.relate(2, 0);
+        assertTrue(r.areRelated(3, 0));
+        assertFalse(r.areRelated(4, 0));
+    }
+
+    @Test
+    public void testRemovals_Randomized() {
+        Random random = new Random(0);
+        int total = 60;
+        for (int round = 0; round < 20; round++) {
+            r = Relations.newTransitiveRelation();
+            SetMultimap<Object, Object> edges = HashMultimap.create();
+            for (int i = 0; i < 2 * total; i++) {
+                int subject = random.nextInt(total);
+                int object = random.nextInt(total);
+                if (subject == object) continue;
+                r.relate(subject, object);
+                edges.put(subject, object);
+            }
+            for (int step = 0; step < 30; step++) {
+                int choice = random.nextInt(3);
+                if (choice == 0 && !edges.isEmpty()) {
+                    Object[] entries = edges.entries().toArray();
+                    @SuppressWarnings("unchecked")
+                    Map.Entry<Object, Object> edge = (Map.Entry<Object, Object>)entries[random.nextInt(entries.length)];
+                    assertTrue(Relations.unrelate(r, edge.getKey(), edge.getValue()));
+                    edges.remove(edge.getKey(), edge.getValue());
+                } else if (choice == 1) {
+                    Integer element = random.nextInt(total);
+                    Relations.remove(r, element);
+                    edges.removeAll(element);
+                    edges.values().removeAll(ImmutableSet.of(element));
+                } else {
+                    int subject = random.nextInt(total);
+                    int object = random.nextInt(total);
+                    if (subject == object) continue;
+                    r.relate(subject, object);
+                    edges.put(subject, object);
+                }
+                assertSameClosure(edges, total);
+            }
+            assertSameRelation(r, Relations.freeze(r), total);
+        }
+    }
+
+    private void assertSameClosure(SetMultimap<Object, Object> edges, int total) {
+        Navigator<Object> expected = Navigators.forMultimap(edges);
+        for (int subject = 0; subject < total; subject++) {
+            Set<Object> closure = Navigators.closure(expected, subject);
+            assertEquals(edges.get(subject), ImmutableSet.copyOf(r.direct().related(subject)));
+            for (int object = 0; object < total; object++) {
+                assertEquals(subject + " -> " + object, closure.contains(object), r.areRelated(subject, object));
+            }
+            assertEquals(Relations.descendants(r, subject).size(), Relations.countDescendants(r, subject));
+        }
+    }
+
+    private static void assertSameRelation(TransitiveRelation<Object> expected, TransitiveRelation<Object> actual, int total) {
+        for (int subject = 0; subject < total; subject++) {
+            for (int object = 0; object < total; object++) {
+                assertEquals(expected.areRelated(subject, object), actual.areRelated(subject, object));
+            }
+        }
+    }
+
     @Test
     public void testRegression1() {
         TransitiveRelation<String> r = Relations.newTransitiveRelation();
@@ -352,4 +638,48 @@ public class TransitiveRelationTest {
             "CCC", "FFF",
             "EEE", "FFF");
     }
+
+    @Test
+    public void testConcurrentQueriesOfUnmodifiedRelation() throws Exception {
+        final TransitiveRelation<Integer> relation = Relations.newTransitiveRelation();
+        final int total = 200;
+        Random random = new Random(0);
+        for (int i = 0; i < total * 3; i++) {
+            relation.relate(random.nextInt(total), random.nextInt(total));
+        }
+        //computed without querying the relation, so that the readers are the first to cache any tags
+        final boolean[][] expected = new boolean[total][];
+        for (int subject = 0; subject < total; subject++) {
+            expected[subject] = new boolean[total];
+            for (Integer object : Navigators.closure(relation.direct(), subject)) {
+                expected[subject][object] = true;
+            }
+            expected[subject][subject] = true;
+        }
+
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        Thread[] readers = new Thread[4];
+        for (int i = 0; i < readers.length; i++) {
+            final int offset = i;
+            readers[i] = new Thread() {
+                @Override public void run() {
+                    try {
+                        for (int subject = 0; subject < total; subject++) {
+                            int s = (subject + offset * total / 4) % total;
+                            for (int object = 0; object < total; object++) {
+                                assertEquals(expected[s][object], relation.areRelated(s, object));
+                            }
+                        }
+                    } catch (Throwable t) {
+                        failure.set(t);
+                    }
+                }
+            };
+            readers[i].start();
+        }
+        for (Thread reader : readers) {
+            reader.join();
+        }
+        assertNull(failure.get());
+    }
  }
\ No newline at end of file
@@ -0,0 +1,134 @@
+package edu.bath.transitivityutils;
+
+import com.google.common.collect.HashMultimap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.SetMultimap;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Graph shapes used by {@link Benchmarks}. Every workload generates a list of (subject, object) relationships
+ * over the elements {@code 0 .. size - 1}, deterministically for a given seed.
+ *
+ * @author Andreou Dimitris, email: jim.andreou (at) gmail.com
+ */
+enum Workload {
+    /**
+     * Every element (but the first) is related to one random earlier element.
+     */
+    TREE(true) {
+        void generate(int size, Random random, SetMultimap<Integer, Integer> edges) {
+            for (int subject = 1; subject < size; subject++) {
+                edges.put(subject, random.nextInt(subject));
+            }
+        }
+    },
+
+    /**
+     * Every element is related to two random later elements, on average.
+     */
+    SPARSE_DAG(true) {
+        void generate(int size, Random random, SetMultimap<Integer, Integer> edges) {
+            randomDag(size, 2, random, edges);
+        }
+    },
+
+    /**
+     * Every element is related to sixteen random later elements, on average.
+     */
+    DENSE_DAG(true) {
+        void generate(int size, Random random, SetMultimap<Integer, Integer> edges) {
+            randomDag(size, 16, random, edges);
+        }
+    },
+
+    /**
+     * A single-inheritance tree, where a fifth of the elements also implement a few "interfaces", chosen among
+     * the first elements of the hierarchy.
+     */
+    CLASS_HIERARCHY(true) {
+        void generate(int size, Random random, SetMultimap<Integer, Integer> edges) {
+            int interfaces = Math.max(2, (int)Math.sqrt(size));
+            for (int subject = 1; subject < size; subject++) {
+                edges.put(subject, random.nextInt(subject));
+                if (subject > interfaces && random.nextDouble() < 0.2) {
+                    int count = 1 + random.nextInt(3);
+                    for (int i = 0; i < count; i++) {
+                        edges.put(subject, random.nextInt(interfaces));
+                    }
+                }
+            }
+        }
+    },
+
+    /**
+     * Many disjoint trees of a hundred elements each (as in multi-tenant hierarchies), each like {@link #TREE}.
+     */
+    FOREST(true) {
+        void generate(int size, Random random, SetMultimap<Integer, Integer> edges) {
+            for (int subject = 0; subject < size; subject++) {
+                int offset = subject % 100;
+                if (offset != 0) {
+                    edges.put(subject, subject - offset + random.nextInt(offset));
+                }
+            }
+        }
+    },
+
+    /**
+     * Every element is related to two random elements, on average, so there are cycles of all sizes.
+     */
+    CYCLIC(false) {
+        void generate(int size, Random random, SetMultimap<Integer, Integer> edges) {
+            for (int i = 0; i < 2 * size; i++) {
+                int subject = random.nextInt(size);
+                int object = random.nextInt(size);
+                if (subject != object) {
+                    edges.put(subject, object);
+                }
+            }
+        }
+    };
+
+    private final boolean acyclic;
+
+    private Workload(boolean acyclic) {
+        this.acyclic = acyclic;
+    }
+
+    boolean isAcyclic() {
+        return acyclic;
+    }
+
+    abstract void generate(int size, Random random, SetMultimap<Integer, Integer> edges);
+
+    /**
+     * Returns the relationships of this workload, in random order.
+     */
+    List<Map.Entry<Integer, Integer>> relationships(int size, long seed) {
+        Random random = new Random(seed);
+        List<Map.Entry<Integer, Integer>> relationships = Lists.newArrayList();
+        for (Map.Entry<Integer, Integer> edge : navigableEdges(size, seed).entries()) {
+            relationships.add(Maps.immutableEntry(edge.getKey(), edge.getValue()));
+        }
+        Collections.shuffle(relationships, random);
+        return relationships;
+    }
+
+    SetMultimap<Integer, Integer> navigableEdges(int size, long seed) {
+        SetMultimap<Integer, Integer> edges = HashMultimap.create();
+        generate(size, new Random(seed), edges);
+        return edges;
+    }
+
+    private static void randomDag(int size, int averageDegree, Random random, SetMultimap<Integer, Integer> edges) {
+        for (int subject = 0; subject < size - 1; subject++) {
+            for (int i = 0; i < averageDegree; i++) {
+                edges.put(subject, subject + 1 + random.nextInt(size - subject - 1));
+            }
+        }
+    }
+}